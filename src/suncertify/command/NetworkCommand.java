@@ -6,6 +6,7 @@ import javax.swing.JOptionPane;
 
 import suncertify.core.ApplicationContext;
 import suncertify.db.dao.IContractorDao;
+import suncertify.db.dao.IContractorDaoFactory;
 import suncertify.gui.configuration.NetworkConfigurationDialog;
 import suncertify.gui.contractor.MainWindow;
 import suncertify.gui.dialog.AbstractDialog;
@@ -31,8 +32,8 @@ class NetworkCommand implements ICommand {
 				ApplicationContext appCtx = ApplicationContext.getInstance();
 
 				if (dao == null) {
-					dao = (IContractorDao) Naming
-							.lookup(appCtx.getServiceURL());
+					dao = ((IContractorDaoFactory) Naming
+							.lookup(appCtx.getServiceURL())).getDao();
 					appCtx.setContractorDao(dao);
 				}
 
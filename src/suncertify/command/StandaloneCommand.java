@@ -30,7 +30,7 @@ class StandaloneCommand implements ICommand {
 				ApplicationContext appCtx = ApplicationContext.getInstance();
 
 				if (dao == null) {
-					dao = new ContractorLocalDao(appCtx.getLocalDBFileName());
+					dao = new ContractorLocalDao(appCtx.getLocalDBFileName(), appCtx.getDBConfiguration());
 					appCtx.setContractorDao(dao);
 				}
 
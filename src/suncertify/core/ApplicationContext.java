@@ -10,7 +10,11 @@ import java.util.Map;
 import java.util.Properties;
 
 import suncertify.core.provider.INameProvider;
+import suncertify.core.storage.StorageModeEnum;
+import suncertify.core.storage.SyncPolicyEnum;
 import suncertify.db.dao.IContractorDao;
+import suncertify.db.store.AllocationPolicyEnum;
+import suncertify.db.store.RecordStoreModeEnum;
 import suncertify.gui.dialog.AbstractDialog;
 
 /**
@@ -59,6 +63,56 @@ public final class ApplicationContext {
 	 */
 	private static final String DEFAULT_MODE_PROPERTY = "suncertify.default_mode";
 
+	/**
+	 * Property name for the access mode of the record area of DB file.
+	 */
+	private static final String DB_STORAGE_MODE = "suncertify.db.storage_mode";
+
+	/**
+	 * Property name for the policy of forcing written records to the storage device.
+	 */
+	private static final String DB_SYNC_POLICY = "suncertify.db.sync_policy";
+
+	/**
+	 * Property name for the interval (in milliseconds) between periodic forces of DB file.
+	 */
+	private static final String DB_SYNC_INTERVAL = "suncertify.db.sync_interval";
+
+	/**
+	 * Property name for the interval (in milliseconds) between write-ahead log checkpoints.
+	 */
+	private static final String DB_CHECKPOINT_INTERVAL = "suncertify.db.checkpoint_interval";
+
+	/**
+	 * Property name for the number of threads loading records at startup.
+	 */
+	private static final String DB_LOAD_THREADS = "suncertify.db.load_threads";
+
+	/**
+	 * Property name for the number of threads searching records.
+	 */
+	private static final String DB_SCAN_THREADS = "suncertify.db.scan_threads";
+
+	/**
+	 * Property name for the minimum number of slots searched in parallel.
+	 */
+	private static final String DB_PARALLEL_SCAN_THRESHOLD = "suncertify.db.parallel_scan_threshold";
+
+	/**
+	 * Property name for the way records are kept in memory.
+	 */
+	private static final String DB_RECORD_STORE = "suncertify.db.record_store";
+
+	/**
+	 * Property name for the maximum number of cached records.
+	 */
+	private static final String DB_CACHE_SIZE = "suncertify.db.cache_size";
+
+	/**
+	 * Property name for the policy of choosing numbers of new records.
+	 */
+	private static final String DB_ALLOCATION_POLICY = "suncertify.db.allocation_policy";
+
 	/**
 	 * Property name for the help file URL.
 	 */
@@ -228,6 +282,105 @@ public final class ApplicationContext {
 		return contractorDao;
 	}
 
+	/**
+	 * Returns the database configuration - settings that are missing or
+	 * invalid in the configuration file keep their default values.
+	 * 
+	 * @return DBConfiguration - the database configuration.
+	 */
+	public DBConfiguration getDBConfiguration() {
+		DBConfiguration configuration = new DBConfiguration();
+
+		String storageMode = configProperties.getProperty(DB_STORAGE_MODE);
+		if (storageMode != null) {
+			try {
+				configuration.setStorageMode(StorageModeEnum.valueOf(storageMode.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				// XXX: ignore it - default storage mode is used
+			}
+		}
+
+		String syncPolicy = configProperties.getProperty(DB_SYNC_POLICY);
+		if (syncPolicy != null) {
+			try {
+				configuration.setSyncPolicy(SyncPolicyEnum.valueOf(syncPolicy.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				// XXX: ignore it - default sync policy is used
+			}
+		}
+
+		long syncInterval = getLongProperty(DB_SYNC_INTERVAL);
+		if (syncInterval > 0) {
+			configuration.setSyncInterval(syncInterval);
+		}
+
+		long checkpointInterval = getLongProperty(DB_CHECKPOINT_INTERVAL);
+		if (checkpointInterval > 0) {
+			configuration.setCheckpointInterval(checkpointInterval);
+		}
+
+		long loadThreads = getLongProperty(DB_LOAD_THREADS);
+		if (loadThreads > 0 && loadThreads <= Integer.MAX_VALUE) {
+			configuration.setLoadThreads((int) loadThreads);
+		}
+
+		long scanThreads = getLongProperty(DB_SCAN_THREADS);
+		if (scanThreads > 0 && scanThreads <= Integer.MAX_VALUE) {
+			configuration.setScanThreads((int) scanThreads);
+		}
+
+		long parallelScanThreshold = getLongProperty(DB_PARALLEL_SCAN_THRESHOLD);
+		if (parallelScanThreshold > 0 && parallelScanThreshold <= Integer.MAX_VALUE) {
+			configuration.setParallelScanThreshold((int) parallelScanThreshold);
+		}
+
+		String recordStore = configProperties.getProperty(DB_RECORD_STORE);
+		if (recordStore != null) {
+			try {
+				configuration.setRecordStoreMode(RecordStoreModeEnum.valueOf(recordStore.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				// XXX: ignore it - default record store is used
+			}
+		}
+
+		long cacheSize = getLongProperty(DB_CACHE_SIZE);
+		if (cacheSize > 1 && cacheSize <= Integer.MAX_VALUE) {
+			configuration.setCacheSize((int) cacheSize);
+		}
+
+		String allocationPolicy = configProperties.getProperty(DB_ALLOCATION_POLICY);
+		if (allocationPolicy != null) {
+			try {
+				configuration.setAllocationPolicy(AllocationPolicyEnum.valueOf(allocationPolicy.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				// XXX: ignore it - default allocation policy is used
+			}
+		}
+
+		return configuration;
+	}
+
+	/**
+	 * Returns the value of the property with given name as <code>long</code>.
+	 * 
+	 * @param key
+	 *            String - property name.
+	 * @return long - the value of the property or <code>-1</code> if property
+	 *         is missing or is not a valid number.
+	 */
+	private long getLongProperty(String key) {
+		String value = configProperties.getProperty(key);
+		if (value == null) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * Returns the help file URL.
 	 * 
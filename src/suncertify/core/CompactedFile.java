@@ -0,0 +1,154 @@
+package suncertify.core;
+
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.ContractorCodec;
+
+/**
+ * <code>CompactedFile</code> is a compacted copy of database file being written
+ * next to it (see {@link DBHelper#createCompactedFile()}). It starts with the
+ * header of the original file and records are written to given slots - the
+ * caller decides where each record goes. When the copy is complete it replaces
+ * the original file (see {@link DBHelper#replace(CompactedFile)}).<br>
+ * <br>
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.core.DBHelper
+ */
+public final class CompactedFile {
+	/**
+	 * Compacted file.
+	 */
+	private final File file;
+
+	/**
+	 * Random access file of the compacted file.
+	 */
+	private final RandomAccessFile randomAccessFile;
+
+	/**
+	 * Channel of the compacted file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Length of the header (offset of the first slot).
+	 */
+	private final long firstRecordOffset;
+
+	/**
+	 * Record codec.
+	 */
+	private final ContractorCodec codec = new ContractorCodec();
+
+	/**
+	 * Scratch buffer of a single slot.
+	 */
+	private final ByteBuffer slot = ByteBuffer.allocate(SLOT_LENGTH);
+
+	/**
+	 * Number of slots in the compacted file.
+	 */
+	private int slotCount = 0;
+
+	/**
+	 * Creates compacted file (existing file is truncated) and writes given
+	 * header.
+	 *
+	 * @param file
+	 *            File - compacted file.
+	 * @param header
+	 *            ByteBuffer - header of the original database file.
+	 * @throws IOException
+	 *             If file cannot be created.
+	 */
+	CompactedFile(final File file, final ByteBuffer header) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "rw");
+		this.channel = randomAccessFile.getChannel();
+		this.firstRecordOffset = header.remaining();
+
+		channel.truncate(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Returns the compacted file.
+	 *
+	 * @return File - the compacted file.
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of slots in the compacted file.
+	 *
+	 * @return int - the number of slots in the compacted file.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Writes given record (valid or deleted) to the slot with given record
+	 * number - the number of the record itself is ignored.
+	 *
+	 * @param recordNo
+	 *            int - record number in the compacted file.
+	 * @param record
+	 *            Contractor - record to write.
+	 * @throws IOException
+	 *             If write operation fails.
+	 */
+	public void write(final int recordNo, final Contractor record) throws IOException {
+		int slotIndex = recordNo - FIRST_RECORD_NO;
+		slot.clear();
+		codec.encode(record, slot);
+		slot.flip();
+
+		long position = firstRecordOffset + (long) slotIndex * SLOT_LENGTH;
+		while (slot.hasRemaining()) {
+			position += channel.write(slot, position);
+		}
+		slotCount = Math.max(slotCount, slotIndex + 1);
+	}
+
+	/**
+	 * Forces written records to the storage device and closes the file.
+	 *
+	 * @throws IOException
+	 *             If records cannot be forced.
+	 */
+	public void close() throws IOException {
+		try {
+			channel.force(true);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Closes and deletes the compacted file - used when compaction is
+	 * abandoned.
+	 */
+	public void delete() {
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,281 @@
+package suncertify.core;
+
+import suncertify.core.storage.StorageModeEnum;
+import suncertify.core.storage.SyncPolicyEnum;
+import suncertify.db.store.AllocationPolicyEnum;
+import suncertify.db.store.RecordStoreModeEnum;
+
+/**
+ * <code>DBConfiguration</code> carries settings of the database layer (i.e.
+ * {@link DBHelper} and {@link suncertify.db.Data}). Each setting has a default
+ * value that reflects the original behaviour of the database, so
+ * <code>new DBConfiguration()</code> can always be used when no configuration
+ * is available. Settings read from <code>suncertify.properties</code> are
+ * available via {@link ApplicationContext#getDBConfiguration()}.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class DBConfiguration {
+	/**
+	 * Access mode of the record area of DB file.
+	 */
+	private StorageModeEnum storageMode = StorageModeEnum.FILE;
+
+	/**
+	 * Policy of forcing written records to the storage device.
+	 */
+	private SyncPolicyEnum syncPolicy = SyncPolicyEnum.OPERATION;
+
+	/**
+	 * Interval (in milliseconds) between forces of the record area for
+	 * {@link SyncPolicyEnum#PERIODIC} policy.
+	 */
+	private long syncInterval = 1000;
+
+	/**
+	 * Interval (in milliseconds) between write-ahead log checkpoints.
+	 */
+	private long checkpointInterval = 1000;
+
+	/**
+	 * Number of threads loading records at startup.
+	 */
+	private int loadThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Minimum number of slots of database searched in parallel by
+	 * {@link #getScanThreads()} threads.
+	 */
+	private int parallelScanThreshold = 50000;
+
+	/**
+	 * The way records are kept in memory.
+	 */
+	private RecordStoreModeEnum recordStoreMode = RecordStoreModeEnum.HEAP;
+
+	/**
+	 * Number of threads searching records that are not resolved by indexes.
+	 */
+	private int scanThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Maximum number of cached records for {@link RecordStoreModeEnum#LAZY}
+	 * mode.
+	 */
+	private int cacheSize = 100000;
+
+	/**
+	 * Policy of choosing numbers of new records.
+	 */
+	private AllocationPolicyEnum allocationPolicy = AllocationPolicyEnum.LOWEST_FIRST;
+
+	/**
+	 * Returns the policy of choosing numbers of new records.
+	 *
+	 * @return AllocationPolicyEnum - the policy of choosing numbers of new
+	 *         records.
+	 */
+	public AllocationPolicyEnum getAllocationPolicy() {
+		return allocationPolicy;
+	}
+
+	/**
+	 * Returns the maximum number of cached records for
+	 * {@link RecordStoreModeEnum#LAZY} mode.
+	 *
+	 * @return int - the maximum number of cached records.
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * Returns the interval (in milliseconds) between write-ahead log
+	 * checkpoints.
+	 *
+	 * @return long - the interval (in milliseconds) between write-ahead log
+	 *         checkpoints.
+	 */
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Returns the number of threads loading records at startup.
+	 *
+	 * @return int - the number of threads loading records at startup.
+	 */
+	public int getLoadThreads() {
+		return loadThreads;
+	}
+
+	/**
+	 * Returns the minimum number of slots of database searched in parallel.
+	 *
+	 * @return int - the minimum number of slots of database searched in
+	 *         parallel.
+	 */
+	public int getParallelScanThreshold() {
+		return parallelScanThreshold;
+	}
+
+	/**
+	 * Returns the way records are kept in memory.
+	 *
+	 * @return RecordStoreModeEnum - the way records are kept in memory.
+	 */
+	public RecordStoreModeEnum getRecordStoreMode() {
+		return recordStoreMode;
+	}
+
+	/**
+	 * Returns the number of threads searching records that are not resolved
+	 * by indexes.
+	 *
+	 * @return int - the number of threads searching records.
+	 */
+	public int getScanThreads() {
+		return scanThreads;
+	}
+
+	/**
+	 * Returns the access mode of the record area of DB file.
+	 *
+	 * @return StorageModeEnum - the access mode of the record area of DB file.
+	 */
+	public StorageModeEnum getStorageMode() {
+		return storageMode;
+	}
+
+	/**
+	 * Returns the interval (in milliseconds) between forces of the record
+	 * area for {@link SyncPolicyEnum#PERIODIC} policy.
+	 *
+	 * @return long - the interval (in milliseconds) between forces of the
+	 *         record area.
+	 */
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	/**
+	 * Returns the policy of forcing written records to the storage device.
+	 *
+	 * @return SyncPolicyEnum - the policy of forcing written records to the
+	 *         storage device.
+	 */
+	public SyncPolicyEnum getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * Sets the policy of choosing numbers of new records.
+	 *
+	 * @param allocationPolicy
+	 *            AllocationPolicyEnum - the policy of choosing numbers of new
+	 *            records to set.
+	 */
+	public void setAllocationPolicy(final AllocationPolicyEnum allocationPolicy) {
+		this.allocationPolicy = allocationPolicy;
+	}
+
+	/**
+	 * Sets the maximum number of cached records for
+	 * {@link RecordStoreModeEnum#LAZY} mode.
+	 *
+	 * @param cacheSize
+	 *            int - the maximum number of cached records to set.
+	 */
+	public void setCacheSize(final int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Sets the interval (in milliseconds) between write-ahead log checkpoints.
+	 *
+	 * @param checkpointInterval
+	 *            long - the interval (in milliseconds) between write-ahead
+	 *            log checkpoints to set.
+	 */
+	public void setCheckpointInterval(final long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Sets the number of threads loading records at startup.
+	 *
+	 * @param loadThreads
+	 *            int - the number of threads loading records at startup to
+	 *            set.
+	 */
+	public void setLoadThreads(final int loadThreads) {
+		this.loadThreads = loadThreads;
+	}
+
+	/**
+	 * Sets the minimum number of slots of database searched in parallel.
+	 *
+	 * @param parallelScanThreshold
+	 *            int - the minimum number of slots of database searched in
+	 *            parallel to set.
+	 */
+	public void setParallelScanThreshold(final int parallelScanThreshold) {
+		this.parallelScanThreshold = parallelScanThreshold;
+	}
+
+	/**
+	 * Sets the way records are kept in memory.
+	 *
+	 * @param recordStoreMode
+	 *            RecordStoreModeEnum - the way records are kept in memory to
+	 *            set.
+	 */
+	public void setRecordStoreMode(final RecordStoreModeEnum recordStoreMode) {
+		this.recordStoreMode = recordStoreMode;
+	}
+
+	/**
+	 * Sets the number of threads searching records that are not resolved by
+	 * indexes.
+	 *
+	 * @param scanThreads
+	 *            int - the number of threads searching records to set.
+	 */
+	public void setScanThreads(final int scanThreads) {
+		this.scanThreads = scanThreads;
+	}
+
+	/**
+	 * Sets the access mode of the record area of DB file.
+	 *
+	 * @param storageMode
+	 *            StorageModeEnum - the access mode of the record area of DB
+	 *            file to set.
+	 */
+	public void setStorageMode(final StorageModeEnum storageMode) {
+		this.storageMode = storageMode;
+	}
+
+	/**
+	 * Sets the interval (in milliseconds) between forces of the record area
+	 * for {@link SyncPolicyEnum#PERIODIC} policy.
+	 *
+	 * @param syncInterval
+	 *            long - the interval (in milliseconds) between forces of the
+	 *            record area to set.
+	 */
+	public void setSyncInterval(final long syncInterval) {
+		this.syncInterval = syncInterval;
+	}
+
+	/**
+	 * Sets the policy of forcing written records to the storage device.
+	 *
+	 * @param syncPolicy
+	 *            SyncPolicyEnum - the policy of forcing written records to
+	 *            the storage device to set.
+	 */
+	public void setSyncPolicy(final SyncPolicyEnum syncPolicy) {
+		this.syncPolicy = syncPolicy;
+	}
+}
@@ -4,32 +4,92 @@ import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
 import static suncertify.db.domain.DBMetaInfo.FIELD_LENGTHS;
 import static suncertify.db.domain.DBMetaInfo.FIELD_NAMES;
 import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
-import static suncertify.db.domain.DBMetaInfo.FLAG_LENGTH;
 import static suncertify.db.domain.DBMetaInfo.MAGIC_COOKIE;
 import static suncertify.db.domain.DBMetaInfo.RECORD_LENGTH;
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
 
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.core.storage.FileRecordStorage;
+import suncertify.core.storage.IRecordStorage;
+import suncertify.core.storage.MappedRecordStorage;
+import suncertify.core.storage.StorageModeEnum;
+import suncertify.core.storage.SyncPolicyEnum;
+import suncertify.core.storage.SyncStatistics;
+import suncertify.core.storage.WriteAheadLog;
 import suncertify.db.domain.Contractor;
+import suncertify.db.domain.ContractorCodec;
 import suncertify.db.domain.RecordFlagEnum;
 
 /**
  * <code>DBHelper</code> is a low-level operations database helper. This class
  * provides many useful mathods that operate on databse file (loading, storage),
  * which operate on raw bytes rather than objects (that's why they are all
- * low-level).
+ * low-level).<br>
+ * <br>
+ * Access to the record area of the database file is delegated to the
+ * {@link IRecordStorage} implementation chosen by the
+ * {@link DBConfiguration#getStorageMode()} setting. Stored records are forced
+ * to the storage device as defined by {@link DBConfiguration#getSyncPolicy()}
+ * setting - for {@link SyncPolicyEnum#BATCH} policy records are stored through
+ * the {@link WriteAheadLog} kept next to the database file. The log is always
+ * replayed (and then truncated) when DB file is opened.<br>
+ * <br>
+ * All records are loaded at startup in parallel - the record area is split
+ * into segments of {@link #LOAD_SEGMENT_SLOTS} slots and each of
+ * {@link DBConfiguration#getLoadThreads()} threads reads and decodes whole
+ * segments.
  * 
  * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
  */
 public final class DBHelper {
+	/**
+	 * Suffix of the write-ahead log file name (the log is kept next to DB
+	 * file).
+	 */
+	public static final String LOG_FILE_SUFFIX = ".wal";
+
+	/**
+	 * Suffix of the compacted copy of DB file name (the copy is written next
+	 * to DB file).
+	 */
+	public static final String COMPACT_FILE_SUFFIX = ".compact";
+
+	/**
+	 * Suffix of the name of DB file moved aside while it is replaced with its
+	 * compacted copy.
+	 */
+	public static final String BACKUP_FILE_SUFFIX = ".bak";
+
+	/**
+	 * Number of slots in a single segment of the record area loaded at
+	 * startup by one thread.
+	 */
+	public static final int LOAD_SEGMENT_SLOTS = 4096;
+
+	/**
+	 * DB file name.
+	 */
+	private final String dbFileName;
+
 	/**
 	 * DB file.
 	 */
@@ -51,24 +111,97 @@ public final class DBHelper {
 	private final long firstRecordOffset;
 
 	/**
-	 * Constructor - its task is to read meta info and schema from DB file - if
-	 * database file does not exists this constructor throws initialization
-	 * exception - i.e. {@link InitializationException}.
+	 * Record area of DB file.
+	 */
+	private final IRecordStorage storage;
+
+	/**
+	 * Write-ahead log - <code>null</code> if records are stored directly into
+	 * the record area.
+	 */
+	private final WriteAheadLog writeAheadLog;
+
+	/**
+	 * Policy of forcing stored records to the storage device.
+	 */
+	private final SyncPolicyEnum syncPolicy;
+
+	/**
+	 * Statistics of forces of DB file and write-ahead log.
+	 */
+	private final SyncStatistics syncStatistics = new SyncStatistics();
+
+	/**
+	 * Thread forcing the record area periodically - <code>null</code> unless
+	 * {@link SyncPolicyEnum#PERIODIC} policy is used.
+	 */
+	private final Thread syncer;
+
+	/**
+	 * Indicates that DB file is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Number of threads loading records at startup.
+	 */
+	private final int loadThreads;
+
+	/**
+	 * Record codecs - codec is not thread safe, so each thread uses its own.
+	 */
+	private final ThreadLocal<ContractorCodec> codecs = new ThreadLocal<ContractorCodec>() {
+		/**
+		 * @see ThreadLocal#initialValue()
+		 */
+		protected ContractorCodec initialValue() {
+			return new ContractorCodec();
+		}
+	};
+
+	/**
+	 * Constructor - its task is to read meta info and schema from DB file
+	 * using default configuration.
 	 * 
 	 * @param dbFileName
 	 *            String - DB file name.
 	 * 
 	 * @throws InitializationException
 	 *             If any {@link Exception} occurs during helper initialization.
+	 * @see #DBHelper(String, DBConfiguration)
 	 */
 	public DBHelper(final String dbFileName) throws InitializationException {
+		this(dbFileName, new DBConfiguration());
+	}
+
+	/**
+	 * Constructor - its task is to read meta info and schema from DB file and
+	 * to set up access to the record area as defined by given configuration -
+	 * if database file does not exists this constructor throws initialization
+	 * exception - i.e. {@link InitializationException}.
+	 * 
+	 * @param dbFileName
+	 *            String - DB file name.
+	 * @param configuration
+	 *            DBConfiguration - database configuration.
+	 * 
+	 * @throws InitializationException
+	 *             If any {@link Exception} occurs during helper initialization.
+	 */
+	public DBHelper(final String dbFileName, final DBConfiguration configuration)
+			throws InitializationException {
+		this.dbFileName = dbFileName;
 		try {
 			File file = new File(dbFileName);
 			if (!file.exists()) {
 				throw new InitializationException(
 						"Database file does not exist");
 			}
-			dbFile = new RandomAccessFile(file, "rws");
+			StorageModeEnum storageMode = configuration.getStorageMode();
+			syncPolicy = configuration.getSyncPolicy();
+			loadThreads = configuration.getLoadThreads();
+			// records are forced explicitly as defined by sync policy
+			dbFile = new RandomAccessFile(file, "rw");
 			// Get a file channel for the file
 			dbFileChannel = dbFile.getChannel();
 			// Try acquiring the lock without blocking.
@@ -113,6 +246,33 @@ public final class DBHelper {
 
 			firstRecordOffset = dbFile.getFilePointer();
 
+			if (storageMode == StorageModeEnum.MAPPED) {
+				storage = new MappedRecordStorage(dbFileChannel,
+						firstRecordOffset);
+			} else {
+				storage = new FileRecordStorage(dbFileChannel,
+						firstRecordOffset);
+			}
+
+			// Recover records logged before the last shutdown
+			File logFile = new File(dbFileName + LOG_FILE_SUFFIX);
+			WriteAheadLog.replay(logFile, storage);
+
+			if (syncPolicy == SyncPolicyEnum.BATCH) {
+				writeAheadLog = new WriteAheadLog(logFile, storage,
+						configuration.getCheckpointInterval(), syncStatistics);
+			} else {
+				WriteAheadLog.delete(logFile);
+				writeAheadLog = null;
+			}
+
+			if (syncPolicy == SyncPolicyEnum.PERIODIC) {
+				syncer = createSyncer(configuration.getSyncInterval());
+				syncer.start();
+			} else {
+				syncer = null;
+			}
+
 		} catch (Exception e) {
 			throw new InitializationException(e.getMessage() + "; "
 					+ dbFileName, e);
@@ -120,16 +280,76 @@ public final class DBHelper {
 	}
 
 	/**
-	 * Closes database file.
+	 * Creates daemon thread that forces the record area every given number of
+	 * milliseconds.
+	 * 
+	 * @param syncInterval
+	 *            long - interval (in milliseconds) between forces.
+	 * @return Thread - created (not started) thread.
+	 * @throws IllegalArgumentException
+	 *             If given interval is not positive.
+	 */
+	private Thread createSyncer(final long syncInterval)
+			throws IllegalArgumentException {
+		if (syncInterval <= 0) {
+			throw new IllegalArgumentException(
+					"Sync interval must be positive - passed value: "
+							+ syncInterval);
+		}
+
+		Thread thread = new Thread("DB syncer") {
+			/**
+			 * @see Thread#run()
+			 */
+			public void run() {
+				while (!closed) {
+					synchronized (this) {
+						try {
+							wait(syncInterval);
+						} catch (InterruptedException e) {
+							// XXX: ignore it
+						}
+					}
+
+					try {
+						sync();
+					} catch (IOException e) {
+						// XXX: ignore it - records are forced at the next period
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Closes database file. All stored records are forced to the storage
+	 * device before the file is closed.
 	 */
 	public void close() {
 		try {
+			closed = true;
+			if (syncer != null) {
+				// XXX: the syncer must not be interrupted - it would close DB file channel
+				synchronized (syncer) {
+					syncer.notify();
+				}
+				syncer.join();
+			}
+
+			if (writeAheadLog != null) {
+				writeAheadLog.close();
+			} else {
+				sync();
+			}
+			storage.close();
 			// Release the lock
 			dbFileLock.release();
 			// Close the file
 			dbFileChannel.close();
 			dbFile.close();
-		} catch (IOException e) {
+		} catch (Exception e) {
 			// ignore
 		}
 	}
@@ -143,43 +363,135 @@ public final class DBHelper {
 	}
 
 	/**
-	 * Loads all records from database file.
+	 * Loads all records from database file. Deleted records are additionally
+	 * put into given map.
 	 * 
+	 * @param invalidRecords
+	 *            Map&lt;Integer, Contractor&gt; - map the deleted records are
+	 *            put into (key: record no; value: record).
 	 * @return Map&lt;Integer, Contractor&gt; - map of all records loaded from
 	 *         database file (key: record no; value: record).
 	 * @throws IOException
 	 *             If read operation fails.
 	 */
-	public Map<Integer, Contractor> loadAllRecords() throws IOException {
-		seekToRecord(FIRST_RECORD_NO);
-		Map<Integer, Contractor> map = new HashMap<Integer, Contractor>();
-
-		try {
-			int recIdx = FIRST_RECORD_NO;
-			while (true) {
-				byte flag = dbFile.readByte();
-
-				// read record's data
-				String[] values = new String[FIELDS_COUNT];
-				for (int i = 0; i < FIELDS_COUNT; ++i) {
-					byte[] bytes = new byte[FIELD_LENGTHS[i]];
-					dbFile.read(bytes);
+	public Map<Integer, Contractor> loadAllRecords(
+			final Map<Integer, Contractor> invalidRecords) throws IOException {
+
+		int slotCount = storage.getSlotCount();
+		Contractor[] records = new Contractor[slotCount];
+		int segmentCount = (slotCount + LOAD_SEGMENT_SLOTS - 1)
+				/ LOAD_SEGMENT_SLOTS;
+		int threads = Math.min(loadThreads, segmentCount);
+		AtomicInteger nextSegment = new AtomicInteger();
+
+		if (threads <= 1) {
+			new SegmentLoader(records, nextSegment).call();
+		} else {
+			List<SegmentLoader> loaders = new ArrayList<SegmentLoader>();
+			for (int i = 0; i < threads; ++i) {
+				loaders.add(new SegmentLoader(records, nextSegment));
+			}
 
-					values[i] = new String(bytes);
+			ExecutorService executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						/**
+						 * @see ThreadFactory#newThread(Runnable)
+						 */
+						public Thread newThread(final Runnable runnable) {
+							Thread thread = new Thread(runnable, "DB loader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			try {
+				for (Future<Object> future : executor.invokeAll(loaders)) {
+					future.get();
 				}
-
-				Contractor record = new Contractor(values);
-				record.setId(recIdx++);
-				record.setFlag(RecordFlagEnum.values()[flag]);
-				map.put(record.getId(), record);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Loading of records was interrupted.");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				} else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw (Error) e.getCause();
+			} finally {
+				executor.shutdownNow();
 			}
+		}
 
-		} catch (EOFException e) {
-			// XXX: ignore it - this exception exits from infinite loop
+		Map<Integer, Contractor> map = new HashMap<Integer, Contractor>(
+				slotCount * 4 / 3 + 1);
+		for (Contractor record : records) {
+			map.put(record.getId(), record);
+			if (record.getFlag() == RecordFlagEnum.INVALID) {
+				invalidRecords.put(record.getId(), record);
+			}
 		}
 		return map;
 	}
 
+	/**
+	 * <code>SegmentLoader</code> reads and decodes segments of the record
+	 * area until all of them are loaded. Segments are taken in turn from the
+	 * shared counter, so all loaders finish at (more or less) the same time.
+	 * 
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private final class SegmentLoader implements Callable<Object> {
+		/**
+		 * Loaded records (index: slot index).
+		 */
+		private final Contractor[] records;
+
+		/**
+		 * Index of the next segment to load.
+		 */
+		private final AtomicInteger nextSegment;
+
+		/**
+		 * Constructs <code>SegmentLoader</code> instance.
+		 * 
+		 * @param records
+		 *            Contractor[] - array loaded records are put into (its
+		 *            length equals the number of slots).
+		 * @param nextSegment
+		 *            AtomicInteger - index of the next segment to load shared
+		 *            by all loaders.
+		 */
+		SegmentLoader(final Contractor[] records,
+				final AtomicInteger nextSegment) {
+			this.records = records;
+			this.nextSegment = nextSegment;
+		}
+
+		/**
+		 * @see Callable#call()
+		 */
+		public Object call() throws IOException {
+			ContractorCodec codec = new ContractorCodec();
+			ByteBuffer slots = ByteBuffer.allocate(Math.min(records.length,
+					LOAD_SEGMENT_SLOTS)
+					* SLOT_LENGTH);
+
+			int first;
+			while ((first = nextSegment.getAndIncrement() * LOAD_SEGMENT_SLOTS) < records.length) {
+				int count = Math.min(LOAD_SEGMENT_SLOTS, records.length - first);
+				slots.clear();
+				storage.read(first, count, slots);
+				slots.flip();
+
+				for (int i = first; i < first + count; ++i) {
+					records[i] = codec.decode(slots);
+					records[i].setId(i + FIRST_RECORD_NO);
+				}
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * Reads record with given record no.
 	 * 
@@ -201,59 +513,165 @@ public final class DBHelper {
 							+ FIRST_RECORD_NO + " - passed value: " + recordNo);
 		}
 
-		seekToRecord(recordNo);
-
-		byte flag = dbFile.readByte();
-
-		// read record's data
-		String[] values = new String[FIELDS_COUNT];
-		for (int i = 0; i < FIELDS_COUNT; ++i) {
-			byte[] bytes = new byte[FIELD_LENGTHS[i]];
-			dbFile.read(bytes);
+		int slotIndex = recordNo - FIRST_RECORD_NO;
+		ByteBuffer slot = null;
+		if (writeAheadLog != null) {
+			// record may be logged but not checkpointed yet
+			slot = writeAheadLog.lookup(slotIndex);
+		}
 
-			values[i] = new String(bytes);
+		if (slot == null) {
+			slot = ByteBuffer.allocate(SLOT_LENGTH);
+			storage.read(slotIndex, slot);
+			slot.flip();
 		}
 
-		Contractor record = new Contractor(values);
+		Contractor record = codecs.get().decode(slot);
 		record.setId(recordNo);
-		record.setFlag(RecordFlagEnum.values()[flag]);
 		return record;
 	}
 
 	/**
-	 * Moves given file pointer to given record number. After execution of this
-	 * method file pointer is set on the first byte of the record with given no.
+	 * Reads given number of consecutive records starting with record with
+	 * given record no. All records are read from database file with a single
+	 * operation.
 	 * 
-	 * @param recordNo
-	 *            int - the record no.
+	 * @param firstRecordNo
+	 *            int - the number of the first record to read.
+	 * @param count
+	 *            int - the number of records to read.
+	 * @return Contractor[] - records read from database file.
 	 * @throws IOException
 	 *             If method encounters IO exception while processing DB file.
+	 * @throws IllegalArgumentException
+	 *             If given record no is less than
+	 *             {@link suncertify.db.domain.DBMetaInfo#FIRST_RECORD_NO}
 	 */
-	private void seekToRecord(final int recordNo) throws IOException {
-		// (recordNo - FIRST_RECORD_NO) - counting starts from FIRST_RECORD_NO
-		dbFile
-				.seek(firstRecordOffset
-						+ ((recordNo - FIRST_RECORD_NO) * (RECORD_LENGTH + FLAG_LENGTH)));
+	public Contractor[] loadRecords(final int firstRecordNo, final int count)
+			throws IOException, IllegalArgumentException {
+
+		if (firstRecordNo < FIRST_RECORD_NO) {
+			throw new IllegalArgumentException(
+					"Record number must be greater or equal to "
+							+ FIRST_RECORD_NO + " - passed value: "
+							+ firstRecordNo);
+		}
+
+		int firstSlotIndex = firstRecordNo - FIRST_RECORD_NO;
+		ByteBuffer[] logged = lookupLogged(firstSlotIndex, count);
+
+		// XXX: records appended to the log may not be checkpointed to the file yet
+		int storedCount = Math.max(0, Math.min(count, storage.getSlotCount()
+				- firstSlotIndex));
+		ByteBuffer slots = ByteBuffer.allocate(count * SLOT_LENGTH);
+		if (storedCount > 0) {
+			storage.read(firstSlotIndex, storedCount, slots);
+		}
+		slots.limit(count * SLOT_LENGTH);
+		slots.position(0);
+
+		ContractorCodec codec = codecs.get();
+		Contractor[] records = new Contractor[count];
+		for (int i = 0; i < count; ++i) {
+			ByteBuffer slot = logged[i];
+			if (slot == null && i >= storedCount) {
+				// record beyond the end of file - read it alone as loadRecord() does
+				slot = ByteBuffer.allocate(SLOT_LENGTH);
+				storage.read(firstSlotIndex + i, slot);
+				slot.flip();
+			}
+
+			if (slot == null) {
+				records[i] = codec.decode(slots);
+			} else {
+				records[i] = codec.decode(slot);
+				slots.position(slots.position() + SLOT_LENGTH);
+			}
+			records[i].setId(firstRecordNo + i);
+		}
+		return records;
 	}
 
 	/**
-	 * Stores given record to database file without moving file pointer (stores
-	 * record in the current file position).
+	 * Returns the latest logged versions of given consecutive slots that have
+	 * not been checkpointed yet. The log must be queried before the slots are
+	 * read from the file - an entry dropped by a checkpoint in the meantime is
+	 * already written to the file then, while the other way round the file
+	 * could be read before the checkpoint and the entry looked up after it.
 	 * 
-	 * @param record
-	 *            Contractor - record to be stored to database file.
+	 * @param firstSlotIndex
+	 *            int - zero based index of the first slot.
+	 * @param count
+	 *            int - the number of slots.
+	 * @return ByteBuffer[] - logged slot data or <code>null</code> for slots
+	 *         that are up to date in the file.
 	 * @throws IOException
-	 *             If storage operation fails.
+	 *             If the write-ahead log has failed.
+	 */
+	private ByteBuffer[] lookupLogged(final int firstSlotIndex, final int count)
+			throws IOException {
+
+		ByteBuffer[] logged = new ByteBuffer[count];
+		if (writeAheadLog != null) {
+			for (int i = 0; i < count; ++i) {
+				logged[i] = writeAheadLog.lookup(firstSlotIndex + i);
+			}
+		}
+		return logged;
+	}
+
+	/**
+	 * Returns the number of records (valid and deleted) stored in database
+	 * file.
+	 * 
+	 * @return int - the number of records stored in database file.
+	 * @throws IOException
+	 *             If size of DB file cannot be determined.
 	 */
-	private void storeNext(final Contractor record) throws IOException {
-		dbFile.writeByte(record.getFlag().ordinal());
-		for (String datum : record.toStrings()) {
-			dbFile.write(datum.getBytes());
+	public int getRecordCount() throws IOException {
+		return storage.getSlotCount();
+	}
+
+	/**
+	 * Reads flags of all records and returns indexes of slots holding deleted
+	 * records. Records' data is not decoded.
+	 * 
+	 * @return BitSet - indexes of slots (record no -
+	 *         {@link suncertify.db.domain.DBMetaInfo#FIRST_RECORD_NO})
+	 *         holding deleted records.
+	 * @throws IOException
+	 *             If read operation fails.
+	 */
+	public BitSet loadInvalidSlots() throws IOException {
+		int slotCount = storage.getSlotCount();
+		BitSet invalidSlots = new BitSet(slotCount);
+		ByteBuffer slots = ByteBuffer.allocate(Math.min(slotCount,
+				LOAD_SEGMENT_SLOTS)
+				* SLOT_LENGTH);
+
+		for (int first = 0; first < slotCount; first += LOAD_SEGMENT_SLOTS) {
+			int count = Math.min(LOAD_SEGMENT_SLOTS, slotCount - first);
+			ByteBuffer[] logged = lookupLogged(first, count);
+			slots.clear();
+			storage.read(first, count, slots);
+
+			for (int i = 0; i < count; ++i) {
+				ByteBuffer slot = logged[i];
+				byte flag = slot == null ? slots.get(i * SLOT_LENGTH) : slot
+						.get(slot.position());
+				if (flag == RecordFlagEnum.INVALID.ordinal()) {
+					invalidSlots.set(first + i);
+				}
+			}
 		}
+		return invalidSlots;
 	}
 
 	/**
-	 * Stores given record to database file.
+	 * Stores given record to database file. The record is not guaranteed to
+	 * be durable until {@link #force()} is invoked - unless it is stored
+	 * through the write-ahead log, then it is durable when this method
+	 * returns.
 	 * 
 	 * @param record
 	 *            Contractor - record to be stored to database file.
@@ -261,7 +679,129 @@ public final class DBHelper {
 	 *             If storage operation fails.
 	 */
 	public void storeRecord(final Contractor record) throws IOException {
-		seekToRecord(record.getId());
-		storeNext(record);
+		ByteBuffer slot = ByteBuffer.allocate(SLOT_LENGTH);
+		codecs.get().encode(record, slot);
+		slot.flip();
+
+		if (writeAheadLog != null) {
+			writeAheadLog.append(record.getId() - FIRST_RECORD_NO, slot);
+		} else {
+			storage.write(record.getId() - FIRST_RECORD_NO, slot);
+		}
+	}
+
+	/**
+	 * Creates compacted copy of DB file next to it - the copy starts with the
+	 * header of DB file and contains no records.
+	 * 
+	 * @return CompactedFile - created copy.
+	 * @throws IOException
+	 *             If the copy cannot be created.
+	 */
+	public CompactedFile createCompactedFile() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate((int) firstRecordOffset);
+		while (header.hasRemaining()) {
+			if (dbFileChannel.read(header, header.position()) < 0) {
+				throw new IOException("Unexpected end of DB file header.");
+			}
+		}
+		header.flip();
+		return new CompactedFile(new File(dbFileName + COMPACT_FILE_SUFFIX),
+				header);
+	}
+
+	/**
+	 * Closes this helper and replaces DB file with given compacted copy. The
+	 * copy must be complete (closed) and must contain all records stored so
+	 * far. The helper cannot be used afterwards - a new one has to be opened.
+	 * 
+	 * @param compactedFile
+	 *            CompactedFile - complete compacted copy of DB file.
+	 * @throws IOException
+	 *             If DB file cannot be replaced - unless the message says
+	 *             otherwise DB file is left untouched (or restored) and the
+	 *             copy is deleted.
+	 */
+	public void replace(final CompactedFile compactedFile) throws IOException {
+		close();
+
+		File file = new File(dbFileName);
+		File logFile = new File(dbFileName + LOG_FILE_SUFFIX);
+		if (!WriteAheadLog.isEmpty(logFile)) {
+			// XXX: log would be replayed onto the copy at the next startup
+			compactedFile.delete();
+			throw new IOException("Write-ahead log could not be checkpointed.");
+		}
+
+		// XXX: rename is atomic on POSIX systems - elsewhere the target must be moved aside first
+		if (!compactedFile.getFile().renameTo(file)) {
+			File backupFile = new File(dbFileName + BACKUP_FILE_SUFFIX);
+			backupFile.delete();
+			if (!file.renameTo(backupFile)) {
+				compactedFile.delete();
+				throw new IOException("Unable to replace DB file with its compacted copy.");
+			}
+			if (!compactedFile.getFile().renameTo(file)) {
+				compactedFile.delete();
+				if (!backupFile.renameTo(file)) {
+					throw new IOException("DB file was moved to " + backupFile
+							+ " but its compacted copy could not be renamed.");
+				}
+				throw new IOException("Unable to replace DB file with its compacted copy.");
+			}
+			backupFile.delete();
+		}
+		WriteAheadLog.delete(logFile);
+	}
+
+	/**
+	 * Durability point of a single database operation - forces all records
+	 * stored so far to the storage device if {@link SyncPolicyEnum#OPERATION}
+	 * policy is used. Other policies force stored records on their own (in
+	 * particular records stored through the write-ahead log are already
+	 * durable), so in such case this method does nothing.
+	 * 
+	 * @throws IOException
+	 *             If records cannot be forced to the storage device.
+	 * @see IRecordStorage#force()
+	 */
+	public void force() throws IOException {
+		if (syncPolicy == SyncPolicyEnum.OPERATION) {
+			sync();
+		}
+	}
+
+	/**
+	 * Forces all records stored so far to the storage device and records
+	 * latency of this operation.
+	 * 
+	 * @throws IOException
+	 *             If records cannot be forced to the storage device.
+	 */
+	private void sync() throws IOException {
+		long start = System.nanoTime();
+		storage.force();
+		syncStatistics.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the policy of forcing stored records to the storage device.
+	 * 
+	 * @return SyncPolicyEnum - the policy of forcing stored records to the
+	 *         storage device.
+	 */
+	public SyncPolicyEnum getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * Returns the snapshot of statistics of forces of DB file and write-ahead
+	 * log.
+	 * 
+	 * @return SyncStatistics - the snapshot of statistics of forces of DB file
+	 *         and write-ahead log.
+	 */
+	public SyncStatistics getSyncStatistics() {
+		return syncStatistics.snapshot();
 	}
 }
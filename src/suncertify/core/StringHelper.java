@@ -1,5 +1,8 @@
 package suncertify.core;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * <code>StringHelper</code> is an utility class providing simple methods that
  * operate on strings and string representation of different number types.
@@ -104,6 +107,26 @@ public final class StringHelper {
 		return Integer.toString(value);
 	}
 
+	/**
+	 * Returns the set of normalized (trimmed and upper-cased) values of given
+	 * comma separated list - empty values are skipped.
+	 * 
+	 * @param string
+	 *            String - comma separated list of values.
+	 * @return Set&lt;String&gt; - set of normalized values.
+	 */
+	public static Set<String> toTokenSet(final String string) {
+		Set<String> set = new HashSet<String>();
+		String[] strings = string.split(",");
+		for (int i = 0; i < strings.length; ++i) {
+			String token = strings[i].trim();
+			if (token.length() > 0) {
+				set.add(token.toUpperCase());
+			}
+		}
+		return set;
+	}
+
 	/**
 	 * Inaccessible constructor.
 	 */
@@ -0,0 +1,116 @@
+package suncertify.core.storage;
+
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>FileRecordStorage</code> is the default implementation of
+ * {@link IRecordStorage}. Each slot is transferred with a single positional
+ * channel operation, so concurrent readers do not interfere with each other
+ * (there is no shared file pointer). Written slots are durable after
+ * {@link #force()} is invoked.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.core.storage.IRecordStorage
+ */
+public class FileRecordStorage implements IRecordStorage {
+	/**
+	 * DB file channel.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Offset of the first slot in DB file.
+	 */
+	private final long firstSlotOffset;
+
+	/**
+	 * Constructs <code>FileRecordStorage</code> operating on given channel.
+	 *
+	 * @param channel
+	 *            FileChannel - DB file channel.
+	 * @param firstSlotOffset
+	 *            long - offset of the first slot in DB file.
+	 */
+	public FileRecordStorage(final FileChannel channel, final long firstSlotOffset) {
+		this.channel = channel;
+		this.firstSlotOffset = firstSlotOffset;
+	}
+
+	/**
+	 * Returns the offset of slot with given index in DB file.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @return long - the offset of slot with given index in DB file.
+	 */
+	private long offsetOf(final int slotIndex) {
+		return firstSlotOffset + (long) slotIndex * SLOT_LENGTH;
+	}
+
+	/**
+	 * @see IRecordStorage#getSlotCount()
+	 */
+	public int getSlotCount() throws IOException {
+		return (int) ((channel.size() - firstSlotOffset) / SLOT_LENGTH);
+	}
+
+	/**
+	 * @see IRecordStorage#read(int, ByteBuffer)
+	 */
+	public void read(final int slotIndex, final ByteBuffer slot) throws IOException {
+		read(slotIndex, 1, slot);
+	}
+
+	/**
+	 * All slots are transferred with as few channel operations as possible.
+	 *
+	 * @see IRecordStorage#read(int, int, ByteBuffer)
+	 */
+	public void read(final int firstSlotIndex, final int count, final ByteBuffer slots) throws IOException {
+		long position = offsetOf(firstSlotIndex);
+		int limit = slots.limit();
+		slots.limit(slots.position() + count * SLOT_LENGTH);
+
+		try {
+			while (slots.hasRemaining()) {
+				int read = channel.read(slots, position);
+				if (read < 0) {
+					throw new EOFException("Slot " + (firstSlotIndex + count - 1) + " is beyond the end of file.");
+				}
+				position += read;
+			}
+		} finally {
+			slots.limit(limit);
+		}
+	}
+
+	/**
+	 * @see IRecordStorage#write(int, ByteBuffer)
+	 */
+	public void write(final int slotIndex, final ByteBuffer slot) throws IOException {
+		long position = offsetOf(slotIndex);
+		while (slot.hasRemaining()) {
+			position += channel.write(slot, position);
+		}
+	}
+
+	/**
+	 * @see IRecordStorage#force()
+	 */
+	public void force() throws IOException {
+		// file length changes when slots are appended
+		channel.force(true);
+	}
+
+	/**
+	 * @see IRecordStorage#close()
+	 */
+	public void close() {
+		// XXX: channel is owned (and closed) by the caller
+	}
+}
@@ -0,0 +1,93 @@
+package suncertify.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>IRecordStorage</code> gives access to the record area of the database
+ * file (everything that follows the schema description section). The record
+ * area is seen as an array of fixed length slots - each slot consists of the
+ * record flag and record's data (see
+ * {@link suncertify.db.domain.DBMetaInfo#SLOT_LENGTH}). Slots are addressed by
+ * their zero based index, so it is the caller's responsibility to translate
+ * record numbers into slot indexes.<br>
+ * <br>
+ * Implementations operate on raw bytes only and must allow concurrent reads
+ * of different slots.<br>
+ * <br>
+ * This interface utilizes <i>Strategy</i> design pattern.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.core.DBHelper
+ */
+public interface IRecordStorage {
+	/**
+	 * Returns the number of complete slots stored in the record area.
+	 *
+	 * @return int - the number of complete slots stored in the record area.
+	 * @throws IOException
+	 *             If size of the record area cannot be determined.
+	 */
+	public int getSlotCount() throws IOException;
+
+	/**
+	 * Reads slot with given index into given buffer. Exactly
+	 * {@link suncertify.db.domain.DBMetaInfo#SLOT_LENGTH} bytes are transferred
+	 * starting at the buffer's current position.
+	 *
+	 * @param slotIndex
+	 *            int - zero based index of the slot to read.
+	 * @param slot
+	 *            ByteBuffer - buffer the slot is read into.
+	 * @throws IOException
+	 *             If slot does not exist (<code>EOFException</code>) or read
+	 *             operation fails.
+	 */
+	public void read(int slotIndex, ByteBuffer slot) throws IOException;
+
+	/**
+	 * Reads given number of consecutive slots starting with slot with given
+	 * index into given buffer. Exactly <code>count</code> *
+	 * {@link suncertify.db.domain.DBMetaInfo#SLOT_LENGTH} bytes are
+	 * transferred starting at the buffer's current position.
+	 *
+	 * @param firstSlotIndex
+	 *            int - zero based index of the first slot to read.
+	 * @param count
+	 *            int - number of slots to read.
+	 * @param slots
+	 *            ByteBuffer - buffer the slots are read into.
+	 * @throws IOException
+	 *             If any of the slots does not exist (<code>EOFException</code>)
+	 *             or read operation fails.
+	 */
+	public void read(int firstSlotIndex, int count, ByteBuffer slots) throws IOException;
+
+	/**
+	 * Writes remaining bytes of given buffer into slot with given index. If
+	 * given index equals {@link #getSlotCount()} the record area is extended
+	 * by one slot.
+	 *
+	 * @param slotIndex
+	 *            int - zero based index of the slot to write.
+	 * @param slot
+	 *            ByteBuffer - buffer containing the slot data.
+	 * @throws IOException
+	 *             If write operation fails.
+	 */
+	public void write(int slotIndex, ByteBuffer slot) throws IOException;
+
+	/**
+	 * Durability point - forces all writes made so far to the storage device.
+	 *
+	 * @throws IOException
+	 *             If data cannot be forced to the storage device.
+	 */
+	public void force() throws IOException;
+
+	/**
+	 * Releases all resources held by this storage. The underlying file is not
+	 * closed by this method.
+	 */
+	public void close();
+}
@@ -0,0 +1,233 @@
+package suncertify.core.storage;
+
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <code>MappedRecordStorage</code> is an implementation of
+ * {@link IRecordStorage} that maps the record area of the database file into
+ * memory - reads and writes become plain buffer operations and do not involve
+ * any system call.<br>
+ * <br>
+ * The record area is mapped as a list of segments, each of them holding at
+ * most {@link #SEGMENT_SLOTS} slots - this way slots never straddle two
+ * segments and files bigger than a single mapping (2GB) stay addressable.
+ * Only existing slots are mapped (mapping beyond the end of file would extend
+ * it with zeros, i.e. with bogus valid records), so appending a slot remaps
+ * the last segment.<br>
+ * <br>
+ * Writes are not durable until {@link #force()} is invoked - only segments
+ * modified since the last durability point are forced.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.core.storage.IRecordStorage
+ */
+public class MappedRecordStorage implements IRecordStorage {
+	/**
+	 * Maximum number of slots in a single mapped segment.
+	 */
+	public static final int SEGMENT_SLOTS = 1 << 16;
+
+	/**
+	 * DB file channel.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Offset of the first slot in DB file.
+	 */
+	private final long firstSlotOffset;
+
+	/**
+	 * Mapped segments of the record area.
+	 */
+	private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<MappedByteBuffer>();
+
+	/**
+	 * Indexes of segments modified since the last durability point.
+	 */
+	private final BitSet dirtySegments = new BitSet();
+
+	/**
+	 * Indicates that the file was extended since the last durability point.
+	 */
+	private volatile boolean grown = false;
+
+	/**
+	 * Number of mapped slots.
+	 */
+	private volatile int slotCount;
+
+	/**
+	 * Constructs <code>MappedRecordStorage</code> instance and maps all
+	 * complete slots of the record area.
+	 *
+	 * @param channel
+	 *            FileChannel - DB file channel (it must be opened for reading
+	 *            and writing).
+	 * @param firstSlotOffset
+	 *            long - offset of the first slot in DB file.
+	 * @throws IOException
+	 *             If record area cannot be mapped.
+	 */
+	public MappedRecordStorage(final FileChannel channel, final long firstSlotOffset) throws IOException {
+		this.channel = channel;
+		this.firstSlotOffset = firstSlotOffset;
+
+		int count = (int) ((channel.size() - firstSlotOffset) / SLOT_LENGTH);
+		for (int first = 0; first < count; first += SEGMENT_SLOTS) {
+			segments.add(map(first / SEGMENT_SLOTS, Math.min(SEGMENT_SLOTS, count - first)));
+		}
+		slotCount = count;
+	}
+
+	/**
+	 * Maps given number of slots of the segment with given index.
+	 *
+	 * @param segmentIndex
+	 *            int - index of the segment to map.
+	 * @param slots
+	 *            int - number of slots to map.
+	 * @return MappedByteBuffer - mapped segment.
+	 * @throws IOException
+	 *             If segment cannot be mapped.
+	 */
+	private MappedByteBuffer map(final int segmentIndex, final int slots) throws IOException {
+		long position = firstSlotOffset + (long) segmentIndex * SEGMENT_SLOTS * SLOT_LENGTH;
+		return channel.map(MapMode.READ_WRITE, position, (long) slots * SLOT_LENGTH);
+	}
+
+	/**
+	 * Returns the view of the slot with given index - position and limit of
+	 * returned buffer are set to the slot boundaries.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @return ByteBuffer - the view of the slot with given index.
+	 * @throws EOFException
+	 *             If slot with given index is not mapped.
+	 */
+	private ByteBuffer viewOf(final int slotIndex) throws EOFException {
+		if (slotIndex < 0 || slotIndex >= slotCount) {
+			throw new EOFException("Slot " + slotIndex + " is beyond the end of file.");
+		}
+
+		ByteBuffer view = segments.get(slotIndex / SEGMENT_SLOTS).duplicate();
+		int position = (slotIndex % SEGMENT_SLOTS) * SLOT_LENGTH;
+		view.limit(position + SLOT_LENGTH);
+		view.position(position);
+		return view;
+	}
+
+	/**
+	 * Extends mapped record area to the given number of slots.
+	 *
+	 * @param count
+	 *            int - new number of slots.
+	 * @throws IOException
+	 *             If record area cannot be mapped.
+	 */
+	private synchronized void grow(final int count) throws IOException {
+		if (count <= slotCount) {
+			return;
+		}
+
+		int firstSegment = slotCount / SEGMENT_SLOTS;
+		int lastSegment = (count - 1) / SEGMENT_SLOTS;
+		for (int i = firstSegment; i <= lastSegment; ++i) {
+			MappedByteBuffer segment = map(i, Math.min(SEGMENT_SLOTS, count - i * SEGMENT_SLOTS));
+			if (i < segments.size()) {
+				segments.set(i, segment);
+			} else {
+				segments.add(segment);
+			}
+		}
+		slotCount = count;
+		grown = true;
+	}
+
+	/**
+	 * @see IRecordStorage#getSlotCount()
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @see IRecordStorage#read(int, ByteBuffer)
+	 */
+	public void read(final int slotIndex, final ByteBuffer slot) throws IOException {
+		slot.put(viewOf(slotIndex));
+	}
+
+	/**
+	 * @see IRecordStorage#read(int, int, ByteBuffer)
+	 */
+	public void read(final int firstSlotIndex, final int count, final ByteBuffer slots) throws IOException {
+		for (int i = firstSlotIndex; i < firstSlotIndex + count; ++i) {
+			slots.put(viewOf(i));
+		}
+	}
+
+	/**
+	 * @see IRecordStorage#write(int, ByteBuffer)
+	 */
+	public void write(final int slotIndex, final ByteBuffer slot) throws IOException {
+		if (slotIndex >= slotCount) {
+			grow(slotIndex + 1);
+		}
+
+		viewOf(slotIndex).put(slot);
+		synchronized (dirtySegments) {
+			dirtySegments.set(slotIndex / SEGMENT_SLOTS);
+		}
+	}
+
+	/**
+	 * @see IRecordStorage#force()
+	 */
+	public void force() throws IOException {
+		BitSet dirty;
+		synchronized (dirtySegments) {
+			dirty = (BitSet) dirtySegments.clone();
+			dirtySegments.clear();
+		}
+
+		try {
+			for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+				segments.get(i).force();
+			}
+		} catch (RuntimeException e) {
+			// MappedByteBuffer reports IO failures as unchecked exceptions
+			synchronized (dirtySegments) {
+				dirtySegments.or(dirty);
+			}
+			throw new IOException("Unable to force mapped segments: " + e.getMessage());
+		}
+
+		if (grown) {
+			// new file length must be durable too
+			grown = false;
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Releases mapped segments - they are unmapped when garbage collected.
+	 *
+	 * @see IRecordStorage#close()
+	 */
+	public void close() {
+		segments.clear();
+		slotCount = 0;
+	}
+}
@@ -0,0 +1,17 @@
+package suncertify.core.storage;
+
+/**
+ * <code>StorageModeEnum</code> defines the ways the record area of the
+ * database file can be accessed. Enum meaning:
+ * <ul>
+ * <li>FILE - records are read and written with positional channel operations
+ * on DB file channel (see {@link FileRecordStorage})</li>
+ * <li>MAPPED - the record area is mapped into memory and records are read and
+ * written as buffer operations (see {@link MappedRecordStorage})</li>
+ * </ul>
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public enum StorageModeEnum {
+	FILE, MAPPED;
+}
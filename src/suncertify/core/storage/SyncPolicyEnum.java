@@ -0,0 +1,22 @@
+package suncertify.core.storage;
+
+/**
+ * <code>SyncPolicyEnum</code> defines when records written to the database
+ * file are forced to the storage device. Enum meaning:
+ * <ul>
+ * <li>OPERATION - every create, update and delete operation is forced before
+ * it returns (the safest and the slowest policy)</li>
+ * <li>BATCH - operations are written to the write-ahead log and concurrent
+ * operations are forced together (see {@link WriteAheadLog}); record area is
+ * forced by the checkpointer</li>
+ * <li>PERIODIC - record area is forced every configured number of
+ * milliseconds, so operations made in the last period can be lost</li>
+ * <li>OS - record area is forced only when database file is closed - the
+ * operating system decides when written data reach the storage device</li>
+ * </ul>
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public enum SyncPolicyEnum {
+	OPERATION, BATCH, PERIODIC, OS;
+}
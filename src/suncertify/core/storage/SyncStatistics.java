@@ -0,0 +1,108 @@
+package suncertify.core.storage;
+
+import java.io.Serializable;
+
+/**
+ * <code>SyncStatistics</code> collects latencies of operations that force
+ * written data to the storage device (i.e. <i>fsync</i> calls).
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class SyncStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of recorded operations.
+	 */
+	private long count = 0;
+
+	/**
+	 * Total latency (in nanoseconds) of recorded operations.
+	 */
+	private long totalLatency = 0;
+
+	/**
+	 * Maximum latency (in nanoseconds) of recorded operations.
+	 */
+	private long maxLatency = 0;
+
+	/**
+	 * Latency (in nanoseconds) of the last recorded operation.
+	 */
+	private long lastLatency = 0;
+
+	/**
+	 * Records latency of a single operation.
+	 *
+	 * @param latency
+	 *            long - latency (in nanoseconds) of the operation.
+	 */
+	public synchronized void record(final long latency) {
+		++count;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+		lastLatency = latency;
+	}
+
+	/**
+	 * Returns the copy of current statistics.
+	 *
+	 * @return SyncStatistics - the copy of current statistics.
+	 */
+	public synchronized SyncStatistics snapshot() {
+		SyncStatistics copy = new SyncStatistics();
+		copy.count = count;
+		copy.totalLatency = totalLatency;
+		copy.maxLatency = maxLatency;
+		copy.lastLatency = lastLatency;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of recorded operations.
+	 *
+	 * @return long - the number of recorded operations.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the average latency (in nanoseconds) of recorded operations.
+	 *
+	 * @return long - the average latency (in nanoseconds) of recorded
+	 *         operations or <code>0</code> if nothing was recorded.
+	 */
+	public synchronized long getAverageLatency() {
+		return count == 0 ? 0 : totalLatency / count;
+	}
+
+	/**
+	 * Returns the maximum latency (in nanoseconds) of recorded operations.
+	 *
+	 * @return long - the maximum latency (in nanoseconds) of recorded
+	 *         operations.
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Returns the latency (in nanoseconds) of the last recorded operation.
+	 *
+	 * @return long - the latency (in nanoseconds) of the last recorded
+	 *         operation.
+	 */
+	public synchronized long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "count=" + count + ", avg=" + getAverageLatency() / 1000 + "us, max=" + maxLatency / 1000
+				+ "us, last=" + lastLatency / 1000 + "us";
+	}
+}
@@ -0,0 +1,694 @@
+package suncertify.core.storage;
+
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <code>WriteAheadLog</code> is an append-only log of slot writes kept next to
+ * the database file. Each entry consists of the slot index, slot data and CRC32
+ * checksum of both.<br>
+ * <br>
+ * Writes are made durable with <i>group commit</i>: the first writer that finds
+ * no flush in progress becomes the leader - it writes all entries appended so
+ * far with a single gather write and forces the log once for the whole batch.
+ * Other writers simply wait until their entries become durable.<br>
+ * <br>
+ * Logged slots are not written to the record area immediately - a background
+ * <i>checkpointer</i> thread periodically writes all of them (only the latest
+ * durable version of each slot), forces the record area and truncates the log.
+ * Until then the latest durable version of the slot is available through
+ * {@link #lookup(int)} - entries appended but not forced yet are neither served
+ * nor checkpointed.<br>
+ * <br>
+ * The log consists of two segment files (the log file and the file with
+ * {@link #SEGMENT_SUFFIX}), each starting with its generation number. Writers
+ * append to the active segment. A checkpoint switches writers to the other
+ * (empty) segment, so appends are not stopped while the record area is written
+ * and forced - only the retired segment is truncated afterwards.<br>
+ * <br>
+ * After a crash the log is replayed with {@link #replay(File, IRecordStorage)}
+ * - segments in the order of their generations, entries with invalid checksum
+ * (torn writes) end the replay of a segment.<br>
+ * <br>
+ * If a batch cannot be written the log fails for good: entries of the failed
+ * batch never become durable, the log is truncated back to the durable ones
+ * (best effort) and all further appends, lookups and checkpoints throw the
+ * failure - slots that were not durable are never served or checkpointed.
+ * Durable entries stay in the log and are replayed at the next startup.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class WriteAheadLog {
+	/**
+	 * Suffix of the name of the second segment file (appended to the name of
+	 * the log file).
+	 */
+	public static final String SEGMENT_SUFFIX = ".1";
+
+	/**
+	 * Length (in bytes) of the segment header - generation number of the
+	 * segment.
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * Length (in bytes) of a single log entry - slot index, slot data and checksum.
+	 */
+	private static final int ENTRY_LENGTH = 4 + SLOT_LENGTH + 8;
+
+	/**
+	 * Number of logged slots that wakes the checkpointer up before its interval elapses.
+	 */
+	private static final int CHECKPOINT_THRESHOLD = 4096;
+
+	/**
+	 * Replays log entries stored in segments of given log file into given storage (segments in
+	 * the order of their generations), forces the storage and truncates the segments. Segments
+	 * that do not exist or have no complete header are skipped.
+	 *
+	 * @param file
+	 *            File - log file.
+	 * @param storage
+	 *            IRecordStorage - record area the entries are replayed into.
+	 * @return int - the number of replayed entries.
+	 * @throws IOException
+	 *             If log file cannot be read or storage cannot be written.
+	 */
+	public static int replay(final File file, final IRecordStorage storage) throws IOException {
+		File[] segments = getSegments(file);
+		RandomAccessFile[] logs = new RandomAccessFile[segments.length];
+		try {
+			long[] generations = new long[segments.length];
+			for (int i = 0; i < segments.length; ++i) {
+				generations[i] = -1;
+				if (segments[i].exists()) {
+					logs[i] = new RandomAccessFile(segments[i], "rw");
+					generations[i] = readGeneration(logs[i].getChannel());
+				}
+			}
+
+			int count = 0;
+			int first = generations[0] <= generations[1] ? 0 : 1;
+			for (int i = first; i < first + segments.length; ++i) {
+				int segment = i % segments.length;
+				if (generations[segment] >= 0) {
+					count += replay(logs[segment].getChannel(), storage);
+				}
+			}
+
+			if (count > 0) {
+				storage.force();
+			}
+			for (RandomAccessFile log : logs) {
+				if (log != null) {
+					log.getChannel().truncate(0);
+					log.getChannel().force(true);
+				}
+			}
+			return count;
+		} finally {
+			for (RandomAccessFile log : logs) {
+				if (log != null) {
+					log.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replays entries of given segment into given storage - entry with invalid checksum (torn
+	 * write) ends the replay.
+	 *
+	 * @param channel
+	 *            FileChannel - segment file channel.
+	 * @param storage
+	 *            IRecordStorage - record area the entries are replayed into.
+	 * @return int - the number of replayed entries.
+	 * @throws IOException
+	 *             If segment cannot be read or storage cannot be written.
+	 */
+	private static int replay(final FileChannel channel, final IRecordStorage storage) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_LENGTH);
+		long position = HEADER_LENGTH;
+		int count = 0;
+
+		while (true) {
+			entry.clear();
+			if (!read(channel, entry, position)) {
+				// XXX: incomplete entry - torn write at the end of the log
+				break;
+			}
+
+			entry.flip();
+			int slotIndex = entry.getInt(0);
+			if (slotIndex < 0 || entry.getLong(ENTRY_LENGTH - 8) != checksum(entry)) {
+				break;
+			}
+
+			entry.position(4).limit(4 + SLOT_LENGTH);
+			storage.write(slotIndex, entry);
+			position += ENTRY_LENGTH;
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads generation number from the header of given segment.
+	 *
+	 * @param channel
+	 *            FileChannel - segment file channel.
+	 * @return long - generation number of the segment or <code>-1</code> if the segment has no
+	 *         complete header.
+	 * @throws IOException
+	 *             If segment cannot be read.
+	 */
+	private static long readGeneration(final FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		if (!read(channel, header, 0)) {
+			return -1;
+		}
+		return Math.max(-1, header.getLong(0));
+	}
+
+	/**
+	 * Fills given buffer with bytes of given channel starting at given position.
+	 *
+	 * @param channel
+	 *            FileChannel - file channel.
+	 * @param buffer
+	 *            ByteBuffer - buffer to fill.
+	 * @param position
+	 *            long - position of the first byte.
+	 * @return boolean - <code>true</code> if the buffer was filled and <code>false</code> if the
+	 *         end of file was reached.
+	 * @throws IOException
+	 *             If channel cannot be read.
+	 */
+	private static boolean read(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+
+		int start = buffer.position();
+		while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position() - start) >= 0) {
+			// read the whole buffer
+		}
+		return !buffer.hasRemaining();
+	}
+
+	/**
+	 * Checks if segments of given log file hold nothing to replay, i.e. they do not exist or are
+	 * empty.
+	 *
+	 * @param file
+	 *            File - log file.
+	 * @return boolean - <code>true</code> if all segments are empty and <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean isEmpty(final File file) {
+		for (File segment : getSegments(file)) {
+			if (segment.length() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes segments of given log file.
+	 *
+	 * @param file
+	 *            File - log file.
+	 */
+	public static void delete(final File file) {
+		for (File segment : getSegments(file)) {
+			segment.delete();
+		}
+	}
+
+	/**
+	 * Returns segment files of given log file.
+	 *
+	 * @param file
+	 *            File - log file.
+	 * @return File[] - the log file and its second segment file.
+	 */
+	private static File[] getSegments(final File file) {
+		return new File[] { file, new File(file.getPath() + SEGMENT_SUFFIX) };
+	}
+
+	/**
+	 * Computes checksum of slot index and slot data of given log entry.
+	 *
+	 * @param entry
+	 *            ByteBuffer - log entry.
+	 * @return long - checksum of given log entry.
+	 */
+	private static long checksum(final ByteBuffer entry) {
+		CRC32 crc = new CRC32();
+		crc.update(entry.array(), 0, ENTRY_LENGTH - 8);
+		return crc.getValue();
+	}
+
+	/**
+	 * Segment files.
+	 */
+	private final RandomAccessFile[] segmentFiles = new RandomAccessFile[2];
+
+	/**
+	 * Segment file channels.
+	 */
+	private final FileChannel[] channels = new FileChannel[2];
+
+	/**
+	 * Index of the active segment - batches are written to it.
+	 */
+	private int active = 0;
+
+	/**
+	 * Generation number of the active segment.
+	 */
+	private long generation = 1;
+
+	/**
+	 * Segment retired by a checkpoint that has not been truncated yet (the checkpoint failed) or
+	 * <code>null</code> if there is no such segment.
+	 */
+	private FileChannel retired = null;
+
+	/**
+	 * Record area logged slots are checkpointed into.
+	 */
+	private final IRecordStorage storage;
+
+	/**
+	 * Statistics of log and record area forces.
+	 */
+	private final SyncStatistics statistics;
+
+	/**
+	 * Checkpointer thread.
+	 */
+	private final Thread checkpointer;
+
+	/**
+	 * Entries appended but not yet written to the log.
+	 */
+	private List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+
+	/**
+	 * Durable slots not yet written to the record area (key: slot index; value: slot data) -
+	 * entries are put only after their batch has been forced.
+	 */
+	private final Map<Integer, ByteBuffer> unapplied = new HashMap<Integer, ByteBuffer>();
+
+	/**
+	 * Sequence number of the last appended entry.
+	 */
+	private long appendedSeq = 0;
+
+	/**
+	 * Sequence number of the last durable entry.
+	 */
+	private long durableSeq = 0;
+
+	/**
+	 * Length of the active segment holding durable entries - the segment is truncated back to it
+	 * when a batch fails.
+	 */
+	private long durableLength;
+
+	/**
+	 * Indicates that the leader is writing a batch of entries to the log.
+	 */
+	private boolean flushing = false;
+
+	/**
+	 * Indicates that the checkpointer is writing the record area and truncating the retired
+	 * segment.
+	 */
+	private boolean checkpointing = false;
+
+	/**
+	 * Failure of the log - once the log cannot be written no more entries are accepted.
+	 */
+	private IOException failure = null;
+
+	/**
+	 * Indicates that this log is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructs <code>WriteAheadLog</code> instance and starts the checkpointer thread. Segments
+	 * of given log file are expected to be empty (i.e. replayed).
+	 *
+	 * @param file
+	 *            File - log file.
+	 * @param storage
+	 *            IRecordStorage - record area logged slots are checkpointed into.
+	 * @param checkpointInterval
+	 *            long - interval (in milliseconds) between checkpoints.
+	 * @param statistics
+	 *            SyncStatistics - statistics latencies of log and record area forces are recorded
+	 *            in.
+	 * @throws IOException
+	 *             If segment files cannot be opened.
+	 * @throws IllegalArgumentException
+	 *             If given checkpoint interval is not positive.
+	 */
+	public WriteAheadLog(final File file, final IRecordStorage storage, final long checkpointInterval,
+			final SyncStatistics statistics) throws IOException, IllegalArgumentException {
+
+		if (checkpointInterval <= 0) {
+			throw new IllegalArgumentException("Checkpoint interval must be positive - passed value: "
+					+ checkpointInterval);
+		}
+
+		this.storage = storage;
+		this.statistics = statistics;
+		File[] segments = getSegments(file);
+		try {
+			for (int i = 0; i < segments.length; ++i) {
+				segmentFiles[i] = new RandomAccessFile(segments[i], "rw");
+				channels[i] = segmentFiles[i].getChannel();
+				prepare(channels[i], generation + i);
+			}
+		} catch (IOException e) {
+			closeSegments();
+			throw e;
+		}
+		durableLength = HEADER_LENGTH;
+
+		checkpointer = new Thread("DB checkpointer") {
+			/**
+			 * @see Thread#run()
+			 */
+			public void run() {
+				while (!closed) {
+					synchronized (unapplied) {
+						try {
+							unapplied.wait(checkpointInterval);
+						} catch (InterruptedException e) {
+							// XXX: ignore it
+						}
+					}
+
+					try {
+						checkpoint();
+					} catch (IOException e) {
+						// XXX: ignore it - logged slots are retried at the next checkpoint
+					}
+				}
+			}
+		};
+		checkpointer.setDaemon(true);
+		checkpointer.start();
+	}
+
+	/**
+	 * Empties given segment and writes its header - the segment is ready to be activated.
+	 *
+	 * @param channel
+	 *            FileChannel - segment file channel.
+	 * @param segmentGeneration
+	 *            long - generation number of the segment.
+	 * @throws IOException
+	 *             If segment cannot be written.
+	 */
+	private static void prepare(final FileChannel channel, final long segmentGeneration) throws IOException {
+		channel.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putLong(0, segmentGeneration);
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.force(true);
+		channel.position(HEADER_LENGTH);
+	}
+
+	/**
+	 * Appends slot write to the log and waits until it is durable (group commit).
+	 *
+	 * @param slotIndex
+	 *            int - zero based index of the written slot.
+	 * @param slot
+	 *            ByteBuffer - buffer containing the slot data.
+	 * @throws IOException
+	 *             If log cannot be written or has failed before.
+	 */
+	public void append(final int slotIndex, final ByteBuffer slot) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_LENGTH);
+		entry.putInt(slotIndex);
+		entry.put(slot);
+		entry.putLong(checksum(entry));
+		entry.flip();
+
+		long seq;
+		synchronized (this) {
+			if (failure != null) {
+				throw failure;
+			}
+			pending.add(entry);
+			seq = ++appendedSeq;
+		}
+
+		boolean interrupted = false;
+		while (true) {
+			ByteBuffer[] batch;
+			long batchSeq;
+			FileChannel channel;
+
+			synchronized (this) {
+				while (flushing && durableSeq < seq) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+
+				if (interrupted && (durableSeq >= seq || failure != null)) {
+					Thread.currentThread().interrupt();
+				}
+				if (durableSeq >= seq) {
+					return;
+				}
+				if (failure != null) {
+					// XXX: the entry was in a failed batch or pending behind it
+					throw failure;
+				}
+
+				// become the leader - write all pending entries at once
+				flushing = true;
+				batch = pending.toArray(new ByteBuffer[pending.size()]);
+				pending.clear();
+				batchSeq = appendedSeq;
+				// XXX: segments are not switched while a batch is being written
+				channel = channels[active];
+			}
+
+			IOException batchFailure = null;
+			long length = 0;
+			try {
+				long remaining = (long) batch.length * ENTRY_LENGTH;
+				while (remaining > 0) {
+					remaining -= channel.write(batch);
+				}
+
+				long start = System.nanoTime();
+				channel.force(false);
+				statistics.record(System.nanoTime() - start);
+				length = channel.position();
+			} catch (IOException e) {
+				batchFailure = e;
+				try {
+					// XXX: best effort - entries of the failed batch must not be replayed
+					channel.truncate(durableLength);
+					channel.force(false);
+				} catch (IOException ignored) {
+					// the entries may be replayed - the log is failed anyway
+				}
+			}
+
+			synchronized (this) {
+				flushing = false;
+				if (batchFailure == null) {
+					// XXX: slots are visible to lookups and checkpoints only once they are durable
+					synchronized (unapplied) {
+						for (ByteBuffer logged : batch) {
+							unapplied.put(logged.getInt(0), ByteBuffer.wrap(logged.array(), 4, SLOT_LENGTH).slice()
+									.asReadOnlyBuffer());
+						}
+						if (unapplied.size() >= CHECKPOINT_THRESHOLD) {
+							unapplied.notify();
+						}
+					}
+					durableSeq = batchSeq;
+					durableLength = length;
+				} else if (failure == null) {
+					failure = batchFailure;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest durable version of the slot with given index if it has not been written
+	 * to the record area yet.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @return ByteBuffer - read-only slot data or <code>null</code> if record area is up to date.
+	 * @throws IOException
+	 *             If the log has failed - logged slots may not be durable.
+	 */
+	public ByteBuffer lookup(final int slotIndex) throws IOException {
+		synchronized (this) {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+		synchronized (unapplied) {
+			ByteBuffer data = unapplied.get(slotIndex);
+			return data == null ? null : data.duplicate();
+		}
+	}
+
+	/**
+	 * Writes all durable slots to the record area, forces it and truncates the retired segment.
+	 * Writers are switched to the other segment before the record area is written, so appends go
+	 * on during the checkpoint.
+	 *
+	 * @throws IOException
+	 *             If record area cannot be written or forced or the log has failed.
+	 */
+	public void checkpoint() throws IOException {
+		Map<Integer, ByteBuffer> snapshot;
+		FileChannel segment;
+		long nextGeneration;
+		synchronized (this) {
+			while (flushing || checkpointing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (failure != null) {
+				// XXX: failed entries must not reach the record area - durable ones are replayed
+				throw failure;
+			}
+
+			synchronized (unapplied) {
+				if (unapplied.isEmpty() && retired == null) {
+					return;
+				}
+				snapshot = new HashMap<Integer, ByteBuffer>(unapplied);
+			}
+
+			if (retired == null) {
+				// XXX: no batch is being written - all entries of the active segment are in the snapshot
+				retired = channels[active];
+				active = 1 - active;
+				++generation;
+				durableLength = HEADER_LENGTH;
+			}
+			segment = retired;
+			nextGeneration = generation + 1;
+			checkpointing = true;
+		}
+
+		boolean checkpointed = false;
+		try {
+			for (Map.Entry<Integer, ByteBuffer> entry : snapshot.entrySet()) {
+				storage.write(entry.getKey(), entry.getValue().duplicate());
+			}
+
+			long start = System.nanoTime();
+			storage.force();
+			statistics.record(System.nanoTime() - start);
+
+			// entries of the retired segment are in the record area - it becomes the next segment
+			prepare(segment, nextGeneration);
+			checkpointed = true;
+		} finally {
+			synchronized (this) {
+				if (checkpointed) {
+					retired = null;
+				}
+				checkpointing = false;
+				notifyAll();
+			}
+		}
+
+		synchronized (unapplied) {
+			for (Map.Entry<Integer, ByteBuffer> entry : snapshot.entrySet()) {
+				if (unapplied.get(entry.getKey()) == entry.getValue()) {
+					unapplied.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the checkpointer thread, checkpoints all logged slots, empties the segments and closes
+	 * the segment files.
+	 */
+	public void close() {
+		closed = true;
+		// XXX: the checkpointer must not be interrupted - it would close the channels it works on
+		synchronized (unapplied) {
+			unapplied.notify();
+		}
+
+		try {
+			checkpointer.join();
+			checkpoint();
+
+			synchronized (this) {
+				synchronized (unapplied) {
+					if (!unapplied.isEmpty() || retired != null || !pending.isEmpty()) {
+						// XXX: checkpoint was interrupted or slots were appended meanwhile
+						throw new IOException("Write-ahead log could not be checkpointed.");
+					}
+				}
+			}
+			// all logged slots are in the record area - nothing is left to replay
+			for (FileChannel channel : channels) {
+				channel.truncate(0);
+				channel.force(true);
+			}
+		} catch (Exception e) {
+			// XXX: ignore it - log is replayed at the next startup
+		}
+
+		closeSegments();
+	}
+
+	/**
+	 * Closes segment files.
+	 */
+	private void closeSegments() {
+		for (RandomAccessFile segmentFile : segmentFiles) {
+			if (segmentFile != null) {
+				try {
+					segmentFile.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
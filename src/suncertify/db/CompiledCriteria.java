@@ -0,0 +1,392 @@
+package suncertify.db;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LOCATION;
+import static suncertify.db.domain.DBMetaInfo.FIELD_NAME;
+import static suncertify.db.domain.DBMetaInfo.FIELD_OWNER;
+import static suncertify.db.domain.DBMetaInfo.FIELD_RATE;
+import static suncertify.db.domain.DBMetaInfo.FIELD_SIZE;
+import static suncertify.db.domain.DBMetaInfo.FIELD_SPECIALTIES;
+import static suncertify.db.domain.DBMetaInfo.getFieldNo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import suncertify.core.StringHelper;
+import suncertify.db.domain.Contractor;
+import suncertify.db.index.RecordIndexes;
+import suncertify.db.store.RecordMatcher;
+
+/**
+ * <code>CompiledCriteria</code> are contained and range criteria of {@link FindCriteria} that are
+ * not resolved by indexes, compiled once per search into typed predicates - contained values are
+ * tokenized and upper-cased and right sides of range comparisons are parsed when criteria are
+ * compiled. Records are checked with their getters, so numeric fields are compared as numbers
+ * (not parsed again) and specialties are matched token by token without creating strings unless
+ * a token contains non-ASCII characters.<br>
+ * <br>
+ * Instances of this class are immutable.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.Data#find(FindCriteria)
+ * @see suncertify.db.Data#find(Query)
+ */
+final class CompiledCriteria {
+	/**
+	 * Index of the name field.
+	 */
+	private static final int NAME = getFieldNo(FIELD_NAME);
+
+	/**
+	 * Index of the location field.
+	 */
+	private static final int LOCATION = getFieldNo(FIELD_LOCATION);
+
+	/**
+	 * Index of the specialties field.
+	 */
+	private static final int SPECIALTIES = getFieldNo(FIELD_SPECIALTIES);
+
+	/**
+	 * Index of the size field.
+	 */
+	private static final int SIZE = getFieldNo(FIELD_SIZE);
+
+	/**
+	 * Index of the rate field.
+	 */
+	private static final int RATE = getFieldNo(FIELD_RATE);
+
+	/**
+	 * Index of the owner field.
+	 */
+	private static final int OWNER = getFieldNo(FIELD_OWNER);
+
+	/**
+	 * Contained criteria of fields without inverted index.
+	 */
+	private final ContainedTokens[] contained;
+
+	/**
+	 * Range criteria of fields without range index.
+	 */
+	private final RangeComparison[] ranges;
+
+	/**
+	 * Compiles criteria of given search that are not resolved by given indexes.
+	 *
+	 * @param criteria
+	 *            FindCriteria - contained and range criteria.
+	 * @param indexes
+	 *            RecordIndexes - indexes of searched records.
+	 * @throws IllegalArgumentException
+	 *             If value of range criterion cannot be parsed (see
+	 *             {@link RecordIndexes#valueOf(String, int)}).
+	 */
+	CompiledCriteria(final FindCriteria criteria, final RecordIndexes indexes) throws IllegalArgumentException {
+		List<ContainedTokens> containedList = new ArrayList<ContainedTokens>();
+		List<RangeComparison> rangeList = new ArrayList<RangeComparison>();
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			String containedValues = criteria.getContainedValues(i);
+			if (containedValues != null && !indexes.isContainedIndexed(i)) {
+				Set<String> tokens = StringHelper.toTokenSet(containedValues);
+				if (!tokens.isEmpty()) {
+					containedList.add(new ContainedTokens(i, tokens));
+				}
+			}
+
+			if (criteria.getRangeOperator(i) != null && !indexes.isRangeIndexed(i)) {
+				rangeList.add(new RangeComparison(i, criteria.getRangeOperator(i), RecordIndexes.valueOf(criteria
+						.getRangeValue(i), i)));
+			}
+		}
+		contained = containedList.toArray(new ContainedTokens[containedList.size()]);
+		ranges = rangeList.toArray(new RangeComparison[rangeList.size()]);
+	}
+
+	/**
+	 * Checks if there are no criteria to be checked record by record.
+	 *
+	 * @return boolean - <code>true</code> if every record meets these criteria and
+	 *         <code>false</code> otherwise.
+	 */
+	boolean isEmpty() {
+		return contained.length == 0 && ranges.length == 0;
+	}
+
+	/**
+	 * Checks if given record meets these criteria.
+	 *
+	 * @param record
+	 *            Contractor - stored record.
+	 * @return boolean - <code>true</code> if given record meets all criteria and
+	 *         <code>false</code> otherwise.
+	 */
+	boolean matches(final Contractor record) {
+		for (RangeComparison range : ranges) {
+			if (!range.matches(record)) {
+				return false;
+			}
+		}
+		for (ContainedTokens tokens : contained) {
+			if (!tokens.matches(record)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns value of given text field of given record - values of numeric fields are returned
+	 * as they are written to database file.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @param field
+	 *            int - index of the field.
+	 * @return String - value of the field.
+	 */
+	private static String getText(final Contractor record, final int field) {
+		if (field == NAME) {
+			return record.getName();
+		} else if (field == LOCATION) {
+			return record.getLocation();
+		} else if (field == SPECIALTIES) {
+			return record.getSpecialties();
+		}
+		return record.toStrings()[field];
+	}
+
+	/**
+	 * Returns value of given numeric field of given record as it is compared by range indexes
+	 * (see {@link RecordIndexes#valueOf(String, int)}) - stored records equal records read back
+	 * from database file, so values of their getters equal parsed values of the file.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @param field
+	 *            int - index of the field.
+	 * @return double - value of the field.
+	 */
+	private static double getNumber(final Contractor record, final int field) {
+		if (field == SIZE) {
+			return record.getSize();
+		} else if (field == RATE) {
+			return record.getRate().getValue();
+		} else if (field == OWNER) {
+			return record.getOwner();
+		}
+		return RecordIndexes.valueOf(getText(record, field), field);
+	}
+
+	/**
+	 * <code>ContainedTokens</code> is a contained criterion - field (comma separated values)
+	 * matches if it contains all tokens of the criterion ignoring case (see
+	 * {@link StringHelper#toTokenSet(String)}).
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class ContainedTokens {
+		/**
+		 * Index of the field.
+		 */
+		private final int field;
+
+		/**
+		 * Normalized (trimmed and upper-cased) tokens.
+		 */
+		private final String[] tokens;
+
+		/**
+		 * Indicates that token consists of ASCII characters only and ASCII letters are
+		 * upper-cased to ASCII letters (see {@link RecordMatcher#isAsciiUpperCase()}).
+		 */
+		private final boolean[] ascii;
+
+		/**
+		 * Constructs <code>ContainedTokens</code>.
+		 *
+		 * @param field
+		 *            int - index of the field.
+		 * @param tokens
+		 *            Set&lt;String&gt; - normalized tokens.
+		 */
+		ContainedTokens(final int field, final Set<String> tokens) {
+			this.field = field;
+			this.tokens = tokens.toArray(new String[tokens.size()]);
+			ascii = new boolean[this.tokens.length];
+			boolean asciiUpperCase = RecordMatcher.isAsciiUpperCase();
+			for (int i = 0; i < ascii.length; ++i) {
+				ascii[i] = asciiUpperCase && isAscii(this.tokens[i]);
+			}
+		}
+
+		/**
+		 * Checks if field of given record contains all tokens.
+		 *
+		 * @param record
+		 *            Contractor - record to be checked.
+		 * @return boolean - <code>true</code> if the field meets the criterion and
+		 *         <code>false</code> otherwise.
+		 */
+		boolean matches(final Contractor record) {
+			String values = getText(record, field);
+			for (int i = 0; i < tokens.length; ++i) {
+				if (!contains(values, tokens[i], ascii[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Checks if given comma separated values contain given token.
+		 *
+		 * @param values
+		 *            String - comma separated values.
+		 * @param token
+		 *            String - normalized token.
+		 * @param asciiToken
+		 *            boolean - <code>true</code> if characters of values can be upper-cased
+		 *            without {@link String#toUpperCase()} until non-ASCII character is found.
+		 * @return boolean - <code>true</code> if one of values (trimmed and upper-cased) equals
+		 *         the token and <code>false</code> otherwise.
+		 */
+		private static boolean contains(final String values, final String token, final boolean asciiToken) {
+			int start = 0;
+			while (start <= values.length()) {
+				int end = values.indexOf(',', start);
+				if (end < 0) {
+					end = values.length();
+				}
+				if (equals(values, start, end, token, asciiToken)) {
+					return true;
+				}
+				start = end + 1;
+			}
+			return false;
+		}
+
+		/**
+		 * Checks if given value (trimmed and upper-cased) equals given token.
+		 *
+		 * @param values
+		 *            String - comma separated values.
+		 * @param start
+		 *            int - position of the first character of the value.
+		 * @param end
+		 *            int - position following the last character of the value.
+		 * @param token
+		 *            String - normalized token.
+		 * @param asciiToken
+		 *            boolean - <code>true</code> if characters of the value can be upper-cased
+		 *            without {@link String#toUpperCase()} until non-ASCII character is found.
+		 * @return boolean - <code>true</code> if the value equals the token and
+		 *         <code>false</code> otherwise.
+		 */
+		private static boolean equals(final String values, final int start, final int end, final String token,
+				final boolean asciiToken) {
+
+			int from = start;
+			int to = end;
+			while (from < to && values.charAt(from) <= ' ') {
+				++from;
+			}
+			while (to > from && values.charAt(to - 1) <= ' ') {
+				--to;
+			}
+			if (!asciiToken) {
+				return values.substring(from, to).toUpperCase().equals(token);
+			}
+
+			// XXX: upper-casing never shortens a string - longer value cannot equal the token
+			if (to - from > token.length()) {
+				return false;
+			}
+			for (int i = 0; i < to - from; ++i) {
+				char c = values.charAt(from + i);
+				if (c >= 0x80) {
+					// XXX: upper-casing of non-ASCII characters depends on locale - use String
+					return values.substring(from, to).toUpperCase().equals(token);
+				}
+				if (c >= 'a' && c <= 'z') {
+					c -= 'a' - 'A';
+				}
+				if (c != token.charAt(i)) {
+					return false;
+				}
+			}
+			return to - from == token.length();
+		}
+
+		/**
+		 * Checks if given string consists of ASCII characters only.
+		 *
+		 * @param string
+		 *            String - string to check.
+		 * @return boolean - <code>true</code> if given string consists of ASCII characters only
+		 *         and <code>false</code> otherwise.
+		 */
+		private static boolean isAscii(final String string) {
+			for (int i = 0; i < string.length(); ++i) {
+				if (string.charAt(i) >= 0x80) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * <code>RangeComparison</code> is a range criterion - numeric field is compared with value
+	 * parsed when the criterion is compiled.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class RangeComparison {
+		/**
+		 * Index of the field.
+		 */
+		private final int field;
+
+		/**
+		 * Comparison operator.
+		 */
+		private final RangeOperatorEnum operator;
+
+		/**
+		 * Right side of the comparison.
+		 */
+		private final double value;
+
+		/**
+		 * Constructs <code>RangeComparison</code>.
+		 *
+		 * @param field
+		 *            int - index of the field.
+		 * @param operator
+		 *            RangeOperatorEnum - comparison operator.
+		 * @param value
+		 *            double - right side of the comparison (see
+		 *            {@link RecordIndexes#valueOf(String, int)}).
+		 */
+		RangeComparison(final int field, final RangeOperatorEnum operator, final double value) {
+			this.field = field;
+			this.operator = operator;
+			this.value = value;
+		}
+
+		/**
+		 * Checks if field of given record meets the comparison.
+		 *
+		 * @param record
+		 *            Contractor - record to be checked.
+		 * @return boolean - <code>true</code> if the field meets the comparison and
+		 *         <code>false</code> otherwise.
+		 */
+		boolean matches(final Contractor record) {
+			return RecordIndexes.matches(getNumber(record, field), operator, value);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package suncertify.db;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import suncertify.db.domain.Persistent;
 
@@ -19,4 +21,278 @@ public interface DBPersistent<T extends Persistent> extends DBMain {
 	 * @return List&lt;T&gt; - the list of all records from database.
 	 */
 	public List<T> readAll();
+
+	/**
+	 * Returns an array of record numbers that match given criteria (see
+	 * {@link FindCriteria}) - numbers are returned in ascending order.
+	 * 
+	 * @param criteria
+	 *            FindCriteria - search criteria.
+	 * @return int[] - numbers of matching records.
+	 * @throws RecordNotFoundException
+	 *             If no records matching given criteria were found.
+	 * @throws IllegalArgumentException
+	 *             If value of range criterion cannot be parsed.
+	 */
+	public int[] find(FindCriteria criteria) throws RecordNotFoundException, IllegalArgumentException;
+
+	/**
+	 * Returns records that match given query (see {@link Query}) - records are evaluated
+	 * directly by database, so no record numbers or string arrays are passed to the caller.
+	 * Returned records are copies owned by the caller.
+	 * 
+	 * @param query
+	 *            Query - search criteria, order, limit and projection.
+	 * @return List&lt;T&gt; - matching records.
+	 * @throws RecordNotFoundException
+	 *             If no records matching given query were found.
+	 * @throws IllegalArgumentException
+	 *             If value of range criterion cannot be parsed.
+	 */
+	public List<T> find(Query query) throws RecordNotFoundException, IllegalArgumentException;
+
+	/**
+	 * Leases the lock of given record - waits until the record is unlocked (see
+	 * {@link DBMain#lock(int)}). The lock is owned by the holder of returned cookie and it is
+	 * released automatically when the lease expires, so a client that never unlocks the record
+	 * does not block it forever. Leased record can be changed only with the cookie (see
+	 * {@link #update(int, String[], long)} and {@link #delete(int, long)}).
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring the lock) after which the
+	 *            lock is released automatically.
+	 * @return long - cookie of the owner of the lock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 */
+	public long lock(int recNo, long leaseTime) throws RecordNotFoundException;
+
+	/**
+	 * Locks given record if it is not locked - unlike {@link DBMain#lock(int)} it never waits.
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @return boolean - <code>true</code> if the record was locked and <code>false</code> if it
+	 *         is locked by somebody else.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 */
+	public boolean tryLock(int recNo) throws RecordNotFoundException;
+
+	/**
+	 * Locks given record - waits at most given time until the record is unlocked (see
+	 * {@link DBMain#lock(int)}).
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param timeout
+	 *            long - maximum time to wait.
+	 * @param unit
+	 *            TimeUnit - unit of the timeout.
+	 * @return boolean - <code>true</code> if the record was locked and <code>false</code> if the
+	 *         time elapsed.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public boolean lock(int recNo, long timeout, TimeUnit unit) throws RecordNotFoundException,
+			InterruptedException;
+
+	/**
+	 * Leases the lock of given record if it is not locked (see {@link #lock(int, long)}) - never
+	 * waits.
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @return long - cookie of the owner of the lock or <code>0</code> if the record is locked
+	 *         by somebody else.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 */
+	public long tryLock(int recNo, long leaseTime) throws RecordNotFoundException;
+
+	/**
+	 * Leases the lock of given record (see {@link #lock(int, long)}) - waits at most given time
+	 * until the record is unlocked.
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @param timeout
+	 *            long - maximum time to wait.
+	 * @param unit
+	 *            TimeUnit - unit of the timeout.
+	 * @return long - cookie of the owner of the lock or <code>0</code> if the time elapsed.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public long lock(int recNo, long leaseTime, long timeout, TimeUnit unit) throws RecordNotFoundException,
+			InterruptedException;
+
+	/**
+	 * Locks given record shared - waits until exclusive locks of the record requested earlier are
+	 * released. Shared locks exclude exclusive locks (and so updates and deletions of the record)
+	 * but not each other, so records locked shared can be read consistently by many clients at
+	 * once. Like locks of {@link DBMain#lock(int)} shared locks have no owners.
+	 * 
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 */
+	public void lockShared(int recNo) throws RecordNotFoundException;
+
+	/**
+	 * Releases shared lock of given record.
+	 * 
+	 * @param recNo
+	 *            int - no of record to unlock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 */
+	public void unlockShared(int recNo) throws RecordNotFoundException;
+
+	/**
+	 * Upgrades shared lock of given record to exclusive lock (released with
+	 * {@link DBMain#unlock(int)}) - waits until other clients release their shared locks of the
+	 * record. Only one client can upgrade a record at a time.
+	 * 
+	 * @param recNo
+	 *            int - no of record locked shared.
+	 * @return boolean - <code>true</code> if the lock was upgraded and <code>false</code> if
+	 *         other client is upgrading its lock of the record (shared lock is kept).
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 * @throws IllegalStateException
+	 *             If the record is not locked shared.
+	 */
+	public boolean upgrade(int recNo) throws RecordNotFoundException, IllegalStateException;
+
+	/**
+	 * Locks given records (see {@link DBMain#lock(int)}) - records are locked in ascending order
+	 * of their numbers, so callers of this method never deadlock each other. If waiting for a
+	 * record would close a cycle with other locks, records locked by the call are unlocked and
+	 * {@link DeadlockException} is thrown - the caller may try again.
+	 * 
+	 * @param recNos
+	 *            int[] - numbers of records to lock.
+	 * @throws RecordNotFoundException
+	 *             If any of given records does not exist.
+	 * @throws DeadlockException
+	 *             If the call was aborted to break a deadlock.
+	 */
+	public void lockAll(int[] recNos) throws RecordNotFoundException, DeadlockException;
+
+	/**
+	 * Leases the locks of given records with one cookie (see {@link #lock(int, long)} and
+	 * {@link #lockAll(int[])}).
+	 * 
+	 * @param recNos
+	 *            int[] - numbers of records to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring each lock) after which the
+	 *            locks are released automatically.
+	 * @return long - cookie of the owner of the locks.
+	 * @throws RecordNotFoundException
+	 *             If any of given records does not exist.
+	 * @throws DeadlockException
+	 *             If the call was aborted to break a deadlock.
+	 */
+	public long lockAll(int[] recNos, long leaseTime) throws RecordNotFoundException, DeadlockException;
+
+	/**
+	 * Renews the lease of given record - the lock will be released after given time from now.
+	 * 
+	 * @param recNo
+	 *            int - no of leased record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void renew(int recNo, long cookie, long leaseTime) throws RecordNotFoundException, SecurityException;
+
+	/**
+	 * Releases the lease of given record.
+	 * 
+	 * @param recNo
+	 *            int - no of leased record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void unlock(int recNo, long cookie) throws RecordNotFoundException, SecurityException;
+
+	/**
+	 * Modifies the fields of leased record (see {@link DBMain#update(int, String[])}).
+	 * 
+	 * @param recNo
+	 *            int - no of leased record.
+	 * @param data
+	 *            String[] - new values of the fields.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist or is not valid.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void update(int recNo, String[] data, long cookie) throws RecordNotFoundException, SecurityException;
+
+	/**
+	 * Deletes leased record (see {@link DBMain#delete(int)}). The lease ends with the record -
+	 * its lock is released, so the slot of deleted record is not locked by the lease.
+	 * 
+	 * @param recNo
+	 *            int - no of leased record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws RecordNotFoundException
+	 *             If record with given no does not exist or is not valid.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void delete(int recNo, long cookie) throws RecordNotFoundException, SecurityException;
+
+	/**
+	 * Removes deleted records from database file while database remains
+	 * available. Valid records from the end of the file are moved into slots of
+	 * deleted records, so only the numbers of moved records change. Old numbers
+	 * of moved records are reused by records created later, so they stand for
+	 * other records - callers holding record numbers check them with
+	 * {@link #getCurrentRecordNo(int)}.
+	 * 
+	 * @return Map&lt;Integer, Integer&gt; - new numbers of moved records (key:
+	 *         old record no; value: new record no).
+	 * @throws DBException
+	 *             If database file cannot be compacted.
+	 */
+	public Map<Integer, Integer> compact() throws DBException;
+
+	/**
+	 * Returns the current number of the record that had given number before it
+	 * was moved by compaction. Moves of all compactions performed since database
+	 * file was opened are followed.
+	 * 
+	 * @param recNo
+	 *            int - record number.
+	 * @return int - current number of the record moved from given number or
+	 *         given number if no record was moved from it.
+	 */
+	public int getCurrentRecordNo(int recNo);
 }
@@ -1,22 +1,52 @@
 package suncertify.db;
 
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+import static suncertify.db.lock.RecordLockManager.NO_COOKIE;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import suncertify.core.CompactedFile;
+import suncertify.core.DBConfiguration;
 import suncertify.core.DBHelper;
 import suncertify.core.InitializationException;
+import suncertify.core.storage.SyncPolicyEnum;
+import suncertify.core.storage.SyncStatistics;
 import suncertify.db.domain.Contractor;
-import suncertify.db.domain.DBMetaInfo;
 import suncertify.db.domain.RecordFlagEnum;
+import suncertify.db.index.RecordIndexes;
+import suncertify.db.index.IKeyIndex;
+import suncertify.db.lock.RecordLockManager;
+import suncertify.db.store.HeapRecordStore;
+import suncertify.db.store.IRecordStore;
+import suncertify.db.store.LazyRecordStore;
+import suncertify.db.store.ParallelScanner;
+import suncertify.db.store.RecordMatcher;
+import suncertify.db.store.RecordStoreModeEnum;
+import suncertify.db.store.SlabRecordStore;
 
 /**
- * <code>Data</code> is an implementation of {@link DBMain} class.
+ * <code>Data</code> is an implementation of {@link DBMain} class. Records are kept in memory by
+ * the {@link IRecordStore} implementation chosen by the
+ * {@link DBConfiguration#getRecordStoreMode()} setting.<br>
+ * <br>
+ * Database file can be compacted while database is in use (see {@link #compact()}) - all
+ * operations share a read lock and only the final swap of database file and record store takes
+ * the write lock.
  * 
  * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
  * @see suncertify.db.DBMain
@@ -33,24 +63,77 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	}
 
 	/**
-	 * All records (valid and invalid) map.
+	 * All records (valid and invalid).
 	 */
-	private Map<Integer, Contractor> recordMap;
+	private volatile IRecordStore store;
 
 	/**
-	 * Invalid records map.
+	 * Indexes of valid records.
 	 */
-	private Map<Integer, Contractor> invalidRecordMap;
+	private volatile RecordIndexes indexes;
 
 	/**
-	 * Locked record's keys set.
+	 * Locks of records.
 	 */
-	private Set<Integer> lockedRecords;
+	private final RecordLockManager lockManager = new RecordLockManager();
 
 	/**
 	 * Database helper.
 	 */
-	private DBHelper dbHelper;
+	private volatile DBHelper dbHelper;
+
+	/**
+	 * DB file name.
+	 */
+	private final String dbFilename;
+
+	/**
+	 * Database configuration.
+	 */
+	private final DBConfiguration configuration;
+
+	/**
+	 * Scanner searching records that are not resolved by indexes in parallel.
+	 */
+	private final ParallelScanner scanner;
+
+	/**
+	 * Read lock - held by all operations on records.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock - held while database file and record store are swapped.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Monitor of compaction - only one compaction is performed at a time.
+	 */
+	private final Object compactionMonitor = new Object();
+
+	/**
+	 * Lease time (in milliseconds) of locks of records renumbered by compaction - the locks are
+	 * released as soon as the record store is rebuilt.
+	 */
+	private static final long COMPACTION_LEASE_TIME = 60 * 60 * 1000;
+
+	/**
+	 * Maximum time (in milliseconds) compaction waits for the lock of a single renumbered record.
+	 */
+	private static final long COMPACTION_LOCK_TIMEOUT = 5000;
+
+	/**
+	 * Numbers of records changed while database file is compacted - <code>null</code> if there is
+	 * no compaction in progress.
+	 */
+	private volatile Set<Integer> changedRecords = null;
+
+	/**
+	 * Current numbers of records moved by compactions since database file was opened (key: number
+	 * the record had before it was moved) - guarded by the write lock.
+	 */
+	private final Map<Integer, Integer> movedRecords = new HashMap<Integer, Integer>();
 
 	/**
 	 * Creates instance of this class with given database file. This is an instance of class that
@@ -63,20 +146,104 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see DBMain
 	 */
 	public Data(final String dbFilename) throws InitializationException {
-		this.dbHelper = new DBHelper(dbFilename);
-		invalidRecordMap = Collections.synchronizedMap(new HashMap<Integer, Contractor>());
-		lockedRecords = Collections.synchronizedSet(new HashSet<Integer>());
+		this(dbFilename, new DBConfiguration());
+	}
 
-		try {
-			recordMap = dbHelper.loadAllRecords();
+	/**
+	 * Creates instance of this class with given database file and database configuration.
+	 * 
+	 * @param dbFilename
+	 *            String - DB file name - see {@link DBHelper}.
+	 * @param configuration
+	 *            DBConfiguration - database configuration.
+	 * @throws InitializationException
+	 *             see {@link DBHelper#DBHelper(String, DBConfiguration)}
+	 * @see DBMain
+	 */
+	public Data(final String dbFilename, final DBConfiguration configuration) throws InitializationException {
+		this.dbFilename = dbFilename;
+		this.configuration = configuration;
+		this.dbHelper = new DBHelper(dbFilename, configuration);
+		this.scanner = new ParallelScanner(configuration.getScanThreads(), configuration.getParallelScanThreshold());
+		this.store = createStore(dbHelper, configuration, scanner);
+		this.indexes = createIndexes(store, configuration);
+
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Creates record store chosen by given configuration and fills it with records of database
+	 * file.
+	 * 
+	 * @param dbHelper
+	 *            DBHelper - database helper.
+	 * @param configuration
+	 *            DBConfiguration - database configuration.
+	 * @param scanner
+	 *            ParallelScanner - scanner searching records in parallel.
+	 * @return IRecordStore - created record store.
+	 * @throws InitializationException
+	 *             If records cannot be read from database file.
+	 */
+	private static IRecordStore createStore(final DBHelper dbHelper, final DBConfiguration configuration,
+			final ParallelScanner scanner) throws InitializationException {
 
-			for (Contractor record : recordMap.values()) {
-				if (record.getFlag() == RecordFlagEnum.INVALID) {
-					invalidRecordMap.put(record.getId(), record);
+		switch (configuration.getRecordStoreMode()) {
+			// records are read on demand
+			case LAZY:
+				try {
+					return new LazyRecordStore(dbHelper, configuration.getCacheSize(), configuration
+							.getAllocationPolicy());
+				} catch (IOException e) {
+					throw new InitializationException("Unable to read records from database file.", e);
 				}
-			}
-		} catch (IOException e) {
-			recordMap = Collections.synchronizedMap(new HashMap<Integer, Contractor>());
+
+			// all records are kept outside of the heap
+			case SLAB:
+				try {
+					return new SlabRecordStore(dbHelper, configuration.getAllocationPolicy(), scanner);
+				} catch (IOException e) {
+					throw new InitializationException("Unable to read records from database file.", e);
+				}
+
+			// all records are kept in memory
+			default:
+				try {
+					Map<Integer, Contractor> invalidRecordMap = new HashMap<Integer, Contractor>();
+					return new HeapRecordStore(dbHelper.loadAllRecords(invalidRecordMap), invalidRecordMap,
+							configuration.getAllocationPolicy(), scanner);
+				} catch (IOException e) {
+					return new HeapRecordStore(configuration.getAllocationPolicy(), scanner);
+				}
+		}
+	}
+
+	/**
+	 * Creates indexes of valid records kept by given record store. Indexes are kept in memory, so
+	 * records that are not kept in memory ({@link RecordStoreModeEnum#LAZY}) are not indexed and
+	 * all criteria are matched by scanning the store.
+	 * 
+	 * @param store
+	 *            IRecordStore - record store.
+	 * @param configuration
+	 *            DBConfiguration - database configuration.
+	 * @return RecordIndexes - created indexes.
+	 * @throws InitializationException
+	 *             If records cannot be read from database file.
+	 */
+	private static RecordIndexes createIndexes(final IRecordStore store, final DBConfiguration configuration)
+			throws InitializationException {
+
+		if (configuration.getRecordStoreMode() == RecordStoreModeEnum.LAZY) {
+			return new RecordIndexes(store);
+		}
+
+		try {
+			return new RecordIndexes(store.iterator());
+		} catch (IllegalStateException e) {
+			throw new InitializationException("Unable to read records from database file.", e.getCause());
 		}
 	}
 
@@ -92,8 +259,10 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	private Contractor readRecord(final int recNo) throws RecordNotFoundException {
 		Contractor record = null;
 
-		synchronized (recordMap) {
-			record = recordMap.get(recNo);
+		try {
+			record = store.get(recNo);
+		} catch (IOException e) {
+			throw new RecordNotFoundException("Record with no >" + recNo + "< cannot be read.", e);
 		}
 
 		if (record == null) {
@@ -111,15 +280,38 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see suncertify.db.DBMain#read(int)
 	 */
 	public String[] read(final int recNo) throws RecordNotFoundException {
-		return readRecord(recNo).toStrings();
+		String[] values = null;
+
+		readLock.lock();
+		try {
+			values = store.read(recNo);
+
+			if (values == null) {
+				findRecordByKey(recNo);
+				throw new RecordNotFoundException("Record with no >" + recNo + "< is not a valid record.");
+			}
+		} catch (IOException e) {
+			throw new RecordNotFoundException("Record with no >" + recNo + "< cannot be read.", e);
+		} finally {
+			readLock.unlock();
+		}
+
+		return values;
 	}
 
 	/**
 	 * @see suncertify.db.DBPersistent#readAll()
 	 */
-	public synchronized List<Contractor> readAll() {
-		List<Contractor> list = new ArrayList<Contractor>(recordMap.values());
-		list.removeAll(invalidRecordMap.values());
+	public List<Contractor> readAll() {
+		List<Contractor> list = new ArrayList<Contractor>();
+		readLock.lock();
+		try {
+			for (Iterator<Contractor> it = store.iterator(); it.hasNext();) {
+				list.add(it.next());
+			}
+		} finally {
+			readLock.unlock();
+		}
 		return list;
 	}
 
@@ -127,13 +319,19 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see suncertify.db.DBMain#update(int, java.lang.String[])
 	 */
 	public void update(final int recNo, final String[] data) throws RecordNotFoundException {
+		// XXX: record lock is acquired without the read lock - compaction may wait for the write lock
+		lock(recNo);
 		try {
-			lock(recNo);
-			Contractor record = readRecord(recNo);
-			record = new Contractor(data);
-			record.setId(recNo);
+			readLock.lock();
+			try {
+				Contractor record = readRecord(recNo);
+				record = toRecord(data);
+				record.setId(recNo);
 
-			execute(DBOperationEnum.UPDATE, record);
+				execute(DBOperationEnum.UPDATE, record);
+			} finally {
+				readLock.unlock();
+			}
 		} catch (DBException e) {
 			throw new RecordNotFoundException(e.getMessage(), e);
 
@@ -146,12 +344,18 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see suncertify.db.DBMain#delete(int)
 	 */
 	public void delete(final int recNo) throws RecordNotFoundException {
+		// XXX: record lock is acquired without the read lock - compaction may wait for the write lock
+		lock(recNo);
 		try {
-			lock(recNo);
-			Contractor record = readRecord(recNo);
-			record.setFlag(RecordFlagEnum.INVALID);
+			readLock.lock();
+			try {
+				Contractor record = readRecord(recNo);
+				record.setFlag(RecordFlagEnum.INVALID);
 
-			execute(DBOperationEnum.DELETE, record);
+				execute(DBOperationEnum.DELETE, record);
+			} finally {
+				readLock.unlock();
+			}
 		} catch (DBException e) {
 			throw new RecordNotFoundException(e.getMessage(), e);
 
@@ -164,33 +368,24 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see suncertify.db.DBMain#find(java.lang.String[])
 	 */
 	public int[] find(final String[] criteria) throws RecordNotFoundException {
-		// check params validity
-		if (criteria.length != DBMetaInfo.FIELDS_COUNT) {
-			throw new IllegalArgumentException("Size of criteria array (" + criteria.length + ") must equal "
-					+ DBMetaInfo.FIELDS_COUNT + ".");
-		}
-
-		List<Contractor> recordList = readAll();
-		List<Integer> list = new ArrayList<Integer>();
-		// search for matching objects
-		for (Contractor record : recordList) {
-			boolean matches = true;
-
-			for (int k = 0; k < record.toStrings().length; ++k) {
-				if (criteria[k] != null) {
-					// one unfullfilled criteria in a single record excludes
-					// this record from the result list
-					String datum = record.toStrings()[k].trim().toUpperCase();
-					if (!datum.startsWith(criteria[k].trim().toUpperCase())) {
-						matches = false;
-						break;
-					}
-				}
-			}
-			// add record to the list if it matches criteria
-			if (matches) {
-				list.add(record.getId());
-			}
+		return find(new FindCriteria(criteria));
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#find(suncertify.db.FindCriteria)
+	 */
+	public int[] find(final FindCriteria criteria) throws RecordNotFoundException {
+		RecordMatcher matcher = new RecordMatcher(criteria.getPrefixes());
+
+		List<Integer> list = null;
+		readLock.lock();
+		try {
+			// search for matching objects
+			list = find(matcher, criteria);
+		} catch (IOException e) {
+			throw new RecordNotFoundException("Unable to search records in database file.", e);
+		} finally {
+			readLock.unlock();
 		}
 
 		// no records found
@@ -207,82 +402,210 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 		return returnArray;
 	}
 
+	/**
+	 * @see suncertify.db.DBPersistent#find(suncertify.db.Query)
+	 */
+	public List<Contractor> find(final Query query) throws RecordNotFoundException {
+		FindCriteria criteria = query.getCriteria();
+		RecordMatcher matcher = new RecordMatcher(criteria.getPrefixes());
+		QueryEvaluator evaluator = new QueryEvaluator(query);
+
+		List<Contractor> list = null;
+		readLock.lock();
+		try {
+			CompiledCriteria compiled = new CompiledCriteria(criteria, indexes);
+			List<Integer> recNos = findCandidates(matcher, criteria);
+			List<Contractor> records = new ArrayList<Contractor>(recNos.size());
+			for (int recNo : recNos) {
+				Contractor record = store.get(recNo);
+				if (record != null && compiled.matches(record) && evaluator.matches(record)) {
+					records.add(record);
+					if (evaluator.isComplete(records.size())) {
+						break;
+					}
+				}
+			}
+			// XXX: copies are created under the lock - stored records are replaced by writers
+			list = evaluator.evaluate(records);
+		} catch (IOException e) {
+			throw new RecordNotFoundException("Unable to search records in database file.", e);
+		} finally {
+			readLock.unlock();
+		}
+
+		if (list.size() <= 0) {
+			throw new RecordNotFoundException("No records matching " + "given criteria found.");
+		}
+		return list;
+	}
+
+	/**
+	 * Returns numbers of valid records matching given criteria. Criteria that are not resolved by
+	 * indexes and record store (see {@link #findCandidates(RecordMatcher, FindCriteria)}) are
+	 * compiled once (see {@link CompiledCriteria}) and checked record by record. Numbers are
+	 * returned in ascending order.
+	 * 
+	 * @param matcher
+	 *            RecordMatcher - starts with criteria.
+	 * @param criteria
+	 *            FindCriteria - contained and range criteria.
+	 * @return List&lt;Integer&gt; - numbers of matching records.
+	 * @throws IOException
+	 *             If records cannot be read from database file.
+	 */
+	private List<Integer> find(final RecordMatcher matcher, final FindCriteria criteria) throws IOException {
+		CompiledCriteria compiled = new CompiledCriteria(criteria, indexes);
+		List<Integer> list = findCandidates(matcher, criteria);
+		if (compiled.isEmpty()) {
+			return list;
+		}
+
+		List<Integer> matching = new ArrayList<Integer>(list.size());
+		for (int recNo : list) {
+			Contractor record = store.get(recNo);
+			if (record != null && compiled.matches(record)) {
+				matching.add(recNo);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * Returns numbers of valid records matching criteria resolved by indexes (see
+	 * {@link RecordIndexes#findCandidates(RecordMatcher, FindCriteria)}) and starts with
+	 * criteria - indexes narrow the search to candidate records and only candidates are matched by
+	 * the record store, otherwise all records of the store are searched. Contained and range
+	 * criteria of fields without index are not checked. Numbers are returned in ascending order.
+	 * 
+	 * @param matcher
+	 *            RecordMatcher - starts with criteria.
+	 * @param criteria
+	 *            FindCriteria - contained and range criteria.
+	 * @return List&lt;Integer&gt; - numbers of candidate records.
+	 * @throws IOException
+	 *             If records cannot be read from database file.
+	 */
+	private List<Integer> findCandidates(final RecordMatcher matcher, final FindCriteria criteria)
+			throws IOException {
+
+		BitSet candidates = indexes.findCandidates(matcher, criteria);
+		if (candidates != null && indexes.isCovered(matcher, criteria)) {
+			List<Integer> list = new ArrayList<Integer>(candidates.cardinality());
+			for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+				list.add(recNo);
+			}
+			return list;
+		}
+		return candidates == null ? store.find(matcher) : store.find(matcher, candidates);
+	}
+
 	/**
 	 * @see suncertify.db.DBMain#create(java.lang.String[])
 	 */
 	public synchronized int create(final String[] data) throws DuplicateKeyException {
-		int recNo = getNextRecordNo();
+		readLock.lock();
+		try {
+			// XXX: slots of deleted records are taken by moved records while database file is compacted
+			int recNo = changedRecords == null ? getNextRecordNo() : store.getEndRecordNo();
 
-		Contractor record = new Contractor(data);
-		record.setId(recNo);
+			Contractor record = toRecord(data);
+			record.setId(recNo);
 
-		try {
 			execute(DBOperationEnum.CREATE, record);
+			return recNo;
 		} catch (DBException e) {
 			throw new DuplicateKeyException(e.getMessage(), e);
+		} finally {
+			readLock.unlock();
 		}
+	}
 
-		return recNo;
+	/**
+	 * Creates record from given values in the form it is written to database file - numeric
+	 * fields are cut to their lengths, so stored records equal records read back from the file.
+	 * 
+	 * @param data
+	 *            String[] - values of the record.
+	 * @return Contractor - created record.
+	 */
+	private static Contractor toRecord(final String[] data) {
+		return new Contractor(new Contractor(data).toStrings());
 	}
 
 	/**
 	 * Checks data integrity i.e. checks if given record does not violate db constraints
-	 * (uniqueness).
+	 * (uniqueness). The unique key of given record is reserved until the record is written.
 	 * 
 	 * @param record
 	 *            Contractor - method checks if this given record violates db constraints.
+	 * @return boolean - <code>true</code> if the key of given record was reserved and
+	 *         <code>false</code> if it already belongs to the record.
 	 * @throws DuplicateKeyException
 	 *             If given record violates uniqueness constraints.
+	 * @see IKeyIndex#reserve(Contractor)
 	 */
-	private synchronized void checkDataIntegrity(final Contractor record) throws DuplicateKeyException {
-		if (recordMap.containsValue(record) && !invalidRecordMap.containsValue(record)) {
-
-			if (!record.equals(recordMap.get(record.getId()))) {
-				throw new DuplicateKeyException("Record: >" + record + "< already exists in database.");
-			}
-		}
+	private boolean checkDataIntegrity(final Contractor record) throws DuplicateKeyException {
+		return indexes.getKeyIndex().reserve(record);
 	}
 
 	/**
 	 * Returns first free to use record no (id) - it can be id of invalid record or completely new
-	 * one (if no invalid record exists in database).
+	 * one, depending on {@link DBConfiguration#getAllocationPolicy()}.
 	 * 
 	 * @return int - free record no that can be used to assign it to a newly created record.
 	 */
 	private int getNextRecordNo() {
-		if (invalidRecordMap.values().size() > 0) {
-			return invalidRecordMap.keySet().iterator().next();
-		}
-
-		int max = DBMetaInfo.FIRST_RECORD_NO;
-		for (int i : recordMap.keySet()) {
-			if (i >= max) {
-				max = i + 1;
-			}
-		}
-
-		return max;
+		return store.getNextRecordNo();
 	}
 
 	/**
-	 * Tries to find given record in given synchronized map. If given record was not found this
+	 * Checks if record with given no exists (valid or not). If given record was not found this
 	 * method throws RecordNotFoundException.
 	 * 
-	 * @param map
-	 *            Map&lt;Integer, Contractor&gt; - synchronized map in which given record will be
-	 *            looked up.
 	 * @param recNo
-	 *            int - no of record to be looked up in given map.
+	 *            int - no of record to be looked up.
 	 * @throws RecordNotFoundException
-	 *             If given record was not found in given map.
+	 *             If given record was not found.
 	 */
-	private void findRecordInMapByKey(final Map<Integer, Contractor> map, final int recNo)
-			throws RecordNotFoundException {
+	private void findRecordByKey(final int recNo) throws RecordNotFoundException {
+		if (!store.contains(recNo)) {
+			throw new RecordNotFoundException("Record with given no >" + recNo + "< does not exist.");
+		}
+	}
 
-		synchronized (map) {
-			if (!map.containsKey(recNo)) {
-				throw new RecordNotFoundException("Record with given no >" + recNo + "< does not exist.");
+	/**
+	 * Checks if records locked by the caller still exist - records can be removed by compaction
+	 * (see {@link #compact()}) while the lock is awaited. If any of given records does not exist
+	 * all of them are unlocked and RecordNotFoundException is thrown.
+	 * 
+	 * @param recNos
+	 *            int[] - numbers of locked records.
+	 * @param cookie
+	 *            long - cookie of the owner of the locks or {@link RecordLockManager#NO_COOKIE}.
+	 * @throws RecordNotFoundException
+	 *             If any of given records was not found.
+	 */
+	private void checkLocked(final int[] recNos, final long cookie) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			for (int recNo : recNos) {
+				findRecordByKey(recNo);
+			}
+		} catch (RecordNotFoundException e) {
+			for (int recNo : recNos) {
+				try {
+					if (cookie == NO_COOKIE) {
+						lockManager.unlock(recNo);
+					} else {
+						lockManager.unlock(recNo, cookie);
+					}
+				} catch (SecurityException se) {
+					// lease has expired or record was given twice
+				}
 			}
+			throw e;
+		} finally {
+			readLock.unlock();
 		}
 	}
 
@@ -290,41 +613,535 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 * @see suncertify.db.DBMain#lock(int)
 	 */
 	public void lock(final int recNo) throws RecordNotFoundException {
-		synchronized (lockedRecords) {
-			while (isLocked(recNo)) {
-				try {
-					lockedRecords.wait();
-				} catch (InterruptedException e) {
-					lockedRecords.notify();
-				}
-			}
-			lockedRecords.add(recNo);
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
 		}
+
+		lockManager.lock(recNo);
+		checkLocked(new int[] { recNo }, NO_COOKIE);
 	}
 
 	/**
 	 * @see suncertify.db.DBMain#unlock(int)
 	 */
 	public void unlock(final int recNo) throws RecordNotFoundException {
-		findRecordInMapByKey(recordMap, recNo);
-
-		synchronized (lockedRecords) {
-			lockedRecords.remove(recNo);
-			lockedRecords.notify();
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
 		}
+
+		lockManager.unlock(recNo);
 	}
 
 	/**
 	 * @see suncertify.db.DBMain#isLocked(int)
 	 */
 	public boolean isLocked(final int recNo) throws RecordNotFoundException {
-		findRecordInMapByKey(recordMap, recNo);
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		return lockManager.isLocked(recNo);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lockShared(int)
+	 */
+	public void lockShared(final int recNo) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		lockManager.lockShared(recNo);
+
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} catch (RecordNotFoundException e) {
+			// XXX: record was removed by compaction while the lock was awaited
+			lockManager.unlockShared(recNo);
+			throw e;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#unlockShared(int)
+	 */
+	public void unlockShared(final int recNo) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		lockManager.unlockShared(recNo);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#upgrade(int)
+	 */
+	public boolean upgrade(final int recNo) throws RecordNotFoundException, IllegalStateException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		return lockManager.upgrade(recNo);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lockAll(int[])
+	 */
+	public void lockAll(final int[] recNos) throws RecordNotFoundException, DeadlockException {
+		readLock.lock();
+		try {
+			for (int recNo : recNos) {
+				findRecordByKey(recNo);
+			}
+		} finally {
+			readLock.unlock();
+		}
+
+		lockManager.lockAll(recNos);
+		checkLocked(recNos, NO_COOKIE);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lockAll(int[], long)
+	 */
+	public long lockAll(final int[] recNos, final long leaseTime) throws RecordNotFoundException, DeadlockException {
+		readLock.lock();
+		try {
+			for (int recNo : recNos) {
+				findRecordByKey(recNo);
+			}
+		} finally {
+			readLock.unlock();
+		}
+
+		long cookie = lockManager.lockAll(recNos, leaseTime);
+		checkLocked(recNos, cookie);
+		return cookie;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lock(int, long)
+	 */
+	public long lock(final int recNo, final long leaseTime) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		long cookie = lockManager.lock(recNo, leaseTime);
+		checkLocked(new int[] { recNo }, cookie);
+		return cookie;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#tryLock(int)
+	 */
+	public boolean tryLock(final int recNo) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		if (!lockManager.tryLock(recNo)) {
+			return false;
+		}
+		checkLocked(new int[] { recNo }, NO_COOKIE);
+		return true;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lock(int, long, TimeUnit)
+	 */
+	public boolean lock(final int recNo, final long timeout, final TimeUnit unit) throws RecordNotFoundException,
+			InterruptedException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		if (!lockManager.lock(recNo, timeout, unit)) {
+			return false;
+		}
+		checkLocked(new int[] { recNo }, NO_COOKIE);
+		return true;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#tryLock(int, long)
+	 */
+	public long tryLock(final int recNo, final long leaseTime) throws RecordNotFoundException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		long cookie = lockManager.tryLock(recNo, leaseTime);
+		if (cookie != NO_COOKIE) {
+			checkLocked(new int[] { recNo }, cookie);
+		}
+		return cookie;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#lock(int, long, long, TimeUnit)
+	 */
+	public long lock(final int recNo, final long leaseTime, final long timeout, final TimeUnit unit)
+			throws RecordNotFoundException, InterruptedException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		long cookie = lockManager.lock(recNo, leaseTime, timeout, unit);
+		if (cookie != NO_COOKIE) {
+			checkLocked(new int[] { recNo }, cookie);
+		}
+		return cookie;
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#renew(int, long, long)
+	 */
+	public void renew(final int recNo, final long cookie, final long leaseTime) throws RecordNotFoundException,
+			SecurityException {
+
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		lockManager.renew(recNo, cookie, leaseTime);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#unlock(int, long)
+	 */
+	public void unlock(final int recNo, final long cookie) throws RecordNotFoundException, SecurityException {
+		readLock.lock();
+		try {
+			findRecordByKey(recNo);
+		} finally {
+			readLock.unlock();
+		}
+
+		lockManager.unlock(recNo, cookie);
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#update(int, String[], long)
+	 */
+	public void update(final int recNo, final String[] data, final long cookie) throws RecordNotFoundException,
+			SecurityException {
+
+		readLock.lock();
+		try {
+			lockManager.checkOwner(recNo, cookie);
+			readRecord(recNo);
+			Contractor record = toRecord(data);
+			record.setId(recNo);
 
-		synchronized (lockedRecords) {
-			return lockedRecords.contains(recNo);
+			execute(DBOperationEnum.UPDATE, record);
+		} catch (DBException e) {
+			throw new RecordNotFoundException(e.getMessage(), e);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @see suncertify.db.DBPersistent#delete(int, long)
+	 */
+	public void delete(final int recNo, final long cookie) throws RecordNotFoundException, SecurityException {
+		readLock.lock();
+		try {
+			lockManager.checkOwner(recNo, cookie);
+			Contractor record = readRecord(recNo);
+			record.setFlag(RecordFlagEnum.INVALID);
+
+			execute(DBOperationEnum.DELETE, record);
+			try {
+				lockManager.unlock(recNo, cookie);
+			} catch (SecurityException e) {
+				// XXX: the lease has expired in the meantime - the lock is already released
+			}
+		} catch (DBException e) {
+			throw new RecordNotFoundException(e.getMessage(), e);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Database file is compacted in four steps:
+	 * <ol>
+	 * <li>numbers of valid records are collected and valid records from the end of the file are
+	 * assigned to slots of deleted ones</li>
+	 * <li>valid records are written to the compacted copy of database file - database remains
+	 * available and numbers of changed records are collected, new records are appended to
+	 * database file instead of taking slots of deleted ones</li>
+	 * <li>records whose numbers change are locked - compaction fails if any of them remains locked
+	 * by somebody else</li>
+	 * <li>with all operations blocked changed records are written to the copy (records created in
+	 * the meantime are appended), the copy replaces database file, record store is rebuilt and
+	 * locked records are unlocked</li>
+	 * </ol>
+	 * Database file is reopened whether or not it was replaced.
+	 * 
+	 * @see suncertify.db.DBPersistent#compact()
+	 */
+	public Map<Integer, Integer> compact() throws DBException {
+		synchronized (compactionMonitor) {
+			Set<Integer> changes = Collections.synchronizedSet(new HashSet<Integer>());
+			writeLock.lock();
+			try {
+				// XXX: set under the write lock - no operation misses it
+				changedRecords = changes;
+			} finally {
+				writeLock.unlock();
+			}
+
+			CompactedFile compactedFile = null;
+			try {
+				BitSet validSlots = new BitSet();
+				readLock.lock();
+				try {
+					for (Iterator<Contractor> it = store.iterator(); it.hasNext();) {
+						validSlots.set(it.next().getId() - FIRST_RECORD_NO);
+					}
+				} finally {
+					readLock.unlock();
+				}
+
+				// valid records from the end of the file go to the slots of deleted ones
+				int validCount = validSlots.cardinality();
+				Map<Integer, Integer> mapping = new HashMap<Integer, Integer>();
+				int hole = validSlots.nextClearBit(0);
+				for (int i = validSlots.nextSetBit(validCount); i >= 0; i = validSlots.nextSetBit(i + 1)) {
+					mapping.put(i + FIRST_RECORD_NO, hole + FIRST_RECORD_NO);
+					hole = validSlots.nextClearBit(hole + 1);
+				}
+
+				readLock.lock();
+				try {
+					compactedFile = dbHelper.createCompactedFile();
+					for (Iterator<Contractor> it = store.iterator(); it.hasNext();) {
+						Contractor record = it.next();
+						if (validSlots.get(record.getId() - FIRST_RECORD_NO)) {
+							compactedFile.write(newRecordNo(record.getId(), mapping), record);
+						}
+					}
+				} finally {
+					readLock.unlock();
+				}
+
+				// XXX: records whose numbers change are locked until the store is rebuilt - no lock
+				// (or lease) of a client outlives the number of its record
+				Map<Integer, Long> fences = new HashMap<Integer, Long>();
+				try {
+					// operations in progress release their locks before all operations are blocked
+					fence(getRenumbered(mapping, validCount + FIRST_RECORD_NO, store.getEndRecordNo()), fences,
+							COMPACTION_LOCK_TIMEOUT);
+
+					writeLock.lock();
+					try {
+						int endRecordNo = store.getEndRecordNo();
+						int nextRecordNo = validCount + FIRST_RECORD_NO;
+						for (int recNo : new TreeSet<Integer>(changes)) {
+							Contractor record = store.get(recNo);
+							if (validSlots.get(recNo - FIRST_RECORD_NO)) {
+								compactedFile.write(newRecordNo(recNo, mapping), record);
+							} else if (record.getFlag() != RecordFlagEnum.INVALID) {
+								// created during compaction - appended after valid records
+								if (recNo != nextRecordNo) {
+									mapping.put(recNo, nextRecordNo);
+								}
+								compactedFile.write(nextRecordNo++, record);
+							}
+						}
+						fence(getRenumbered(mapping, nextRecordNo, endRecordNo), fences, 0);
+
+						compactedFile.close();
+						try {
+							dbHelper.replace(compactedFile);
+						} finally {
+							// XXX: the copy is either renamed or deleted by the helper
+							compactedFile = null;
+							dbHelper = new DBHelper(dbFilename, configuration);
+							store = createStore(dbHelper, configuration, scanner);
+							indexes = createIndexes(store, configuration);
+						}
+
+						// XXX: records moved before keep following their records
+						for (Map.Entry<Integer, Integer> moved : movedRecords.entrySet()) {
+							moved.setValue(newRecordNo(moved.getValue(), mapping));
+						}
+						movedRecords.putAll(mapping);
+					} finally {
+						writeLock.unlock();
+					}
+				} finally {
+					for (Map.Entry<Integer, Long> fence : fences.entrySet()) {
+						try {
+							lockManager.unlock(fence.getKey(), fence.getValue());
+						} catch (SecurityException e) {
+							// lease has expired
+						}
+					}
+				}
+
+				return mapping;
+
+			} catch (IOException e) {
+				throw new DBException("Unable to compact database file.", e);
+			} catch (InitializationException e) {
+				throw new DBException("Unable to reopen database file after compaction.", e);
+			} finally {
+				changedRecords = null;
+				if (compactedFile != null) {
+					compactedFile.delete();
+				}
+			}
 		}
 	}
 
+	/**
+	 * @see suncertify.db.DBPersistent#getCurrentRecordNo(int)
+	 */
+	public int getCurrentRecordNo(final int recNo) {
+		readLock.lock();
+		try {
+			return newRecordNo(recNo, movedRecords);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of record in the compacted database file.
+	 * 
+	 * @param recNo
+	 *            int - number of the record in database file.
+	 * @param mapping
+	 *            Map&lt;Integer, Integer&gt; - new numbers of moved records.
+	 * @return int - the number of the record in the compacted database file.
+	 */
+	private static int newRecordNo(final int recNo, final Map<Integer, Integer> mapping) {
+		Integer newRecNo = mapping.get(recNo);
+		return newRecNo == null ? recNo : newRecNo;
+	}
+
+	/**
+	 * Returns numbers of records that change with compaction - moved records, slots they are moved
+	 * to and slots removed from the end of database file.
+	 * 
+	 * @param mapping
+	 *            Map&lt;Integer, Integer&gt; - new numbers of moved records.
+	 * @param firstRemovedNo
+	 *            int - number of the first slot removed from the end of database file.
+	 * @param endRecordNo
+	 *            int - number following the last record of database file.
+	 * @return Set&lt;Integer&gt; - numbers of records in ascending order.
+	 */
+	private static Set<Integer> getRenumbered(final Map<Integer, Integer> mapping, final int firstRemovedNo,
+			final int endRecordNo) {
+
+		Set<Integer> renumbered = new TreeSet<Integer>(mapping.keySet());
+		renumbered.addAll(mapping.values());
+		for (int recNo = firstRemovedNo; recNo < endRecordNo; ++recNo) {
+			renumbered.add(recNo);
+		}
+		return renumbered;
+	}
+
+	/**
+	 * Locks given records for compaction - records already locked by compaction are skipped.
+	 * 
+	 * @param recNos
+	 *            Set&lt;Integer&gt; - numbers of records to lock.
+	 * @param fences
+	 *            Map&lt;Integer, Long&gt; - cookies of locks taken by compaction (key: number of
+	 *            record) - new locks are added to it.
+	 * @param timeout
+	 *            long - maximum time (in milliseconds) to wait for a single lock.
+	 * @throws DBException
+	 *             If any of given records is locked by somebody else for longer than given time.
+	 */
+	private void fence(final Set<Integer> recNos, final Map<Integer, Long> fences, final long timeout)
+			throws DBException {
+
+		for (int recNo : recNos) {
+			if (fences.containsKey(recNo)) {
+				continue;
+			}
+
+			long cookie;
+			try {
+				cookie = lockManager.lock(recNo, COMPACTION_LEASE_TIME, timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				throw new DBException("Compaction of database file was interrupted.", e);
+			}
+			if (cookie == NO_COOKIE) {
+				throw new DBException("Record with no >" + recNo
+						+ "< is locked - database file cannot be compacted now.");
+			}
+			fences.put(recNo, cookie);
+		}
+	}
+
+	/**
+	 * Returns the policy of forcing written records to the storage device.
+	 * 
+	 * @return SyncPolicyEnum - the policy of forcing written records to the storage device.
+	 * @see DBHelper#getSyncPolicy()
+	 */
+	public SyncPolicyEnum getSyncPolicy() {
+		return dbHelper.getSyncPolicy();
+	}
+
+	/**
+	 * Returns the snapshot of observed latencies of forcing written records to the storage device.
+	 * 
+	 * @return SyncStatistics - the snapshot of observed latencies of forcing written records to the
+	 *         storage device.
+	 * @see DBHelper#getSyncStatistics()
+	 */
+	public SyncStatistics getSyncStatistics() {
+		return dbHelper.getSyncStatistics();
+	}
+
 	/**
 	 * Executes chosen operation on given record and stores the result (if needed) into database.
 	 * 
@@ -334,24 +1151,32 @@ public class Data implements DBMain, DBPersistent<Contractor> {
 	 *             If system was unable to perform IO operation on database file.
 	 */
 	private void execute(DBOperationEnum operation, Contractor record) throws DuplicateKeyException, DBException {
+		boolean reserved = false;
+		boolean written = false;
 		try {
 			if (operation != DBOperationEnum.DELETE) {
-				checkDataIntegrity(record);
+				reserved = checkDataIntegrity(record);
 			}
 
-			// update recordMap
-			recordMap.put(record.getId(), record);
+			dbHelper.storeRecord(record);
+			dbHelper.force();
 
-			if (operation == DBOperationEnum.DELETE) {
-				invalidRecordMap.put(record.getId(), record);
-			} else {
-				invalidRecordMap.remove(record.getId());
-			}
+			// XXX: record is put into the store after it is written - lazy store may read it back
+			store.put(record);
+			indexes.put(record);
+			written = true;
 
-			dbHelper.storeRecord(record);
+			Set<Integer> changes = changedRecords;
+			if (changes != null) {
+				changes.add(record.getId());
+			}
 
 		} catch (IOException e) {
 			throw new DBException("Unable to commit IO operation on database file.", e);
+		} finally {
+			if (reserved && !written) {
+				indexes.getKeyIndex().release(record);
+			}
 		}
 	}
 }
\ No newline at end of file
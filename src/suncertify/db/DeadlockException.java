@@ -0,0 +1,27 @@
+package suncertify.db;
+
+/**
+ * <code>DeadlockException</code> is thrown when waiting for a lock of record would close a cycle
+ * of clients waiting for each other's records - the caller is chosen as a victim and its request
+ * is aborted.
+ * 
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class DeadlockException extends DBException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @see DBException#DBException(String, Throwable)
+	 */
+	public DeadlockException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * @see DBException#DBException(String)
+	 */
+	public DeadlockException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,160 @@
+package suncertify.db;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.getFieldType;
+
+import suncertify.db.domain.DBType;
+
+/**
+ * <code>FindCriteria</code> describes records searched by
+ * {@link DBPersistent#find(FindCriteria)} method. Record matches if it meets all criteria:
+ * <ul>
+ * <li>starts with criterion - the field (trimmed and upper-cased) starts with given prefix
+ * (trimmed and upper-cased) - see {@link DBMain#find(String[])}</li>
+ * <li>contained criterion - the field contains all given comma separated values, i.e. each value
+ * (trimmed and upper-cased) is one of the comma separated values of the field (trimmed and
+ * upper-cased)</li>
+ * <li>range criterion - value of numeric field compared with given value meets given operator
+ * (see {@link RangeOperatorEnum})</li>
+ * </ul>
+ * Field without criteria matches any value.<br>
+ * <br>
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.DBPersistent
+ */
+public class FindCriteria {
+	/**
+	 * Starts with criteria - <code>null</code> criterion matches any value.
+	 */
+	private final String[] prefixes = new String[FIELDS_COUNT];
+
+	/**
+	 * Contained criteria - <code>null</code> criterion matches any value.
+	 */
+	private final String[] containedValues = new String[FIELDS_COUNT];
+
+	/**
+	 * Operators of range criteria - <code>null</code> operator matches any value.
+	 */
+	private final RangeOperatorEnum[] rangeOperators = new RangeOperatorEnum[FIELDS_COUNT];
+
+	/**
+	 * Values of range criteria.
+	 */
+	private final String[] rangeValues = new String[FIELDS_COUNT];
+
+	/**
+	 * Constructs <code>FindCriteria</code> matching any record.
+	 */
+	public FindCriteria() {
+	}
+
+	/**
+	 * Constructs <code>FindCriteria</code> with given starts with criteria.
+	 *
+	 * @param prefixes
+	 *            String[] - starts with criteria (one for each field) - see
+	 *            {@link DBMain#find(String[])}.
+	 * @throws IllegalArgumentException
+	 *             If the number of criteria does not equal the number of fields.
+	 */
+	public FindCriteria(final String[] prefixes) throws IllegalArgumentException {
+		if (prefixes.length != FIELDS_COUNT) {
+			throw new IllegalArgumentException("Size of criteria array (" + prefixes.length + ") must equal "
+					+ FIELDS_COUNT + ".");
+		}
+		System.arraycopy(prefixes, 0, this.prefixes, 0, FIELDS_COUNT);
+	}
+
+	/**
+	 * Sets starts with criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @param prefix
+	 *            String - prefix of the field or <code>null</code> if any value matches.
+	 */
+	public void setStartsWith(final int field, final String prefix) {
+		prefixes[field] = prefix;
+	}
+
+	/**
+	 * Sets contained criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @param values
+	 *            String - comma separated values or <code>null</code> if any value matches.
+	 */
+	public void setContains(final int field, final String values) {
+		containedValues[field] = values;
+	}
+
+	/**
+	 * Sets range criterion of given numeric field. Values are parsed the same way as values of
+	 * the field - empty integer equals zero and integer that cannot be parsed equals any value.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator or <code>null</code> if any value
+	 *            matches.
+	 * @param value
+	 *            String - right side of the comparison.
+	 * @throws IllegalArgumentException
+	 *             If the field is not numeric.
+	 */
+	public void setRange(final int field, final RangeOperatorEnum operator, final String value)
+			throws IllegalArgumentException {
+
+		if (getFieldType(field) == DBType.TEXT) {
+			throw new IllegalArgumentException("Range criteria are not supported by text field (" + field + ").");
+		}
+		rangeOperators[field] = operator;
+		rangeValues[field] = value;
+	}
+
+	/**
+	 * Returns starts with criteria.
+	 *
+	 * @return String[] - starts with criteria (one for each field).
+	 */
+	public String[] getPrefixes() {
+		return prefixes.clone();
+	}
+
+	/**
+	 * Returns contained criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return String - comma separated values or <code>null</code> if any value matches.
+	 */
+	public String getContainedValues(final int field) {
+		return containedValues[field];
+	}
+
+	/**
+	 * Returns operator of range criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return RangeOperatorEnum - comparison operator or <code>null</code> if any value matches.
+	 */
+	public RangeOperatorEnum getRangeOperator(final int field) {
+		return rangeOperators[field];
+	}
+
+	/**
+	 * Returns value of range criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return String - right side of the comparison.
+	 */
+	public String getRangeValue(final int field) {
+		return rangeValues[field];
+	}
+}
@@ -0,0 +1,246 @@
+package suncertify.db;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.getFieldType;
+
+import java.util.Arrays;
+
+import suncertify.db.domain.DBType;
+
+/**
+ * <code>Query</code> describes records searched and returned by {@link DBPersistent#find(Query)}
+ * method:
+ * <ul>
+ * <li>criteria - starts with, contained and range criteria of {@link FindCriteria} plus
+ * comparisons of text fields; operands are compared according to the type of the field - text
+ * fields ignoring case (see {@link String#compareToIgnoreCase(String)}), numeric fields as numbers</li>
+ * <li>order - field the records are sorted by (ties keep ascending order of record numbers) or
+ * ascending order of record numbers if no field is set</li>
+ * <li>offset and limit - number of skipped records and maximum number of returned records, so
+ * records can be returned page by page</li>
+ * <li>projection - fields copied into returned records, remaining fields have default values</li>
+ * </ul>
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.DBPersistent
+ */
+public class Query {
+	/**
+	 * Value of order field meaning that records are sorted by their numbers.
+	 */
+	public static final int NO_ORDER = -1;
+
+	/**
+	 * Value of limit meaning that all matching records are returned.
+	 */
+	public static final int NO_LIMIT = 0;
+
+	/**
+	 * Criteria resolved by database.
+	 */
+	private final FindCriteria criteria;
+
+	/**
+	 * Comparison operators of text fields - <code>null</code> operator matches any value.
+	 */
+	private final RangeOperatorEnum[] textOperators = new RangeOperatorEnum[FIELDS_COUNT];
+
+	/**
+	 * Right sides of comparisons of text fields.
+	 */
+	private final String[] textValues = new String[FIELDS_COUNT];
+
+	/**
+	 * Fields copied into returned records.
+	 */
+	private final boolean[] projection = new boolean[FIELDS_COUNT];
+
+	/**
+	 * Index of the field records are sorted by.
+	 */
+	private int orderField = NO_ORDER;
+
+	/**
+	 * <code>true</code> if records are sorted in ascending order.
+	 */
+	private boolean ascending = true;
+
+	/**
+	 * Number of skipped matching records.
+	 */
+	private int offset = 0;
+
+	/**
+	 * Maximum number of returned records.
+	 */
+	private int limit = NO_LIMIT;
+
+	/**
+	 * Constructs <code>Query</code> that matches all valid records and returns all their fields.
+	 */
+	public Query() {
+		this(new FindCriteria());
+	}
+
+	/**
+	 * Constructs <code>Query</code> with given criteria that returns all fields of matching
+	 * records.
+	 *
+	 * @param criteria
+	 *            FindCriteria - search criteria.
+	 */
+	public Query(final FindCriteria criteria) {
+		this.criteria = criteria;
+		Arrays.fill(projection, true);
+	}
+
+	/**
+	 * Returns criteria resolved by database.
+	 *
+	 * @return FindCriteria - search criteria.
+	 */
+	public FindCriteria getCriteria() {
+		return criteria;
+	}
+
+	/**
+	 * Sets comparison of given field with given value - comparisons of numeric fields are range
+	 * criteria (see {@link FindCriteria#setRange(int, RangeOperatorEnum, String)}).
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator or <code>null</code> if any value
+	 *            matches.
+	 * @param value
+	 *            String - right side of the comparison.
+	 */
+	public void setComparison(final int field, final RangeOperatorEnum operator, final String value) {
+		if (getFieldType(field) == DBType.TEXT) {
+			textOperators[field] = operator;
+			textValues[field] = value;
+		} else {
+			criteria.setRange(field, operator, value);
+		}
+	}
+
+	/**
+	 * Returns operator of comparison of given text field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return RangeOperatorEnum - comparison operator or <code>null</code> if any value matches
+	 *         (always <code>null</code> for numeric fields).
+	 */
+	public RangeOperatorEnum getTextOperator(final int field) {
+		return textOperators[field];
+	}
+
+	/**
+	 * Returns value of comparison of given text field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return String - right side of the comparison.
+	 */
+	public String getTextValue(final int field) {
+		return textValues[field];
+	}
+
+	/**
+	 * Sets order of returned records.
+	 *
+	 * @param field
+	 *            int - index of the field records are sorted by or {@link #NO_ORDER}.
+	 * @param ascending
+	 *            boolean - <code>true</code> if records are sorted in ascending order and
+	 *            <code>false</code> otherwise.
+	 */
+	public void setOrder(final int field, final boolean ascending) {
+		this.orderField = field;
+		this.ascending = ascending;
+	}
+
+	/**
+	 * Returns index of the field records are sorted by.
+	 *
+	 * @return int - index of the field or {@link #NO_ORDER}.
+	 */
+	public int getOrderField() {
+		return orderField;
+	}
+
+	/**
+	 * Checks if records are sorted in ascending order.
+	 *
+	 * @return boolean - <code>true</code> if records are sorted in ascending order and
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isAscending() {
+		return ascending;
+	}
+
+	/**
+	 * Sets number of skipped matching records (in the order of the query).
+	 *
+	 * @param offset
+	 *            int - number of skipped records.
+	 */
+	public void setOffset(final int offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns number of skipped matching records.
+	 *
+	 * @return int - number of skipped records.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Sets maximum number of returned records.
+	 *
+	 * @param limit
+	 *            int - maximum number of returned records or {@link #NO_LIMIT}.
+	 */
+	public void setLimit(final int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns maximum number of returned records.
+	 *
+	 * @return int - maximum number of returned records or {@link #NO_LIMIT}.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets fields copied into returned records.
+	 *
+	 * @param fields
+	 *            int[] - indexes of the fields.
+	 */
+	public void setProjection(final int... fields) {
+		Arrays.fill(projection, false);
+		for (int field : fields) {
+			projection[field] = true;
+		}
+	}
+
+	/**
+	 * Checks if given field is copied into returned records.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return boolean - <code>true</code> if the field is copied and <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean isProjected(final int field) {
+		return projection[field];
+	}
+}
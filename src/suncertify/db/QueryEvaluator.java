@@ -0,0 +1,428 @@
+package suncertify.db;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LOCATION;
+import static suncertify.db.domain.DBMetaInfo.FIELD_NAME;
+import static suncertify.db.domain.DBMetaInfo.FIELD_OWNER;
+import static suncertify.db.domain.DBMetaInfo.FIELD_RATE;
+import static suncertify.db.domain.DBMetaInfo.FIELD_SIZE;
+import static suncertify.db.domain.DBMetaInfo.FIELD_SPECIALTIES;
+import static suncertify.db.domain.DBMetaInfo.getFieldNo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import suncertify.db.domain.Contractor;
+
+/**
+ * <code>QueryEvaluator</code> evaluates parts of {@link Query} that are not resolved by indexes
+ * and record stores directly on stored records - comparisons of text fields, order, limit and
+ * projection. Fields are taken from records with their getters, so no string arrays are created
+ * and numeric fields are not parsed. Values of text comparisons are case folded once, when the
+ * query is compiled, so only fields of records are folded while records are checked. Sorted
+ * queries with limit keep only the first <code>offset + limit</code> records in a bounded heap
+ * (top-K), so the whole result is never sorted.<br>
+ * <br>
+ * Instances of this class are immutable.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.Data#find(Query)
+ */
+final class QueryEvaluator {
+	/**
+	 * Index of the name field.
+	 */
+	private static final int NAME = getFieldNo(FIELD_NAME);
+
+	/**
+	 * Index of the location field.
+	 */
+	private static final int LOCATION = getFieldNo(FIELD_LOCATION);
+
+	/**
+	 * Index of the specialties field.
+	 */
+	private static final int SPECIALTIES = getFieldNo(FIELD_SPECIALTIES);
+
+	/**
+	 * Index of the size field.
+	 */
+	private static final int SIZE = getFieldNo(FIELD_SIZE);
+
+	/**
+	 * Index of the rate field.
+	 */
+	private static final int RATE = getFieldNo(FIELD_RATE);
+
+	/**
+	 * Index of the owner field.
+	 */
+	private static final int OWNER = getFieldNo(FIELD_OWNER);
+
+	/**
+	 * Comparisons of text fields.
+	 */
+	private final TextComparison[] comparisons;
+
+	/**
+	 * Order of records (ties are ordered by record numbers) or <code>null</code> if records keep
+	 * order of their numbers.
+	 */
+	private final Comparator<Contractor> order;
+
+	/**
+	 * Number of skipped records.
+	 */
+	private final int offset;
+
+	/**
+	 * Position (in the order of the query) following the last returned record.
+	 */
+	private final int end;
+
+	/**
+	 * Fields copied into returned records.
+	 */
+	private final boolean[] projection = new boolean[FIELDS_COUNT];
+
+	/**
+	 * Constructs <code>QueryEvaluator</code> of given query.
+	 *
+	 * @param query
+	 *            Query - evaluated query.
+	 */
+	QueryEvaluator(final Query query) {
+		List<TextComparison> list = new ArrayList<TextComparison>();
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			RangeOperatorEnum operator = query.getTextOperator(i);
+			if (operator != null && query.getTextValue(i) != null) {
+				list.add(new TextComparison(i, operator, query.getTextValue(i)));
+			}
+			projection[i] = query.isProjected(i);
+		}
+		comparisons = list.toArray(new TextComparison[list.size()]);
+
+		if (query.getOrderField() == Query.NO_ORDER) {
+			order = null;
+		} else {
+			order = new FieldComparator(query.getOrderField(), query.isAscending());
+		}
+		offset = Math.max(0, query.getOffset());
+		int limit = query.getLimit();
+		end = limit <= Query.NO_LIMIT ? Integer.MAX_VALUE : (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Checks if given number of matching records is enough to answer the query, i.e. records are
+	 * not sorted and the limit has been reached.
+	 *
+	 * @param count
+	 *            int - number of matching records (in order of record numbers).
+	 * @return boolean - <code>true</code> if remaining records do not need to be searched and
+	 *         <code>false</code> otherwise.
+	 */
+	boolean isComplete(final int count) {
+		return order == null && count >= end;
+	}
+
+	/**
+	 * Checks if given record meets comparisons of text fields.
+	 *
+	 * @param record
+	 *            Contractor - stored record.
+	 * @return boolean - <code>true</code> if given record meets all comparisons and
+	 *         <code>false</code> otherwise.
+	 */
+	boolean matches(final Contractor record) {
+		for (TextComparison comparison : comparisons) {
+			if (!comparison.matches(record)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts given matching records, cuts them to the page given by offset and limit and copies
+	 * projected fields.
+	 *
+	 * @param records
+	 *            List&lt;Contractor&gt; - stored records matching the query in ascending order of
+	 *            their numbers.
+	 * @return List&lt;Contractor&gt; - copies of records to be returned.
+	 */
+	List<Contractor> evaluate(final List<Contractor> records) {
+		List<Contractor> sorted = records;
+		if (order != null) {
+			if (end >= records.size()) {
+				sorted = new ArrayList<Contractor>(records);
+				Collections.sort(sorted, order);
+			} else {
+				sorted = selectFirst(records, end);
+			}
+		}
+
+		int last = Math.min(end, sorted.size());
+		List<Contractor> list = new ArrayList<Contractor>(Math.max(0, last - offset));
+		for (int i = offset; i < last; ++i) {
+			list.add(project(sorted.get(i)));
+		}
+		return list;
+	}
+
+	/**
+	 * Returns given number of first records in the order of the query - the records are selected
+	 * with a heap holding the greatest of selected records on top, so each record is compared
+	 * with the heap top and only records that replace it cost <code>log(count)</code>.
+	 *
+	 * @param records
+	 *            List&lt;Contractor&gt; - records to select from.
+	 * @param count
+	 *            int - number of selected records (less than number of given records).
+	 * @return List&lt;Contractor&gt; - sorted first records.
+	 */
+	private List<Contractor> selectFirst(final List<Contractor> records, final int count) {
+		PriorityQueue<Contractor> heap = new PriorityQueue<Contractor>(count + 1, Collections.reverseOrder(order));
+		for (Contractor record : records) {
+			if (heap.size() < count) {
+				heap.add(record);
+			} else if (order.compare(record, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(record);
+			}
+		}
+
+		Contractor[] selected = new Contractor[heap.size()];
+		for (int i = selected.length - 1; i >= 0; --i) {
+			selected[i] = heap.poll();
+		}
+		return Arrays.asList(selected);
+	}
+
+	/**
+	 * Creates a copy of given stored record with projected fields - stored records are shared
+	 * and must not be returned to callers. Copy has the number of the record but no flag (as
+	 * records created from {@link DBMain#read(int)} values).
+	 *
+	 * @param record
+	 *            Contractor - stored record.
+	 * @return Contractor - copy of the record.
+	 */
+	private Contractor project(final Contractor record) {
+		Contractor copy = new Contractor(projection[NAME] ? record.getName() : "", projection[LOCATION] ? record
+				.getLocation() : "");
+		if (projection[SPECIALTIES]) {
+			copy.setSpecialties(record.getSpecialties());
+		}
+		if (projection[SIZE]) {
+			copy.setSize(record.getSize());
+		}
+		if (projection[RATE]) {
+			copy.setRate(record.getRate());
+		}
+		if (projection[OWNER]) {
+			copy.setOwner(record.getOwner());
+		}
+		copy.setId(record.getId());
+		return copy;
+	}
+
+	/**
+	 * Returns value of given text field of given record.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @param field
+	 *            int - index of text field (name, location or specialties).
+	 * @return String - value of the field.
+	 */
+	private static String getText(final Contractor record, final int field) {
+		if (field == NAME) {
+			return record.getName();
+		} else if (field == LOCATION) {
+			return record.getLocation();
+		}
+		return record.getSpecialties();
+	}
+
+	/**
+	 * <code>TextComparison</code> is a comparison of text field with given value ignoring case
+	 * (see {@link suncertify.db.dao.comparator.TextComparator}) - result equals the result of
+	 * {@link String#compareToIgnoreCase(String)}, but the value is folded only once.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class TextComparison {
+		/**
+		 * Index of the field.
+		 */
+		private final int field;
+
+		/**
+		 * Case folded right side of the comparison (see {@link #fold(char)}).
+		 */
+		private final char[] value;
+
+		/**
+		 * <code>true</code> if field lower than the value matches.
+		 */
+		private final boolean acceptsLess;
+
+		/**
+		 * <code>true</code> if field equal to the value matches.
+		 */
+		private final boolean acceptsEqual;
+
+		/**
+		 * <code>true</code> if field greater than the value matches.
+		 */
+		private final boolean acceptsGreater;
+
+		/**
+		 * Constructs <code>TextComparison</code>.
+		 *
+		 * @param field
+		 *            int - index of text field (name, location or specialties).
+		 * @param operator
+		 *            RangeOperatorEnum - comparison operator.
+		 * @param value
+		 *            String - right side of the comparison.
+		 */
+		TextComparison(final int field, final RangeOperatorEnum operator, final String value) {
+			this.field = field;
+			this.value = new char[value.length()];
+			for (int i = 0; i < this.value.length; ++i) {
+				this.value[i] = fold(value.charAt(i));
+			}
+
+			acceptsLess = operator == RangeOperatorEnum.LESS || operator == RangeOperatorEnum.LESS_OR_EQUAL
+					|| operator == RangeOperatorEnum.NOT_EQUAL;
+			acceptsEqual = operator == RangeOperatorEnum.LESS_OR_EQUAL || operator == RangeOperatorEnum.EQUAL
+					|| operator == RangeOperatorEnum.GREATER_OR_EQUAL;
+			acceptsGreater = operator == RangeOperatorEnum.GREATER || operator == RangeOperatorEnum.GREATER_OR_EQUAL
+					|| operator == RangeOperatorEnum.NOT_EQUAL;
+		}
+
+		/**
+		 * Checks if field of given record meets the comparison.
+		 *
+		 * @param record
+		 *            Contractor - record to be checked.
+		 * @return boolean - <code>true</code> if the field meets the comparison and
+		 *         <code>false</code> otherwise.
+		 */
+		boolean matches(final Contractor record) {
+			int result = compare(getText(record, field));
+			return result < 0 ? acceptsLess : (result == 0 ? acceptsEqual : acceptsGreater);
+		}
+
+		/**
+		 * Compares given text with the value ignoring case - characters are compared after
+		 * folding, as in {@link String#compareToIgnoreCase(String)}.
+		 *
+		 * @param text
+		 *            String - left side of the comparison.
+		 * @return int - negative number, zero or positive number if given text is less than,
+		 *         equal to or greater than the value.
+		 */
+		private int compare(final String text) {
+			int length = Math.min(text.length(), value.length);
+			for (int i = 0; i < length; ++i) {
+				char c = fold(text.charAt(i));
+				if (c != value[i]) {
+					return c - value[i];
+				}
+			}
+			return text.length() - value.length;
+		}
+
+		/**
+		 * Folds case of given character - character is upper-cased and then lower-cased (see
+		 * {@link String#compareToIgnoreCase(String)}).
+		 *
+		 * @param c
+		 *            char - character.
+		 * @return char - folded character.
+		 */
+		private static char fold(final char c) {
+			if (c < 0x80) {
+				return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+			}
+			return Character.toLowerCase(Character.toUpperCase(c));
+		}
+	}
+
+	/**
+	 * <code>FieldComparator</code> compares records by given field according to its type - text
+	 * fields ignoring case, numeric fields as numbers (see
+	 * {@link suncertify.db.dao.comparator.ComparatorFactory}). Records with equal fields are
+	 * compared by their numbers (always ascending), so the order is total and equals stable sort
+	 * of records in order of their numbers.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class FieldComparator implements Comparator<Contractor> {
+		/**
+		 * Index of the field.
+		 */
+		private final int field;
+
+		/**
+		 * <code>true</code> if fields are compared in ascending order.
+		 */
+		private final boolean ascending;
+
+		/**
+		 * Constructs <code>FieldComparator</code>.
+		 *
+		 * @param field
+		 *            int - index of the field.
+		 * @param ascending
+		 *            boolean - <code>true</code> if fields are compared in ascending order and
+		 *            <code>false</code> otherwise.
+		 */
+		FieldComparator(final int field, final boolean ascending) {
+			this.field = field;
+			this.ascending = ascending;
+		}
+
+		/**
+		 * @see java.util.Comparator#compare(Object, Object)
+		 */
+		public int compare(final Contractor record1, final Contractor record2) {
+			int result;
+			if (field == SIZE) {
+				result = compare(record1.getSize(), record2.getSize());
+			} else if (field == RATE) {
+				result = record1.getRate().compareTo(record2.getRate());
+			} else if (field == OWNER) {
+				result = compare(record1.getOwner(), record2.getOwner());
+			} else {
+				result = getText(record1, field).compareToIgnoreCase(getText(record2, field));
+			}
+
+			if (result != 0) {
+				return ascending ? result : -result;
+			}
+			return compare(record1.getId(), record2.getId());
+		}
+
+		/**
+		 * Compares given numbers.
+		 *
+		 * @param value1
+		 *            int - first number.
+		 * @param value2
+		 *            int - second number.
+		 * @return int - negative number, zero or positive number if first number is less than,
+		 *         equal to or greater than second number.
+		 */
+		private static int compare(final int value1, final int value2) {
+			return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package suncertify.db;
+
+/**
+ * <code>RangeOperatorEnum</code> defines comparisons of numeric fields that can be resolved by
+ * database (see {@link FindCriteria#setRange(int, RangeOperatorEnum, String)}). Field value is
+ * the left side of the comparison.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.FindCriteria
+ */
+public enum RangeOperatorEnum {
+	/**
+	 * Field value is less than given value.
+	 */
+	LESS,
+
+	/**
+	 * Field value is less than or equal to given value.
+	 */
+	LESS_OR_EQUAL,
+
+	/**
+	 * Field value equals given value.
+	 */
+	EQUAL,
+
+	/**
+	 * Field value is greater than or equal to given value.
+	 */
+	GREATER_OR_EQUAL,
+
+	/**
+	 * Field value is greater than given value.
+	 */
+	GREATER,
+
+	/**
+	 * Field value does not equal given value.
+	 */
+	NOT_EQUAL;
+}
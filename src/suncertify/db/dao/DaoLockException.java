@@ -0,0 +1,41 @@
+package suncertify.db.dao;
+
+/**
+ * <code>DaoLockException</code> is thrown when user wants to perform DAO
+ * operation on a locked object without owning its lock (e.g. the lease of the
+ * lock has expired).
+ * 
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class DaoLockException extends DaoException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+	 * @see DaoException#DaoException()
+	 */
+	public DaoLockException() {
+		super();
+	}
+
+	/**
+	 * @see DaoException#DaoException(String)
+	 */
+	public DaoLockException(String message) {
+		super(message);
+	}
+
+	/**
+	 * @see DaoException#DaoException(String, Throwable)
+	 */
+	public DaoLockException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * @see DaoException#DaoException(Throwable)
+	 */
+	public DaoLockException(Throwable cause) {
+		super(cause);
+	}
+}
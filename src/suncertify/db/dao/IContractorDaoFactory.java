@@ -0,0 +1,24 @@
+package suncertify.db.dao;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * <code>IContractorDaoFactory</code> is a remote factory of {@link IContractorDao} sessions -
+ * it is the object registered in RMI registry and each network client gets its own session from
+ * it, so the server knows when the client disconnects (e.g. to release its locks).
+ * 
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.dao.IContractorDao
+ */
+public interface IContractorDaoFactory extends Remote {
+	/**
+	 * Creates new DAO session of the calling client.
+	 * 
+	 * @return IContractorDao - DAO session of the client.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public IContractorDao getDao() throws RemoteException;
+}
@@ -64,6 +64,68 @@ public interface IDao<T extends Persistent> extends Remote {
 	public List<T> load(final String[] filter, final ComparisonOperator[] operators) throws DaoFinderException,
 			DaoException, RemoteException;
 
+	/**
+	 * Loads one page of persistent objects from the persistent layer sorted by given field. Objects
+	 * are sorted and cut to the page by the persistent layer, so only the page is transferred to
+	 * remote clients.
+	 * 
+	 * @param sortField
+	 *            int - index of the field objects are sorted by (fields are compared according
+	 *            to their types - see {@link suncertify.db.dao.comparator.ComparatorFactory}) or
+	 *            negative value if objects keep their order.
+	 * @param ascending
+	 *            boolean - <code>true</code> if objects are sorted in ascending order and
+	 *            <code>false</code> otherwise.
+	 * @param offset
+	 *            int - number of skipped objects.
+	 * @param limit
+	 *            int - maximum number of loaded objects (<code>0</code> if all remaining objects
+	 *            are loaded).
+	 * @return List&lt;T&gt; - the page of persistent objects.
+	 * @throws DaoFinderException
+	 *             If the page contains no objects.
+	 * @throws DaoException
+	 *             If general database failure occurs.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public List<T> load(final int sortField, final boolean ascending, final int offset, final int limit)
+			throws DaoFinderException, DaoException, RemoteException;
+
+	/**
+	 * Loads one page of persistent objects from the persistent layer basing on given filter(s)
+	 * and relevant comparison operators sorted by given field - see
+	 * {@link #load(String[], ComparisonOperator[])} and {@link #load(int, boolean, int, int)}.
+	 * 
+	 * @param filter
+	 *            String[] - finder filter.
+	 * @param operators
+	 *            ComparisonOperator[] - comparison operators for each filter field.
+	 * @param sortField
+	 *            int - index of the field objects are sorted by or negative value if objects
+	 *            keep their order.
+	 * @param ascending
+	 *            boolean - <code>true</code> if objects are sorted in ascending order and
+	 *            <code>false</code> otherwise.
+	 * @param offset
+	 *            int - number of skipped objects.
+	 * @param limit
+	 *            int - maximum number of loaded objects (<code>0</code> if all remaining objects
+	 *            are loaded).
+	 * @return List&lt;T&gt; - the page of found persistent objects.
+	 * @throws DaoFinderException
+	 *             If no object was found on given filter or the page contains no objects.
+	 * @throws DaoException
+	 *             If general database failure occurs.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public List<T> load(final String[] filter, final ComparisonOperator[] operators, final int sortField,
+			final boolean ascending, final int offset, final int limit) throws DaoFinderException, DaoException,
+			RemoteException;
+
 	/**
 	 * Loads persistent objects from the persistent layer basing on given filter(s) and default
 	 * comparison operators.
@@ -83,6 +145,132 @@ public interface IDao<T extends Persistent> extends Remote {
 	 */
 	public List<T> load(final String[] filter) throws DaoFinderException, DaoException, RemoteException;
 
+	/**
+	 * Leases the lock of given object in the persistent layer - waits until the object is
+	 * unlocked. The lock is released when the lease expires or when the client that owns it
+	 * disconnects, so a client that never unlocks the object does not block it forever.
+	 * 
+	 * @param persistent
+	 *            T - object to be locked.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring the lock) after which the
+	 *            lock is released automatically.
+	 * @return long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public long lock(final T persistent, final long leaseTime) throws DaoStaleObjectException, RemoteException;
+
+	/**
+	 * Leases the lock of given object in the persistent layer if it is not locked - never waits,
+	 * so the client can report busy object at once.
+	 * 
+	 * @param persistent
+	 *            T - object to be locked.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring the lock) after which the
+	 *            lock is released automatically.
+	 * @return long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is locked by another client.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public long tryLock(final T persistent, final long leaseTime) throws DaoStaleObjectException, DaoLockException,
+			RemoteException;
+
+	/**
+	 * Leases the lock of given object in the persistent layer - waits at most given time until
+	 * the object is unlocked.
+	 * 
+	 * @param persistent
+	 *            T - object to be locked.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring the lock) after which the
+	 *            lock is released automatically.
+	 * @param timeout
+	 *            long - maximum time to wait (in milliseconds).
+	 * @return long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is still locked by another client after given time or waiting
+	 *             was interrupted.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public long lock(final T persistent, final long leaseTime, final long timeout) throws DaoStaleObjectException,
+			DaoLockException, RemoteException;
+
+	/**
+	 * Leases the locks of given objects in the persistent layer with one cookie in one call -
+	 * objects are locked in a canonical order, so clients locking groups of objects never
+	 * deadlock each other. If waiting would close a cycle with locks of other clients, locks taken
+	 * by the call are released and the call fails - the client may try again.
+	 * 
+	 * @param persistents
+	 *            List&lt;T&gt; - objects to be locked.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring each lock) after which the
+	 *            locks are released automatically.
+	 * @return long - cookie of the owner of the locks (valid for each of given objects).
+	 * @throws DaoStaleObjectException
+	 *             If any of given objects no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If the call was aborted to break a deadlock.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public long lockAll(final List<T> persistents, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException;
+
+	/**
+	 * Renews the lease of the lock of given object - the lock will be released after given time
+	 * from now.
+	 * 
+	 * @param persistent
+	 *            T - locked object.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is not locked with given cookie (e.g. the lease has expired).
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public void renew(final T persistent, final long cookie, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException;
+
+	/**
+	 * Releases the lock of given object.
+	 * 
+	 * @param persistent
+	 *            T - locked object.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is not locked with given cookie (e.g. the lease has expired).
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public void unlock(final T persistent, final long cookie) throws DaoStaleObjectException, DaoLockException,
+			RemoteException;
+
 	/**
 	 * Refreshes given object's data from the persistent layer.
 	 * 
@@ -112,6 +300,27 @@ public interface IDao<T extends Persistent> extends Remote {
 	 */
 	public void remove(final T persistent) throws DaoStaleObjectException, DaoException, RemoteException;
 
+	/**
+	 * Removes given locked object from the persistent layer - see {@link #lock(Persistent, long)}.
+	 * The lease ends with the object - its lock is released.
+	 * 
+	 * @param persistent
+	 *            T - object to be removed from the persistent layer.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object no longer exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is not locked with given cookie (e.g. the lease has expired).
+	 * @throws DaoException
+	 *             If general database failure occurs.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public void remove(final T persistent, final long cookie) throws DaoStaleObjectException, DaoLockException,
+			DaoException, RemoteException;
+
 	/**
 	 * Stores given object into persistent layer.
 	 * 
@@ -145,4 +354,26 @@ public interface IDao<T extends Persistent> extends Remote {
 	 */
 	public void update(final T persistent) throws DaoStaleObjectException, DaoDuplicateException, DaoException,
 			RemoteException;
+
+	/**
+	 * Updates given locked object in the persistent layer - see {@link #lock(Persistent, long)}.
+	 * 
+	 * @param persistent
+	 *            T - object to be updated.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If given object is outdated or no longer exists in the persistent layer.
+	 * @throws DaoDuplicateException
+	 *             If given object to update already exists in the persistent layer.
+	 * @throws DaoLockException
+	 *             If given object is not locked with given cookie (e.g. the lease has expired).
+	 * @throws DaoException
+	 *             If general database failure occurs.
+	 * @throws RemoteException
+	 *             If remote method cannot be invoked - see javadoc for {@link RemoteException} for
+	 *             details.
+	 */
+	public void update(final T persistent, final long cookie) throws DaoStaleObjectException, DaoDuplicateException,
+			DaoLockException, DaoException, RemoteException;
 }
@@ -1,38 +1,37 @@
 package suncertify.db.dao.impl;
 
-import static suncertify.db.dao.ComparisonOperator.EQUAL;
-import static suncertify.db.dao.ComparisonOperator.GREATER;
-import static suncertify.db.dao.ComparisonOperator.GREATER_OR_EQUAL;
-import static suncertify.db.dao.ComparisonOperator.LESS;
-import static suncertify.db.dao.ComparisonOperator.LESS_OR_EQUAL;
 import static suncertify.db.dao.ComparisonOperator.CONTAINS;
-import static suncertify.db.dao.ComparisonOperator.NOT_EQUAL;
 import static suncertify.db.dao.ComparisonOperator.STARTS_WITH;
-import static suncertify.db.domain.DBMetaInfo.getFieldType;
 
 import java.rmi.RemoteException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import suncertify.core.DBConfiguration;
 import suncertify.core.InitializationException;
+import suncertify.db.DBException;
 import suncertify.db.DBPersistent;
 import suncertify.db.Data;
+import suncertify.db.DeadlockException;
 import suncertify.db.DuplicateKeyException;
+import suncertify.db.FindCriteria;
+import suncertify.db.Query;
+import suncertify.db.RangeOperatorEnum;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.dao.ComparisonOperator;
 import suncertify.db.dao.DaoDuplicateException;
 import suncertify.db.dao.DaoException;
 import suncertify.db.dao.DaoFinderException;
 import suncertify.db.dao.DaoInitializationException;
+import suncertify.db.dao.DaoLockException;
 import suncertify.db.dao.DaoStaleObjectException;
 import suncertify.db.dao.IContractorDao;
 import suncertify.db.dao.IDao;
-import suncertify.db.dao.comparator.ComparatorFactory;
-import suncertify.db.dao.comparator.IComparator;
 import suncertify.db.domain.Contractor;
+import suncertify.db.lock.RecordLockManager;
 
 /**
  * <code>ContractorLocalDao</code> is a local (operates on file - indirectly) implementation of
@@ -47,6 +46,12 @@ public class ContractorLocalDao implements IContractorDao {
 	 */
 	private DBPersistent<Contractor> db;
 
+	/**
+	 * Lease time (in milliseconds) of locks taken to check keys of records before they are
+	 * updated or removed without lock of the client.
+	 */
+	private static final long KEY_CHECK_LEASE_TIME = 60 * 1000;
+
 	/**
 	 * Constructs <code>ContractorLocalDao</code> instance basing on given database filename.
 	 * 
@@ -54,9 +59,20 @@ public class ContractorLocalDao implements IContractorDao {
 	 *             see {@link Data#Data(String)}.
 	 */
 	public ContractorLocalDao(String dbFilename) throws DaoInitializationException {
+		this(dbFilename, new DBConfiguration());
+	}
+
+	/**
+	 * Constructs <code>ContractorLocalDao</code> instance basing on given database filename and
+	 * database configuration.
+	 * 
+	 * @throws DaoInitializationException -
+	 *             see {@link Data#Data(String, DBConfiguration)}.
+	 */
+	public ContractorLocalDao(String dbFilename, DBConfiguration configuration) throws DaoInitializationException {
 		super();
 		try {
-			db = new Data(dbFilename);
+			db = new Data(dbFilename, configuration);
 		} catch (InitializationException e) {
 			throw new DaoInitializationException(e.getMessage(), e);
 		}
@@ -96,143 +112,341 @@ public class ContractorLocalDao implements IContractorDao {
 	public List<Contractor> load(final String[] filter, final ComparisonOperator[] operators)
 			throws DaoFinderException, DaoException, RemoteException {
 
-		String[] tmp = new String[filter.length];
+		return load(toQuery(filter, operators));
+	}
+
+	/**
+	 * @see IDao#load(int, boolean, int, int)
+	 */
+	public List<Contractor> load(final int sortField, final boolean ascending, final int offset, final int limit)
+			throws DaoFinderException, DaoException, RemoteException {
+
+		Query query = new Query();
+		setPage(query, sortField, ascending, offset, limit);
+		return load(query);
+	}
+
+	/**
+	 * @see IDao#load(String[], ComparisonOperator[], int, boolean, int, int)
+	 */
+	public List<Contractor> load(final String[] filter, final ComparisonOperator[] operators, final int sortField,
+			final boolean ascending, final int offset, final int limit) throws DaoFinderException, DaoException,
+			RemoteException {
+
+		Query query = toQuery(filter, operators);
+		setPage(query, sortField, ascending, offset, limit);
+		return load(query);
+	}
+
+	/**
+	 * Loads records matching given query.
+	 * 
+	 * @param query
+	 *            Query - database query.
+	 * @return List&lt;Contractor&gt; - found records.
+	 * @throws DaoFinderException
+	 *             If no records matching given query were found.
+	 */
+	private List<Contractor> load(final Query query) throws DaoFinderException {
+		try {
+			return db.find(query);
+		} catch (RecordNotFoundException e) {
+			throw new DaoFinderException("No records matching given criteria found.", e);
+		}
+	}
+
+	/**
+	 * Sets order and page of records returned by given query.
+	 * 
+	 * @param query
+	 *            Query - database query.
+	 * @param sortField
+	 *            int - index of the field records are sorted by or negative value if records
+	 *            keep order of their ids.
+	 * @param ascending
+	 *            boolean - <code>true</code> if records are sorted in ascending order.
+	 * @param offset
+	 *            int - number of skipped records.
+	 * @param limit
+	 *            int - maximum number of returned records (<code>0</code> if all remaining
+	 *            records are returned).
+	 */
+	private static void setPage(final Query query, final int sortField, final boolean ascending, final int offset,
+			final int limit) {
+
+		query.setOrder(sortField < 0 ? Query.NO_ORDER : sortField, ascending);
+		query.setOffset(offset);
+		query.setLimit(limit);
+	}
+
+	/**
+	 * Creates database query from given filter - starts with and contains operators become
+	 * criteria of the same kind and remaining operators become comparisons of fields.
+	 * 
+	 * @param filter
+	 *            String[] - data filter (<code>null</code> value matches any value).
+	 * @param operators
+	 *            ComparisonOperator[] - comparison operators for each field.
+	 * @return Query - query returning all fields of matching records.
+	 */
+	private static Query toQuery(final String[] filter, final ComparisonOperator[] operators) {
+		FindCriteria criteria = new FindCriteria();
+		Query query = new Query(criteria);
 		for (int i = 0; i < filter.length; ++i) {
 			if (operators[i] == STARTS_WITH) {
-				tmp[i] = filter[i];
-			} else {
-				tmp[i] = null;
+				criteria.setStartsWith(i, filter[i]);
+			} else if (operators[i] == CONTAINS) {
+				criteria.setContains(i, filter[i]);
+			} else if (filter[i] != null) {
+				query.setComparison(i, toRangeOperator(operators[i]), filter[i]);
 			}
 		}
+		return query;
+	}
 
-		// search for record's ids
-		int[] ids;
+	/**
+	 * Returns database range operator corresponding to given comparison operator.
+	 * 
+	 * @param operator
+	 *            ComparisonOperator - comparison operator (neither starts with nor contains).
+	 * @return RangeOperatorEnum - corresponding range operator.
+	 */
+	private static RangeOperatorEnum toRangeOperator(final ComparisonOperator operator) {
+		switch (operator) {
+			case LESS:
+				return RangeOperatorEnum.LESS;
+			case LESS_OR_EQUAL:
+				return RangeOperatorEnum.LESS_OR_EQUAL;
+			case EQUAL:
+				return RangeOperatorEnum.EQUAL;
+			case GREATER_OR_EQUAL:
+				return RangeOperatorEnum.GREATER_OR_EQUAL;
+			case GREATER:
+				return RangeOperatorEnum.GREATER;
+			default:
+				return RangeOperatorEnum.NOT_EQUAL;
+		}
+	}
+
+	/**
+	 * Removes deleted records from the persistent layer. This operation is not available to remote
+	 * clients.
+	 * 
+	 * @return Map&lt;Integer, Integer&gt; - new ids of moved records (key: old id; value: new id).
+	 * @throws DaoException
+	 *             If the persistent layer cannot be compacted.
+	 * @see DBPersistent#compact()
+	 */
+	public Map<Integer, Integer> compact() throws DaoException {
+		try {
+			return db.compact();
+		} catch (DBException e) {
+			throw new DaoException("Could not compact the persistent layer.", e);
+		}
+	}
+
+	/**
+	 * @see IDao#lock(suncertify.db.domain.Persistent, long)
+	 */
+	public long lock(final Contractor persistent, final long leaseTime) throws DaoStaleObjectException,
+			RemoteException {
+
+		long cookie;
 		try {
-			ids = db.find(tmp);
+			cookie = db.lock(persistent.getId(), leaseTime);
 		} catch (RecordNotFoundException e) {
-			throw new DaoFinderException("No records matching given criteria found.", e);
+			throw new DaoStaleObjectException("Could not find record to lock in the persistent layer.");
 		}
+		checkLocked(Collections.singletonList(persistent), cookie);
+		return cookie;
+	}
 
-		List<Contractor> list = new ArrayList<Contractor>();
-		// load found records from database
+	/**
+	 * @see IDao#tryLock(suncertify.db.domain.Persistent, long)
+	 */
+	public long tryLock(final Contractor persistent, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		long cookie;
 		try {
-			for (int id : ids) {
-				Contractor record = new Contractor(db.read(id));
-				record.setId(id);
-				if (matches(record, filter, operators)) {
-					list.add(record);
-				}
-			}
+			cookie = db.tryLock(persistent.getId(), leaseTime);
+		} catch (RecordNotFoundException e) {
+			throw new DaoStaleObjectException("Could not find record to lock in the persistent layer.");
+		}
+		if (cookie == RecordLockManager.NO_COOKIE) {
+			throw new DaoLockException("Record is locked by another client.");
+		}
+		checkLocked(Collections.singletonList(persistent), cookie);
+		return cookie;
+	}
+
+	/**
+	 * @see IDao#lock(suncertify.db.domain.Persistent, long, long)
+	 */
+	public long lock(final Contractor persistent, final long leaseTime, final long timeout)
+			throws DaoStaleObjectException, DaoLockException, RemoteException {
+
+		long cookie;
+		try {
+			cookie = db.lock(persistent.getId(), leaseTime, timeout, TimeUnit.MILLISECONDS);
 		} catch (RecordNotFoundException e) {
-			throw new DaoException("Could not load record(s) from the persistent layer.");
+			throw new DaoStaleObjectException("Could not find record to lock in the persistent layer.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaoLockException("Waiting for the lock of the record was interrupted.", e);
+		}
+		if (cookie == RecordLockManager.NO_COOKIE) {
+			throw new DaoLockException("Record is locked by another client.");
 		}
+		checkLocked(Collections.singletonList(persistent), cookie);
+		return cookie;
+	}
 
-		if (list.size() == 0) {
-			throw new DaoFinderException("No records matching given criteria found.");
+	/**
+	 * @see IDao#lockAll(List, long)
+	 */
+	public long lockAll(final List<Contractor> persistents, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		int[] recNos = new int[persistents.size()];
+		for (int i = 0; i < recNos.length; ++i) {
+			recNos[i] = persistents.get(i).getId();
 		}
 
-		return list;
+		long cookie;
+		try {
+			cookie = db.lockAll(recNos, leaseTime);
+		} catch (RecordNotFoundException e) {
+			throw new DaoStaleObjectException("Could not find record to lock in the persistent layer.");
+		} catch (DeadlockException e) {
+			throw new DaoLockException(e.getMessage(), e);
+		}
+		checkLocked(persistents, cookie);
+		return cookie;
 	}
 
 	/**
-	 * Checks if given arguments meet given comparison conditions.
+	 * Checks that records locked with given cookie are the records given objects stand for - all
+	 * of them are unlocked if any of them is not.
 	 * 
-	 * @param arg1
-	 *            String - first argument of comparison (left side of equation).
-	 * @param arg2
-	 *            String - second argument of comparison (right side of equation).
-	 * @param operator
-	 *            ComparisonOperator - comparison operator.
-	 * @return boolean - <code>true</code> if given arguments meet given comparison operator and
-	 *         <code>false</code> otherwise.
-	 *         
-	 * @see IComparator
-	 * @see ComparisonOperator
+	 * @param persistents
+	 *            List&lt;Contractor&gt; - locked objects.
+	 * @param cookie
+	 *            long - cookie of the lock.
+	 * @throws DaoStaleObjectException
+	 *             If any of locked records is not the record of given object.
 	 */
-	private boolean matches(IComparator comparator, String arg1, String arg2, ComparisonOperator operator) {
-		// <
-		if (LESS == operator) {
-			return comparator.compare(arg1, arg2) < 0;
-
-		// <=
-		} else if (LESS_OR_EQUAL == operator) {
-			return comparator.compare(arg1, arg2) <= 0;
-
-		// =
-		} else if (EQUAL == operator) {
-			return comparator.compare(arg1, arg2) == 0;
-
-		// >=
-		} else if (GREATER_OR_EQUAL == operator) {
-			return comparator.compare(arg1, arg2) >= 0;
-
-		// >
-		} else if (GREATER == operator) {
-			return comparator.compare(arg1, arg2) > 0;
-
-		// !=
-		} else if (NOT_EQUAL == operator) {
-			return comparator.compare(arg1, arg2) != 0;
-			
-		// contains
-		} else if (CONTAINS == operator) {
-			String[] strings1 = arg1.split(",");
-			String[] strings2 = arg2.split(",");
-			
-			Set<String> set1 = new HashSet<String>();
-			Set<String> set2 = new HashSet<String>();
-	
-			for (int i = 0; i < strings1.length; ++i) {
-				if (strings1[i].trim().length() > 0) {
-					set1.add(strings1[i].trim().toUpperCase());
+	private void checkLocked(final List<Contractor> persistents, final long cookie) throws DaoStaleObjectException {
+		for (Contractor persistent : persistents) {
+			if (isStale(persistent)) {
+				for (Contractor locked : persistents) {
+					try {
+						db.unlock(locked.getId(), cookie);
+					} catch (RecordNotFoundException e) {
+						// XXX: locked records are never deleted by others
+					} catch (SecurityException e) {
+						// lease has expired
+					}
 				}
+				throw new DaoStaleObjectException("Record was moved by compaction of the persistent layer.");
 			}
-			
-			for (int i = 0; i < strings2.length; ++i) {
-				if (strings2[i].trim().length() > 0) {
-					set2.add(strings2[i].trim().toUpperCase());
-				}
-			}
-			
-			set2.removeAll(set1);
-			return set2.size() == 0;
 		}
-		return false;
 	}
 
 	/**
-	 * Checks if given contractor's data match given filter.
+	 * Checks if id of given object stands for another record. Ids of records moved by compaction
+	 * are reused by records created later, so record with such id is taken for the record of given
+	 * object only if it has the same unique key (name and location) - holders of old ids have to
+	 * reload moved records. Other ids always stand for the same record.
 	 * 
-	 * @param record
-	 *            Contractor - contractor to be checked against filter.
-	 * @param filter
-	 *            String[] - data filter.
-	 * @param operators
-	 *            ComparisonOperator[] - comparison operators for each field.
-	 * @return boolean - <code>true</code> if given contractor's numeric data match given filter
-	 *         and <code>false</code> otherwise.
-	 *         
-	 * @see IComparator
-	 * @see ComparisonOperator
+	 * @param persistent
+	 *            Contractor - persistent object.
+	 * @return boolean - <code>true</code> if the record with id of given object is not the
+	 *         record of the object.
+	 * @see DBPersistent#getCurrentRecordNo(int)
 	 */
-	private boolean matches(Contractor record, String[] filter, ComparisonOperator[] operators) {
-		for (int i = 0; i < filter.length; ++i) {
-			if (operators[i] != STARTS_WITH && filter[i] != null) {
-				IComparator comparator = ComparatorFactory.getComparator(getFieldType(i));
-				
-				String[] strings = record.toStrings();
-				if (!matches(comparator, strings[i], filter[i], operators[i])) {
-					return false;
-				}
-			}
+	private boolean isStale(final Contractor persistent) {
+		int recNo = persistent.getId();
+		if (db.getCurrentRecordNo(recNo) == recNo) {
+			return false;
+		}
+
+		try {
+			Contractor record = new Contractor(db.read(recNo));
+			return !record.getName().equals(persistent.getName())
+					|| !record.getLocation().equals(persistent.getLocation());
+		} catch (RecordNotFoundException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Checks if id of given object was taken from a record moved by compaction, so the object has
+	 * to be checked with {@link #isStale(Contractor)} under the lock of its record.
+	 * 
+	 * @param persistent
+	 *            Contractor - persistent object.
+	 * @return boolean - <code>true</code> if a record was moved from id of given object.
+	 */
+	private boolean isMoved(final Contractor persistent) {
+		return db.getCurrentRecordNo(persistent.getId()) != persistent.getId();
+	}
+
+	/**
+	 * Unlocks record of given object ignoring errors - used when the lock was taken by this DAO.
+	 * 
+	 * @param persistent
+	 *            Contractor - locked object.
+	 * @param cookie
+	 *            long - cookie of the lock.
+	 */
+	private void unlockQuietly(final Contractor persistent, final long cookie) {
+		try {
+			db.unlock(persistent.getId(), cookie);
+		} catch (RecordNotFoundException e) {
+			// record has been removed with the lock
+		} catch (SecurityException e) {
+			// lease has expired
+		}
+	}
+
+	/**
+	 * @see IDao#renew(suncertify.db.domain.Persistent, long, long)
+	 */
+	public void renew(final Contractor persistent, final long cookie, final long leaseTime)
+			throws DaoStaleObjectException, DaoLockException, RemoteException {
+
+		try {
+			db.renew(persistent.getId(), cookie, leaseTime);
+		} catch (RecordNotFoundException e) {
+			throw new DaoStaleObjectException("Could not find record to renew its lock in the persistent layer.");
+		} catch (SecurityException e) {
+			throw new DaoLockException("Record is not locked by the client - its lock may have expired.", e);
+		}
+	}
+
+	/**
+	 * @see IDao#unlock(suncertify.db.domain.Persistent, long)
+	 */
+	public void unlock(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		try {
+			db.unlock(persistent.getId(), cookie);
+		} catch (RecordNotFoundException e) {
+			throw new DaoStaleObjectException("Could not find record to unlock in the persistent layer.");
+		} catch (SecurityException e) {
+			throw new DaoLockException("Record is not locked by the client - its lock may have expired.", e);
 		}
-		return true;
 	}
 
 	/*
 	 * @see IDao#refresh(T)
 	 */
 	public Contractor refresh(Contractor persistent) throws DaoStaleObjectException, RemoteException {
+		if (isStale(persistent)) {
+			throw new DaoStaleObjectException("Record was moved by compaction of the persistent layer.");
+		}
 		try {
 			Contractor record = new Contractor(db.read(persistent.getId()));
 			record.setId(persistent.getId());
@@ -246,6 +460,16 @@ public class ContractorLocalDao implements IContractorDao {
 	 * @see IDao#remove(T)
 	 */
 	public void remove(Contractor persistent) throws DaoStaleObjectException, DaoException, RemoteException {
+		if (isMoved(persistent)) {
+			long cookie = lock(persistent, KEY_CHECK_LEASE_TIME);
+			try {
+				remove(persistent, cookie);
+			} finally {
+				unlockQuietly(persistent, cookie);
+			}
+			return;
+		}
+
 		try {
 			db.delete(persistent.getId());
 		} catch (RecordNotFoundException e) {
@@ -258,6 +482,26 @@ public class ContractorLocalDao implements IContractorDao {
 		}
 	}
 
+	/**
+	 * @see IDao#remove(suncertify.db.domain.Persistent, long)
+	 */
+	public void remove(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, DaoException, RemoteException {
+
+		try {
+			db.delete(persistent.getId(), cookie);
+		} catch (SecurityException e) {
+			throw new DaoLockException("Record is not locked by the client - its lock may have expired.", e);
+		} catch (RecordNotFoundException e) {
+			Throwable cause = e.getCause();
+			if (cause == null || cause instanceof RecordNotFoundException) {
+				throw new DaoStaleObjectException("Could not find record to remove in the persistent layer.");
+			}
+
+			throw new DaoException("Could not remove record from the persistent layer.");
+		}
+	}
+
 	/*
 	 * @see IDao#store(T)
 	 */
@@ -278,6 +522,17 @@ public class ContractorLocalDao implements IContractorDao {
 	 * @see IDao#update(T)
 	 */
 	public void update(Contractor persistent) throws DaoStaleObjectException, DaoException, RemoteException {
+		if (isMoved(persistent)) {
+			// XXX: object with changed key is rejected - its record cannot be told apart
+			long cookie = lock(persistent, KEY_CHECK_LEASE_TIME);
+			try {
+				update(persistent, cookie);
+			} finally {
+				unlockQuietly(persistent, cookie);
+			}
+			return;
+		}
+
 		try {
 			db.update(persistent.getId(), persistent.toStrings());
 		} catch (RecordNotFoundException e) {
@@ -293,4 +548,28 @@ public class ContractorLocalDao implements IContractorDao {
 			throw new DaoException("Could not update record in the persistent layer.");
 		}
 	}
+
+	/**
+	 * @see IDao#update(suncertify.db.domain.Persistent, long)
+	 */
+	public void update(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, DaoException, RemoteException {
+
+		try {
+			db.update(persistent.getId(), persistent.toStrings(), cookie);
+		} catch (SecurityException e) {
+			throw new DaoLockException("Record is not locked by the client - its lock may have expired.", e);
+		} catch (RecordNotFoundException e) {
+			Throwable cause = e.getCause();
+			if (cause == null || cause instanceof RecordNotFoundException) {
+				throw new DaoStaleObjectException("Could not find record to update in the persistent layer.");
+			}
+
+			if (cause instanceof DuplicateKeyException) {
+				throw new DaoDuplicateException("Could not update duplicate object in the persistent layer.", e);
+			}
+
+			throw new DaoException("Could not update record in the persistent layer.");
+		}
+	}
 }
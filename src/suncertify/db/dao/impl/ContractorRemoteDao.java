@@ -1,15 +1,21 @@
 package suncertify.db.dao.impl;
 
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import suncertify.core.DBConfiguration;
 import suncertify.core.InitializationException;
 import suncertify.db.dao.ComparisonOperator;
 import suncertify.db.dao.DaoDuplicateException;
 import suncertify.db.dao.DaoException;
 import suncertify.db.dao.DaoFinderException;
 import suncertify.db.dao.DaoInitializationException;
+import suncertify.db.dao.DaoLockException;
 import suncertify.db.dao.DaoStaleObjectException;
 import suncertify.db.dao.IContractorDao;
 import suncertify.db.dao.IDao;
@@ -17,20 +23,33 @@ import suncertify.db.domain.Contractor;
 
 /**
  * <code>ContractorRemoteDao</code> is a remote (RMI) implementation of {@link IContractorDao}
- * interface. Because it is a remote object it extends {@link UnicastRemoteObject}.
+ * interface. Because it is a remote object it extends {@link UnicastRemoteObject}.<br>
+ * <br>
+ * Instances created by {@link ContractorRemoteDaoFactory} are sessions of single clients sharing
+ * one local DAO - each session keeps the leases of its client and releases them when the client
+ * disconnects, i.e. when RMI distributed garbage collector finds the session unreferenced (see
+ * {@link Unreferenced}). A lease is forgotten as soon as it ends - when the client unlocks or
+ * removes the object or when a call finds the lease expired or the object gone. Leased objects
+ * keep their ids - compaction of database fails rather than renumber a locked record (see
+ * {@link suncertify.db.Data#compact()}), so kept ids are never remapped.
  * 
  * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
  * @see java.rmi.server.UnicastRemoteObject
  * @see suncertify.db.dao.IContractorDao
  */
-public class ContractorRemoteDao extends UnicastRemoteObject implements IContractorDao {
+public class ContractorRemoteDao extends UnicastRemoteObject implements IContractorDao, Unreferenced {
 
     private static final long serialVersionUID = 1L;
 
 	/**
 	 * Local DAO delegate.
 	 */
-	private IContractorDao dao;
+	private ContractorLocalDao dao;
+
+	/**
+	 * Cookies of leases of the client (key: id of locked object).
+	 */
+	private final Map<Integer, Long> leases = new HashMap<Integer, Long>();
 
 	/**
 	 * Constructs <code>ContractorRemoteDao</code> instance basing on given database filename.
@@ -42,8 +61,36 @@ public class ContractorRemoteDao extends UnicastRemoteObject implements IContrac
 	 *             see {@link UnicastRemoteObject#UnicastRemoteObject()}.
 	 */
 	public ContractorRemoteDao(String dbFilename) throws DaoInitializationException, RemoteException {
+		this(dbFilename, new DBConfiguration());
+	}
+
+	/**
+	 * Constructs <code>ContractorRemoteDao</code> instance basing on given database filename and
+	 * database configuration.
+	 * 
+	 * @throws InitializationException -
+	 *             see {@link ContractorLocalDao#ContractorLocalDao(String, DBConfiguration)}.
+	 * 
+	 * @throws RemoteException -
+	 *             see {@link UnicastRemoteObject#UnicastRemoteObject()}.
+	 */
+	public ContractorRemoteDao(String dbFilename, DBConfiguration configuration) throws DaoInitializationException,
+			RemoteException {
 		super();
-		dao = new ContractorLocalDao(dbFilename);
+		dao = new ContractorLocalDao(dbFilename, configuration);
+	}
+
+	/**
+	 * Constructs <code>ContractorRemoteDao</code> session sharing given local DAO.
+	 * 
+	 * @param dao
+	 *            ContractorLocalDao - local DAO delegate.
+	 * @throws RemoteException -
+	 *             see {@link UnicastRemoteObject#UnicastRemoteObject()}.
+	 */
+	ContractorRemoteDao(ContractorLocalDao dao) throws RemoteException {
+		super();
+		this.dao = dao;
 	}
 
 	/**
@@ -69,6 +116,25 @@ public class ContractorRemoteDao extends UnicastRemoteObject implements IContrac
 		return dao.load(filter, operators);
 	}
 
+	/**
+	 * @see IDao#load(int, boolean, int, int)
+	 */
+	public List<Contractor> load(final int sortField, final boolean ascending, final int offset, final int limit)
+			throws DaoFinderException, DaoException, RemoteException {
+
+		return dao.load(sortField, ascending, offset, limit);
+	}
+
+	/**
+	 * @see IDao#load(String[], ComparisonOperator[], int, boolean, int, int)
+	 */
+	public List<Contractor> load(final String[] filter, final ComparisonOperator[] operators, final int sortField,
+			final boolean ascending, final int offset, final int limit) throws DaoFinderException, DaoException,
+			RemoteException {
+
+		return dao.load(filter, operators, sortField, ascending, offset, limit);
+	}
+
 	/**
 	 * @see IDao#load(String[])
 	 */
@@ -76,6 +142,138 @@ public class ContractorRemoteDao extends UnicastRemoteObject implements IContrac
 		return dao.load(filter);
 	}
 
+	/**
+	 * @see IDao#lock(suncertify.db.domain.Persistent, long)
+	 */
+	public long lock(final Contractor persistent, final long leaseTime) throws DaoStaleObjectException,
+			RemoteException {
+
+		return addLease(persistent, dao.lock(persistent, leaseTime));
+	}
+
+	/**
+	 * @see IDao#tryLock(suncertify.db.domain.Persistent, long)
+	 */
+	public long tryLock(final Contractor persistent, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		return addLease(persistent, dao.tryLock(persistent, leaseTime));
+	}
+
+	/**
+	 * @see IDao#lock(suncertify.db.domain.Persistent, long, long)
+	 */
+	public long lock(final Contractor persistent, final long leaseTime, final long timeout)
+			throws DaoStaleObjectException, DaoLockException, RemoteException {
+
+		return addLease(persistent, dao.lock(persistent, leaseTime, timeout));
+	}
+
+	/**
+	 * @see IDao#lockAll(List, long)
+	 */
+	public long lockAll(final List<Contractor> persistents, final long leaseTime) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		long cookie = dao.lockAll(persistents, leaseTime);
+		for (Contractor persistent : persistents) {
+			addLease(persistent, cookie);
+		}
+		return cookie;
+	}
+
+	/**
+	 * Remembers lease of the client, so it is released when the client disconnects.
+	 * 
+	 * @param persistent
+	 *            Contractor - locked object.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @return long - given cookie.
+	 */
+	private long addLease(final Contractor persistent, final long cookie) {
+		synchronized (leases) {
+			leases.put(persistent.getId(), cookie);
+		}
+		return cookie;
+	}
+
+	/**
+	 * @see IDao#renew(suncertify.db.domain.Persistent, long, long)
+	 */
+	public void renew(final Contractor persistent, final long cookie, final long leaseTime)
+			throws DaoStaleObjectException, DaoLockException, RemoteException {
+
+		try {
+			dao.renew(persistent, cookie, leaseTime);
+		} catch (DaoStaleObjectException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		} catch (DaoLockException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		}
+	}
+
+	/**
+	 * @see IDao#unlock(suncertify.db.domain.Persistent, long)
+	 */
+	public void unlock(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, RemoteException {
+
+		removeLease(persistent, cookie);
+		dao.unlock(persistent, cookie);
+	}
+
+	/**
+	 * Forgets ended lease of the client - the lease is released, has expired or its object no
+	 * longer exists.
+	 * 
+	 * @param persistent
+	 *            Contractor - leased object.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 */
+	private void removeLease(final Contractor persistent, final long cookie) {
+		synchronized (leases) {
+			Long lease = leases.get(persistent.getId());
+			if (lease != null && lease == cookie) {
+				leases.remove(persistent.getId());
+			}
+		}
+	}
+
+	/**
+	 * Releases leases of disconnected client and stops accepting its calls.
+	 * 
+	 * @see java.rmi.server.Unreferenced#unreferenced()
+	 */
+	public void unreferenced() {
+		Map<Integer, Long> clientLeases;
+		synchronized (leases) {
+			clientLeases = new HashMap<Integer, Long>(leases);
+			leases.clear();
+		}
+
+		for (Map.Entry<Integer, Long> lease : clientLeases.entrySet()) {
+			Contractor persistent = new Contractor();
+			persistent.setId(lease.getKey());
+			try {
+				dao.unlock(persistent, lease.getValue());
+			} catch (DaoException e) {
+				// XXX: the lease has expired or the record is gone - nothing to release
+			} catch (RemoteException e) {
+				// XXX: never thrown by local DAO
+			}
+		}
+
+		try {
+			unexportObject(this, true);
+		} catch (NoSuchObjectException e) {
+			// XXX: session has already been unexported
+		}
+	}
+
 	/*
 	 * @see IDao#refresh(T)
 	 */
@@ -90,6 +288,25 @@ public class ContractorRemoteDao extends UnicastRemoteObject implements IContrac
 		dao.remove(persistent);
 	}
 
+	/**
+	 * @see IDao#remove(suncertify.db.domain.Persistent, long)
+	 */
+	public void remove(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, DaoException, RemoteException {
+
+		try {
+			dao.remove(persistent, cookie);
+		} catch (DaoStaleObjectException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		} catch (DaoLockException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		}
+		// XXX: the lease ends with removed object
+		removeLease(persistent, cookie);
+	}
+
 	/*
 	 * @see IDao#store(T)
 	 */
@@ -103,4 +320,21 @@ public class ContractorRemoteDao extends UnicastRemoteObject implements IContrac
 	public void update(Contractor persistent) throws DaoStaleObjectException, DaoException, RemoteException {
 		dao.update(persistent);
 	}
+
+	/**
+	 * @see IDao#update(suncertify.db.domain.Persistent, long)
+	 */
+	public void update(final Contractor persistent, final long cookie) throws DaoStaleObjectException,
+			DaoLockException, DaoException, RemoteException {
+
+		try {
+			dao.update(persistent, cookie);
+		} catch (DaoStaleObjectException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		} catch (DaoLockException e) {
+			removeLease(persistent, cookie);
+			throw e;
+		}
+	}
 }
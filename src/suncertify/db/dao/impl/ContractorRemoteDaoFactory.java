@@ -0,0 +1,62 @@
+package suncertify.db.dao.impl;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+import suncertify.core.DBConfiguration;
+import suncertify.db.dao.DaoInitializationException;
+import suncertify.db.dao.IContractorDao;
+import suncertify.db.dao.IContractorDaoFactory;
+
+/**
+ * <code>ContractorRemoteDaoFactory</code> is a remote (RMI) implementation of
+ * {@link IContractorDaoFactory} interface - it creates {@link ContractorRemoteDao} sessions
+ * sharing one local DAO.
+ * 
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.dao.IContractorDaoFactory
+ */
+public class ContractorRemoteDaoFactory extends UnicastRemoteObject implements IContractorDaoFactory {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Local DAO shared by all sessions.
+	 */
+	private final ContractorLocalDao dao;
+
+	/**
+	 * Constructs <code>ContractorRemoteDaoFactory</code> instance basing on given database
+	 * filename and database configuration.
+	 * 
+	 * @throws DaoInitializationException -
+	 *             see {@link ContractorLocalDao#ContractorLocalDao(String, DBConfiguration)}.
+	 * @throws RemoteException -
+	 *             see {@link UnicastRemoteObject#UnicastRemoteObject()}.
+	 */
+	public ContractorRemoteDaoFactory(String dbFilename, DBConfiguration configuration)
+			throws DaoInitializationException, RemoteException {
+		this(new ContractorLocalDao(dbFilename, configuration));
+	}
+
+	/**
+	 * Constructs <code>ContractorRemoteDaoFactory</code> instance creating sessions sharing given
+	 * local DAO.
+	 * 
+	 * @param dao
+	 *            ContractorLocalDao - local DAO shared by all sessions.
+	 * @throws RemoteException -
+	 *             see {@link UnicastRemoteObject#UnicastRemoteObject()}.
+	 */
+	public ContractorRemoteDaoFactory(ContractorLocalDao dao) throws RemoteException {
+		super();
+		this.dao = dao;
+	}
+
+	/**
+	 * @see IContractorDaoFactory#getDao()
+	 */
+	public IContractorDao getDao() throws RemoteException {
+		return new ContractorRemoteDao(dao);
+	}
+}
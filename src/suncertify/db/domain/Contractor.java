@@ -99,6 +99,34 @@ public class Contractor extends Persistent {
 		setOwner(StringHelper.intValue(strings[5], UNSAVED_RECORD_NO));
 	}
 
+	/**
+	 * Constructs new <code>Contractor</code> from already decoded values - text values must have
+	 * the exact length of their fields.
+	 * 
+	 * @param name
+	 *            String - contractor's name.
+	 * @param location
+	 *            String - contractor's location.
+	 * @param specialties
+	 *            String - contractor's specialties.
+	 * @param size
+	 *            int - contractor's company size.
+	 * @param rate
+	 *            Money - contractor's rate per hour.
+	 * @param owner
+	 *            int - id of the customer who has booked the contractor.
+	 * @see ContractorCodec#decode(java.nio.ByteBuffer)
+	 */
+	Contractor(final String name, final String location, final String specialties, final int size,
+			final Money rate, final int owner) {
+		this.name = name;
+		this.location = location;
+		this.specialties = specialties;
+		this.size = size;
+		this.rate = rate;
+		this.owner = owner;
+	}
+
 	/**
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
@@ -0,0 +1,366 @@
+package suncertify.db.domain;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LENGTHS;
+import static suncertify.db.domain.DBMetaInfo.FLAG_LENGTH;
+import static suncertify.db.domain.DBMetaInfo.RECORD_LENGTH;
+import static suncertify.db.domain.DBMetaInfo.UNSAVED_RECORD_NO;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>ContractorCodec</code> converts a single slot of the database file (record flag followed by
+ * fixed width fields of record's data) into {@link Contractor} object and back.<br>
+ * <br>
+ * Slot bytes are decoded as ISO-8859-1 (Latin-1) characters - each byte is exactly one character,
+ * so decoding does not depend on the platform charset. Numeric fields (size, rate and owner) are
+ * parsed directly from the slot bytes and all intermediate data is kept in scratch buffers of the
+ * codec, so the only objects created while decoding are the ones referenced by returned
+ * {@link Contractor}.<br>
+ * <br>
+ * Decoding gives exactly the same results as {@link Contractor#Contractor(String[])} constructor
+ * used with strings read from the slot. Encoding writes exactly the same bytes as
+ * {@link Contractor#toStrings()} does (characters that cannot be represented in Latin-1 are
+ * replaced with <code>'?'</code>).<br>
+ * <br>
+ * <b>Instances of this class are not thread safe</b> - each thread has to use its own codec.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.domain.DBMetaInfo
+ */
+public final class ContractorCodec {
+	/**
+	 * Record flags indexed by their ordinal value.
+	 */
+	private static final RecordFlagEnum[] FLAGS = RecordFlagEnum.values();
+
+	/**
+	 * Currency symbols (one character strings) indexed by their Latin-1 code.
+	 */
+	private static final String[] SYMBOLS = new String[256];
+	static {
+		for (int i = 0; i < SYMBOLS.length; ++i) {
+			SYMBOLS[i] = String.valueOf((char) i).intern();
+		}
+	}
+
+	/**
+	 * Powers of ten that can be represented exactly as <code>double</code>.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1d;
+		for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Largest mantissa that can be represented exactly as <code>double</code>.
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Scratch buffer holding raw bytes of record's data.
+	 */
+	private final byte[] bytes = new byte[RECORD_LENGTH];
+
+	/**
+	 * Scratch buffer holding decoded characters of a single field.
+	 */
+	private final char[] chars = new char[RECORD_LENGTH];
+
+	/**
+	 * Decodes slot starting at the current position of given buffer. Position of the buffer is
+	 * advanced by the slot length. Record's id is not set by this method.
+	 *
+	 * @param slot
+	 *            ByteBuffer - buffer containing slot data.
+	 * @return Contractor - decoded record.
+	 */
+	public Contractor decode(final ByteBuffer slot) {
+		RecordFlagEnum flag = FLAGS[slot.get()];
+		slot.get(bytes);
+
+		int offset = 0;
+		String name = text(offset, FIELD_LENGTHS[0]);
+		offset += FIELD_LENGTHS[0];
+		String location = text(offset, FIELD_LENGTHS[1]);
+		offset += FIELD_LENGTHS[1];
+		String specialties = text(offset, FIELD_LENGTHS[2]);
+		offset += FIELD_LENGTHS[2];
+		int size = intValue(offset, FIELD_LENGTHS[3], 0);
+		offset += FIELD_LENGTHS[3];
+		Money rate = money(offset, FIELD_LENGTHS[4]);
+		offset += FIELD_LENGTHS[4];
+		int owner = intValue(offset, FIELD_LENGTHS[5], UNSAVED_RECORD_NO);
+
+		Contractor record = new Contractor(name, location, specialties, size, rate, owner);
+		record.setFlag(flag);
+		return record;
+	}
+
+	/**
+	 * Decodes values of the slot starting at the current position of given buffer. Position of the
+	 * buffer is advanced by the slot length. For slots written by {@link #encode(Contractor,
+	 * ByteBuffer)} returned values equal {@link Contractor#toStrings()} of the decoded record, but
+	 * no {@link Contractor} is created.
+	 *
+	 * @param slot
+	 *            ByteBuffer - buffer containing slot data.
+	 * @return String[] - decoded values.
+	 */
+	public String[] decodeStrings(final ByteBuffer slot) {
+		slot.get();
+		slot.get(bytes);
+
+		String[] values = new String[FIELDS_COUNT];
+		int offset = 0;
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			values[i] = text(offset, FIELD_LENGTHS[i]);
+			offset += FIELD_LENGTHS[i];
+		}
+		return values;
+	}
+
+	/**
+	 * Encodes given record into given buffer starting at its current position. Position of the
+	 * buffer is advanced by the slot length.
+	 *
+	 * @param record
+	 *            Contractor - record to be encoded.
+	 * @param slot
+	 *            ByteBuffer - buffer the slot is written into.
+	 */
+	public void encode(final Contractor record, final ByteBuffer slot) {
+		int offset = 0;
+		offset = putText(record.getName(), offset, FIELD_LENGTHS[0]);
+		offset = putText(record.getLocation(), offset, FIELD_LENGTHS[1]);
+		offset = putText(record.getSpecialties(), offset, FIELD_LENGTHS[2]);
+		offset = putInt(record.getSize(), offset, FIELD_LENGTHS[3]);
+		// XXX: Double.toString() format is a part of the file format - it is not reimplemented here
+		offset = putText(record.getRate().toString(), offset, FIELD_LENGTHS[4]);
+		if (record.getOwner() == UNSAVED_RECORD_NO) {
+			offset = putText("", offset, FIELD_LENGTHS[5]);
+		} else {
+			offset = putInt(record.getOwner(), offset, FIELD_LENGTHS[5]);
+		}
+
+		slot.put((byte) record.getFlag().ordinal());
+		slot.put(bytes);
+	}
+
+	/**
+	 * Decodes text field - <code>'\0'</code> characters are replaced with spaces.
+	 *
+	 * @param offset
+	 *            int - offset of the field in record's data.
+	 * @param length
+	 *            int - length of the field.
+	 * @return String - decoded field.
+	 */
+	private String text(final int offset, final int length) {
+		for (int i = 0; i < length; ++i) {
+			char c = (char) (bytes[offset + i] & 0xff);
+			chars[i] = c == '\0' ? ' ' : c;
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Returns the index of the first character of given field range that is not a whitespace
+	 * (i.e. it is greater than space character - see {@link String#trim()}).
+	 *
+	 * @param start
+	 *            int - offset of the first byte of the range.
+	 * @param end
+	 *            int - offset following the last byte of the range.
+	 * @return int - the index of the first character that is not a whitespace or
+	 *         <code>end</code> if there is no such character.
+	 */
+	private int skipLeading(int start, final int end) {
+		while (start < end && (bytes[start] & 0xff) <= ' ') {
+			++start;
+		}
+		return start;
+	}
+
+	/**
+	 * Returns the index following the last character of given field range that is not a
+	 * whitespace (see {@link String#trim()}).
+	 *
+	 * @param start
+	 *            int - offset of the first byte of the range.
+	 * @param end
+	 *            int - offset following the last byte of the range.
+	 * @return int - the index following the last character that is not a whitespace or
+	 *         <code>start</code> if there is no such character.
+	 */
+	private int skipTrailing(final int start, int end) {
+		while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+			--end;
+		}
+		return end;
+	}
+
+	/**
+	 * Parses integer field in place - if the field cannot be parsed given default value is
+	 * returned.
+	 *
+	 * @param offset
+	 *            int - offset of the field in record's data.
+	 * @param length
+	 *            int - length of the field.
+	 * @param defaultValue
+	 *            int - value returned if the field cannot be parsed.
+	 * @return int - parsed value or <code>defaultValue</code>.
+	 * @see suncertify.core.StringHelper#intValue(String, int)
+	 */
+	private int intValue(final int offset, final int length, final int defaultValue) {
+		int end = skipTrailing(offset, offset + length);
+		int i = skipLeading(offset, end);
+
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			++i;
+		}
+		if (i == end) {
+			return defaultValue;
+		}
+
+		long value = 0;
+		for (; i < end; ++i) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return defaultValue;
+			}
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				return defaultValue;
+			}
+		}
+
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE) {
+			return defaultValue;
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses money field in place. Plain decimal values (optional sign, digits and optional
+	 * fraction) are computed directly - such computation is exact, because both mantissa and
+	 * power of ten are exact <code>double</code> values and division is correctly rounded. All
+	 * other values are left to {@link Double#parseDouble(String)}.
+	 *
+	 * @param offset
+	 *            int - offset of the field in record's data.
+	 * @param length
+	 *            int - length of the field.
+	 * @return Money - parsed value.
+	 * @see Money#valueOf(String)
+	 */
+	private Money money(final int offset, final int length) {
+		String symbol = SYMBOLS[bytes[offset] & 0xff];
+
+		int end = skipTrailing(offset + 1, offset + length);
+		int start = skipLeading(offset + 1, end);
+		int i = start;
+
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			++i;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		for (; i < end; ++i) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				++digits;
+				if (scale >= 0) {
+					++scale;
+				}
+			} else if (b == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				break;
+			}
+		}
+
+		if (i == end && digits > 0 && mantissa < MAX_EXACT_MANTISSA && scale < POWERS_OF_TEN.length) {
+			double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+			return new Money(negative ? -value : value, symbol);
+		}
+
+		// XXX: exponents, special values, etc.
+		for (int j = start; j < end; ++j) {
+			chars[j - start] = (char) (bytes[j] & 0xff);
+		}
+		try {
+			return new Money(Double.parseDouble(new String(chars, 0, end - start)), symbol);
+		} catch (NumberFormatException e) {
+			return new Money(0.0, symbol);
+		}
+	}
+
+	/**
+	 * Writes given string into the scratch buffer as a field of given length - it is truncated
+	 * or padded with spaces if needed.
+	 *
+	 * @param string
+	 *            String - string to be written.
+	 * @param offset
+	 *            int - offset of the field in record's data.
+	 * @param length
+	 *            int - length of the field.
+	 * @return int - offset of the next field.
+	 * @see suncertify.core.StringHelper#setStringLength(String, int)
+	 */
+	private int putText(final String string, final int offset, final int length) {
+		int count = Math.min(string.length(), length);
+		for (int i = 0; i < count; ++i) {
+			char c = string.charAt(i);
+			bytes[offset + i] = c == '\0' ? (byte) ' ' : (c > 0xff ? (byte) '?' : (byte) c);
+		}
+		for (int i = count; i < length; ++i) {
+			bytes[offset + i] = ' ';
+		}
+		return offset + length;
+	}
+
+	/**
+	 * Writes decimal representation of given value into the scratch buffer as a field of given
+	 * length - it is truncated or padded with spaces if needed.
+	 *
+	 * @param value
+	 *            int - value to be written.
+	 * @param offset
+	 *            int - offset of the field in record's data.
+	 * @param length
+	 *            int - length of the field.
+	 * @return int - offset of the next field.
+	 * @see Integer#toString(int)
+	 */
+	private int putInt(final int value, final int offset, final int length) {
+		// digits are written backwards into the character buffer first
+		long remaining = Math.abs((long) value);
+		int count = 0;
+		do {
+			chars[count++] = (char) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining > 0);
+		if (value < 0) {
+			chars[count++] = '-';
+		}
+
+		for (int i = 0; i < length; ++i) {
+			bytes[offset + i] = i < count ? (byte) chars[count - 1 - i] : (byte) ' ';
+		}
+		return offset + length;
+	}
+}
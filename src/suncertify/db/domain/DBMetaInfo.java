@@ -34,6 +34,12 @@ public final class DBMetaInfo {
 	 */
 	public static final int FLAG_LENGTH = 1;
 
+	/**
+	 * Length (in bytes) of a single slot in the data section of DB file - record flag followed by
+	 * record's data.
+	 */
+	public static final int SLOT_LENGTH = FLAG_LENGTH + RECORD_LENGTH;
+
 	/**
 	 * Number of fields in each record.
 	 */
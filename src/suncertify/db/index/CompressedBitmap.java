@@ -0,0 +1,727 @@
+package suncertify.db.index;
+
+import java.util.BitSet;
+
+/**
+ * <code>CompressedBitmap</code> is a compressed set of record numbers organized the same way as
+ * <i>Roaring</i> bitmaps - numbers are partitioned into chunks of 65536 numbers sharing the same
+ * upper 16 bits and each chunk is kept in a container suitable for its density:
+ * <ul>
+ * <li>sparse chunk (up to {@link #ARRAY_LIMIT} numbers) - sorted array of lower 16 bits</li>
+ * <li>dense chunk - bitmap of 65536 bits</li>
+ * </ul>
+ * Sets are combined with {@link #and(CompressedBitmap)}, {@link #or(CompressedBitmap)} and
+ * {@link #andNot(CompressedBitmap)} chunk by chunk - dense chunks are combined word by word.
+ * Combinations return new bitmaps and do not change combined ones.<br>
+ * <br>
+ * Instances of this class are not thread safe - they are guarded by the index that owns them.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.OwnerIndex
+ */
+class CompressedBitmap {
+	/**
+	 * Maximum number of values kept in a sorted array.
+	 */
+	static final int ARRAY_LIMIT = 4096;
+
+	/**
+	 * Number of words of a dense chunk.
+	 */
+	private static final int WORDS = 1024;
+
+	/**
+	 * Sorted upper 16 bits of numbers of the chunks.
+	 */
+	private char[] keys;
+
+	/**
+	 * Containers of the chunks.
+	 */
+	private Container[] containers;
+
+	/**
+	 * Number of chunks.
+	 */
+	private int size;
+
+	/**
+	 * Constructs empty <code>CompressedBitmap</code>.
+	 */
+	CompressedBitmap() {
+		this(4);
+	}
+
+	/**
+	 * Constructs empty <code>CompressedBitmap</code> with given capacity of chunks.
+	 *
+	 * @param capacity
+	 *            int - initial number of chunks.
+	 */
+	private CompressedBitmap(final int capacity) {
+		keys = new char[Math.max(capacity, 1)];
+		containers = new Container[keys.length];
+	}
+
+	/**
+	 * Adds given record number to the set.
+	 *
+	 * @param recNo
+	 *            int - record number (not negative).
+	 */
+	void add(final int recNo) {
+		char key = (char) (recNo >>> 16);
+		int i = indexOf(key);
+		if (i < 0) {
+			i = -(i + 1);
+			insert(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char) recNo);
+	}
+
+	/**
+	 * Removes given record number from the set.
+	 *
+	 * @param recNo
+	 *            int - record number (not negative).
+	 */
+	void remove(final int recNo) {
+		int i = indexOf((char) (recNo >>> 16));
+		if (i < 0) {
+			return;
+		}
+
+		containers[i] = containers[i].remove((char) recNo);
+		if (containers[i].cardinality() == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+	}
+
+	/**
+	 * Checks if the set contains given record number.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return boolean - <code>true</code> if the set contains given number and <code>false</code>
+	 *         otherwise.
+	 */
+	boolean contains(final int recNo) {
+		int i = indexOf((char) (recNo >>> 16));
+		return i >= 0 && containers[i].contains((char) recNo);
+	}
+
+	/**
+	 * Checks if the set is empty.
+	 *
+	 * @return boolean - <code>true</code> if the set is empty and <code>false</code> otherwise.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of record numbers in the set.
+	 *
+	 * @return int - the number of record numbers in the set.
+	 */
+	int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; ++i) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Returns the intersection of this set and given set.
+	 *
+	 * @param other
+	 *            CompressedBitmap - other set.
+	 * @return CompressedBitmap - new set of numbers contained in both sets.
+	 */
+	CompressedBitmap and(final CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(Math.min(size, other.size));
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				++i;
+			} else if (keys[i] > other.keys[j]) {
+				++j;
+			} else {
+				result.append(keys[i], containers[i++].and(other.containers[j++]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the union of this set and given set.
+	 *
+	 * @param other
+	 *            CompressedBitmap - other set.
+	 * @return CompressedBitmap - new set of numbers contained in any of sets.
+	 */
+	CompressedBitmap or(final CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i++].copy());
+			} else if (i == size || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j++].copy());
+			} else {
+				result.append(keys[i], containers[i++].or(other.containers[j++]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the difference of this set and given set.
+	 *
+	 * @param other
+	 *            CompressedBitmap - other set.
+	 * @return CompressedBitmap - new set of numbers contained in this set and not contained in
+	 *         given set.
+	 */
+	CompressedBitmap andNot(final CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(size);
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			while (j < other.size && other.keys[j] < keys[i]) {
+				++j;
+			}
+
+			if (j < other.size && other.keys[j] == keys[i]) {
+				result.append(keys[i], containers[i].andNot(other.containers[j]));
+			} else {
+				result.append(keys[i], containers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the copy of this set.
+	 *
+	 * @return CompressedBitmap - the copy of this set.
+	 */
+	CompressedBitmap copy() {
+		CompressedBitmap result = new CompressedBitmap(size);
+		for (int i = 0; i < size; ++i) {
+			result.append(keys[i], containers[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the set as a bit set.
+	 *
+	 * @return BitSet - bit set indexed by record numbers of the set.
+	 */
+	BitSet toBitSet() {
+		BitSet bits = new BitSet();
+		for (int i = 0; i < size; ++i) {
+			containers[i].addTo(bits, keys[i] << 16);
+		}
+		return bits;
+	}
+
+	/**
+	 * Appends given chunk - its key must be greater than keys of all chunks. Empty chunks are
+	 * skipped.
+	 *
+	 * @param key
+	 *            char - upper 16 bits of numbers of the chunk.
+	 * @param container
+	 *            Container - container of the chunk.
+	 */
+	private void append(final char key, final Container container) {
+		if (container.cardinality() > 0) {
+			insert(size, key, container);
+		}
+	}
+
+	/**
+	 * Inserts given chunk at given position.
+	 *
+	 * @param i
+	 *            int - position of the chunk.
+	 * @param key
+	 *            char - upper 16 bits of numbers of the chunk.
+	 * @param container
+	 *            Container - container of the chunk.
+	 */
+	private void insert(final int i, final char key, final Container container) {
+		if (size == keys.length) {
+			char[] newKeys = new char[size * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			keys = newKeys;
+
+			Container[] newContainers = new Container[size * 2];
+			System.arraycopy(containers, 0, newContainers, 0, size);
+			containers = newContainers;
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		++size;
+	}
+
+	/**
+	 * Returns the position of the chunk with given key.
+	 *
+	 * @param key
+	 *            char - upper 16 bits of numbers of the chunk.
+	 * @return int - position of the chunk or <code>(-(insertion point) - 1)</code> if there is no
+	 *         such chunk.
+	 */
+	private int indexOf(final char key) {
+		return binarySearch(keys, size, key);
+	}
+
+	/**
+	 * Searches given sorted array for given value.
+	 *
+	 * @param array
+	 *            char[] - sorted array.
+	 * @param length
+	 *            int - number of values in the array.
+	 * @param value
+	 *            char - searched value.
+	 * @return int - position of given value or <code>(-(insertion point) - 1)</code> if the
+	 *         array does not contain given value.
+	 */
+	private static int binarySearch(final char[] array, final int length, final char value) {
+		int low = 0;
+		int high = length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (array[middle] < value) {
+				low = middle + 1;
+			} else if (array[middle] > value) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Container of lower 16 bits of numbers of a chunk. Methods changing the container return
+	 * the container that replaces it - its representation may change with the number of values.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private abstract static class Container {
+		/**
+		 * Adds given value.
+		 *
+		 * @param value
+		 *            char - lower 16 bits of the number.
+		 * @return Container - container replacing this one.
+		 */
+		abstract Container add(char value);
+
+		/**
+		 * Removes given value.
+		 *
+		 * @param value
+		 *            char - lower 16 bits of the number.
+		 * @return Container - container replacing this one.
+		 */
+		abstract Container remove(char value);
+
+		/**
+		 * Checks if the container contains given value.
+		 *
+		 * @param value
+		 *            char - lower 16 bits of the number.
+		 * @return boolean - <code>true</code> if the container contains given value and
+		 *         <code>false</code> otherwise.
+		 */
+		abstract boolean contains(char value);
+
+		/**
+		 * Returns the number of values.
+		 *
+		 * @return int - the number of values.
+		 */
+		abstract int cardinality();
+
+		/**
+		 * Returns the copy of the container.
+		 *
+		 * @return Container - the copy of the container.
+		 */
+		abstract Container copy();
+
+		/**
+		 * Returns the bitmap of values of the container.
+		 *
+		 * @return long[] - the bitmap of values.
+		 */
+		abstract long[] toWords();
+
+		/**
+		 * Sets bits of all numbers of the container in given bit set.
+		 *
+		 * @param bits
+		 *            BitSet - bit set indexed by record numbers.
+		 * @param base
+		 *            int - upper 16 bits of numbers of the chunk (shifted).
+		 */
+		abstract void addTo(BitSet bits, int base);
+
+		/**
+		 * Returns the intersection of this container and given container.
+		 *
+		 * @param other
+		 *            Container - other container.
+		 * @return Container - new container.
+		 */
+		Container and(final Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, true);
+			}
+			if (other instanceof ArrayContainer) {
+				return ((ArrayContainer) other).filter(this, true);
+			}
+
+			long[] words = toWords();
+			long[] otherWords = other.toWords();
+			for (int i = 0; i < WORDS; ++i) {
+				words[i] &= otherWords[i];
+			}
+			return BitmapContainer.valueOf(words);
+		}
+
+		/**
+		 * Returns the union of this container and given container.
+		 *
+		 * @param other
+		 *            Container - other container.
+		 * @return Container - new container.
+		 */
+		Container or(final Container other) {
+			if (cardinality() + other.cardinality() <= ARRAY_LIMIT) {
+				Container result = copy();
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; ++i) {
+					result = result.add(array.values[i]);
+				}
+				return result;
+			}
+
+			long[] words = toWords();
+			long[] otherWords = other.toWords();
+			for (int i = 0; i < WORDS; ++i) {
+				words[i] |= otherWords[i];
+			}
+			return BitmapContainer.valueOf(words);
+		}
+
+		/**
+		 * Returns the difference of this container and given container.
+		 *
+		 * @param other
+		 *            Container - other container.
+		 * @return Container - new container.
+		 */
+		Container andNot(final Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, false);
+			}
+
+			long[] words = toWords();
+			long[] otherWords = other.toWords();
+			for (int i = 0; i < WORDS; ++i) {
+				words[i] &= ~otherWords[i];
+			}
+			return BitmapContainer.valueOf(words);
+		}
+	}
+
+	/**
+	 * Container of a sparse chunk - sorted array of values.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class ArrayContainer extends Container {
+		/**
+		 * Sorted values.
+		 */
+		private char[] values;
+
+		/**
+		 * Number of values.
+		 */
+		private int cardinality;
+
+		/**
+		 * Constructs empty <code>ArrayContainer</code>.
+		 */
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		/**
+		 * Constructs <code>ArrayContainer</code> with given values.
+		 *
+		 * @param values
+		 *            char[] - sorted values.
+		 * @param cardinality
+		 *            int - number of values.
+		 */
+		ArrayContainer(final char[] values, final int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * @see Container#add(char)
+		 */
+		Container add(final char value) {
+			int i = binarySearch(values, cardinality, value);
+			if (i >= 0) {
+				return this;
+			}
+
+			if (cardinality == ARRAY_LIMIT) {
+				return new BitmapContainer(toWords(), cardinality).add(value);
+			}
+
+			i = -(i + 1);
+			if (cardinality == values.length) {
+				char[] newValues = new char[Math.min(cardinality * 2, ARRAY_LIMIT)];
+				System.arraycopy(values, 0, newValues, 0, cardinality);
+				values = newValues;
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			++cardinality;
+			return this;
+		}
+
+		/**
+		 * @see Container#remove(char)
+		 */
+		Container remove(final char value) {
+			int i = binarySearch(values, cardinality, value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				--cardinality;
+			}
+			return this;
+		}
+
+		/**
+		 * @see Container#contains(char)
+		 */
+		boolean contains(final char value) {
+			return binarySearch(values, cardinality, value) >= 0;
+		}
+
+		/**
+		 * @see Container#cardinality()
+		 */
+		int cardinality() {
+			return cardinality;
+		}
+
+		/**
+		 * @see Container#copy()
+		 */
+		Container copy() {
+			char[] newValues = new char[Math.max(cardinality, 1)];
+			System.arraycopy(values, 0, newValues, 0, cardinality);
+			return new ArrayContainer(newValues, cardinality);
+		}
+
+		/**
+		 * @see Container#toWords()
+		 */
+		long[] toWords() {
+			long[] words = new long[WORDS];
+			for (int i = 0; i < cardinality; ++i) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			return words;
+		}
+
+		/**
+		 * @see Container#addTo(BitSet, int)
+		 */
+		void addTo(final BitSet bits, final int base) {
+			for (int i = 0; i < cardinality; ++i) {
+				bits.set(base | values[i]);
+			}
+		}
+
+		/**
+		 * Returns values of this container that are (or are not) contained in given container.
+		 *
+		 * @param other
+		 *            Container - other container.
+		 * @param contained
+		 *            boolean - <code>true</code> if values contained in given container are
+		 *            returned and <code>false</code> if values not contained in it are returned.
+		 * @return Container - new container.
+		 */
+		Container filter(final Container other, final boolean contained) {
+			char[] newValues = new char[Math.max(cardinality, 1)];
+			int newCardinality = 0;
+			for (int i = 0; i < cardinality; ++i) {
+				if (other.contains(values[i]) == contained) {
+					newValues[newCardinality++] = values[i];
+				}
+			}
+			return new ArrayContainer(newValues, newCardinality);
+		}
+	}
+
+	/**
+	 * Container of a dense chunk - bitmap of 65536 bits.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class BitmapContainer extends Container {
+		/**
+		 * Bitmap of values.
+		 */
+		private final long[] words;
+
+		/**
+		 * Number of values.
+		 */
+		private int cardinality;
+
+		/**
+		 * Constructs <code>BitmapContainer</code> with given bitmap.
+		 *
+		 * @param words
+		 *            long[] - bitmap of values.
+		 * @param cardinality
+		 *            int - number of values.
+		 */
+		BitmapContainer(final long[] words, final int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * Returns container with values of given bitmap - sparse values are converted to an
+		 * array.
+		 *
+		 * @param words
+		 *            long[] - bitmap of values.
+		 * @return Container - container with given values.
+		 */
+		static Container valueOf(final long[] words) {
+			int cardinality = 0;
+			for (int i = 0; i < WORDS; ++i) {
+				cardinality += Long.bitCount(words[i]);
+			}
+
+			if (cardinality > ARRAY_LIMIT) {
+				return new BitmapContainer(words, cardinality);
+			}
+			return toArray(words, cardinality);
+		}
+
+		/**
+		 * Converts given bitmap into an array container.
+		 *
+		 * @param words
+		 *            long[] - bitmap of values.
+		 * @param cardinality
+		 *            int - number of values.
+		 * @return ArrayContainer - container with given values.
+		 */
+		private static ArrayContainer toArray(final long[] words, final int cardinality) {
+			char[] values = new char[Math.max(cardinality, 1)];
+			int n = 0;
+			for (int i = 0; i < WORDS; ++i) {
+				long word = words[i];
+				while (word != 0) {
+					values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+
+		/**
+		 * @see Container#add(char)
+		 */
+		Container add(final char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				++cardinality;
+			}
+			return this;
+		}
+
+		/**
+		 * @see Container#remove(char)
+		 */
+		Container remove(final char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) != 0) {
+				words[value >>> 6] &= ~bit;
+				if (--cardinality <= ARRAY_LIMIT) {
+					return toArray(words, cardinality);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * @see Container#contains(char)
+		 */
+		boolean contains(final char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		/**
+		 * @see Container#cardinality()
+		 */
+		int cardinality() {
+			return cardinality;
+		}
+
+		/**
+		 * @see Container#copy()
+		 */
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		/**
+		 * @see Container#toWords()
+		 */
+		long[] toWords() {
+			return words.clone();
+		}
+
+		/**
+		 * @see Container#addTo(BitSet, int)
+		 */
+		void addTo(final BitSet bits, final int base) {
+			for (int i = 0; i < WORDS; ++i) {
+				long word = words[i];
+				while (word != 0) {
+					bits.set(base + (i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+	}
+}
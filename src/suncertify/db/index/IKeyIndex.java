@@ -0,0 +1,48 @@
+package suncertify.db.index;
+
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.domain.Contractor;
+
+/**
+ * <code>IKeyIndex</code> guards uniqueness of the unique key of valid records - name and
+ * location (see {@link Contractor#equals(Object)}).<br>
+ * <br>
+ * A key is reserved for a record before the record is written (see {@link #reserve(Contractor)}),
+ * so two records with the same key cannot be written concurrently. After the record is written
+ * (and put into the record store) the index is updated with {@link #put(Contractor)} or the
+ * reservation is released with {@link #release(Contractor)} if the write failed.<br>
+ * <br>
+ * Implementations must be thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+public interface IKeyIndex {
+	/**
+	 * Reserves the unique key of given valid record for the record.
+	 *
+	 * @param record
+	 *            Contractor - valid record to be written.
+	 * @return boolean - <code>true</code> if the key was reserved and <code>false</code> if the
+	 *         key already belongs to given record.
+	 * @throws DuplicateKeyException
+	 *             If the key belongs to another record.
+	 */
+	public boolean reserve(Contractor record) throws DuplicateKeyException;
+
+	/**
+	 * Releases the key reserved for given record that was not written.
+	 *
+	 * @param record
+	 *            Contractor - record which key was reserved.
+	 */
+	public void release(Contractor record);
+
+	/**
+	 * Puts given written record (valid or deleted) into the index.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	public void put(Contractor record);
+}
@@ -0,0 +1,189 @@
+package suncertify.db.index;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.core.StringHelper;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>InvertedIndex</code> indexes a field holding comma separated values (e.g. specialties)
+ * of valid records. Each normalized value (see {@link StringHelper#toTokenSet(String)}) has a
+ * posting list of numbers of records containing it. The vocabulary of such fields is small
+ * comparing to the number of records, so posting lists are kept as bit sets indexed by record
+ * numbers - records containing several values are found by intersection of bit sets.<br>
+ * <br>
+ * The index is guarded by a read-write lock - searches do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+class InvertedIndex {
+	/**
+	 * Index of the indexed field.
+	 */
+	private final int field;
+
+	/**
+	 * Posting lists (key: normalized value; value: bit set indexed by numbers of records
+	 * containing the value).
+	 */
+	private final Map<String, BitSet> postings = new HashMap<String, BitSet>();
+
+	/**
+	 * Normalized values of indexed records (key: record no; value: normalized values).
+	 */
+	private final Map<Integer, Set<String>> values = new HashMap<Integer, Set<String>>();
+
+	/**
+	 * Read lock of the index.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the index.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Constructs empty <code>InvertedIndex</code> of given field.
+	 *
+	 * @param field
+	 *            int - index of the field (see {@link Contractor#toStrings()}).
+	 */
+	InvertedIndex(final int field) {
+		this.field = field;
+
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Puts given record (valid or deleted) into the index - the record is removed from posting
+	 * lists of its previous values and values of valid record are added.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	void put(final Contractor record) {
+		int recNo = record.getId();
+		Set<String> tokens = null;
+		if (record.getFlag() != RecordFlagEnum.INVALID) {
+			tokens = StringHelper.toTokenSet(record.toStrings()[field]);
+		}
+
+		writeLock.lock();
+		try {
+			Set<String> previousTokens = values.remove(recNo);
+			if (previousTokens != null) {
+				for (String token : previousTokens) {
+					BitSet bits = postings.get(token);
+					bits.clear(recNo);
+					if (bits.isEmpty()) {
+						postings.remove(token);
+					}
+				}
+			}
+
+			if (tokens != null && !tokens.isEmpty()) {
+				for (String token : tokens) {
+					BitSet bits = postings.get(token);
+					if (bits == null) {
+						bits = new BitSet();
+						postings.put(token, bits);
+					}
+					bits.set(recNo);
+				}
+				values.put(recNo, tokens);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of valid records containing all given values.
+	 *
+	 * @param tokens
+	 *            Set&lt;String&gt; - normalized values (see
+	 *            {@link StringHelper#toTokenSet(String)}), at least one.
+	 * @return BitSet - bit set indexed by numbers of matching records.
+	 */
+	BitSet find(final Set<String> tokens) {
+		BitSet result = null;
+		readLock.lock();
+		try {
+			for (String token : tokens) {
+				BitSet bits = postings.get(token);
+				if (bits == null) {
+					return new BitSet();
+				}
+
+				if (result == null) {
+					result = (BitSet) bits.clone();
+				} else {
+					result.and(bits);
+				}
+			}
+		} finally {
+			readLock.unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the estimated number of valid records containing all given values - the size of
+	 * the shortest posting list.
+	 *
+	 * @param tokens
+	 *            Set&lt;String&gt; - normalized values (see
+	 *            {@link StringHelper#toTokenSet(String)}), at least one.
+	 * @return int - the upper bound of the number of matching records.
+	 */
+	int count(final Set<String> tokens) {
+		int count = Integer.MAX_VALUE;
+		readLock.lock();
+		try {
+			for (String token : tokens) {
+				BitSet bits = postings.get(token);
+				if (bits == null) {
+					return 0;
+				}
+				count = Math.min(count, bits.cardinality());
+			}
+		} finally {
+			readLock.unlock();
+		}
+		return count;
+	}
+
+	/**
+	 * Removes records which do not contain all given values from given candidates.
+	 *
+	 * @param candidates
+	 *            BitSet - bit set indexed by numbers of candidate records.
+	 * @param tokens
+	 *            Set&lt;String&gt; - normalized values (see
+	 *            {@link StringHelper#toTokenSet(String)}), at least one.
+	 */
+	void retain(final BitSet candidates, final Set<String> tokens) {
+		readLock.lock();
+		try {
+			for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+				Set<String> recordTokens = values.get(recNo);
+				if (recordTokens == null || !recordTokens.containsAll(tokens)) {
+					candidates.clear(recNo);
+				}
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+}
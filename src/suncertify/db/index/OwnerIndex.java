@@ -0,0 +1,311 @@
+package suncertify.db.index;
+
+import static suncertify.db.domain.DBMetaInfo.UNSAVED_RECORD_NO;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.db.RangeOperatorEnum;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.DBType;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>OwnerIndex</code> is a bitmap index of availability of valid records. It keeps
+ * compressed bitmaps (see {@link CompressedBitmap}) of:
+ * <ul>
+ * <li>all valid records</li>
+ * <li>available records - owner is empty (or zero)</li>
+ * <li>records booked by each customer</li>
+ * </ul>
+ * Booked records are all valid records except available ones - equality criteria of the owner
+ * field (see {@link RangeOperatorEnum#EQUAL} and {@link RangeOperatorEnum#NOT_EQUAL}) are
+ * resolved by AND, OR and ANDNOT of these bitmaps.<br>
+ * <br>
+ * Owner is parsed from the string representation of the field the same way as by
+ * {@link RangeIndex} - owner that cannot be parsed equals any owner.<br>
+ * <br>
+ * The index is guarded by a read-write lock - searches do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+class OwnerIndex {
+	/**
+	 * Index of the owner field.
+	 */
+	private final int field;
+
+	/**
+	 * Numbers of all valid records.
+	 */
+	private final CompressedBitmap valid = new CompressedBitmap();
+
+	/**
+	 * Numbers of available records.
+	 */
+	private final CompressedBitmap available = new CompressedBitmap();
+
+	/**
+	 * Numbers of records which owner cannot be parsed.
+	 */
+	private final CompressedBitmap unordered = new CompressedBitmap();
+
+	/**
+	 * Numbers of records booked by each customer.
+	 */
+	private final Map<Integer, CompressedBitmap> bookings = new HashMap<Integer, CompressedBitmap>();
+
+	/**
+	 * Owners of indexed records (indexed by record numbers).
+	 */
+	private int[] owners = new int[16];
+
+	/**
+	 * Read lock of the index.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the index.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Constructs empty <code>OwnerIndex</code> of given owner field.
+	 *
+	 * @param field
+	 *            int - index of the field (see {@link Contractor#toStrings()}).
+	 */
+	OwnerIndex(final int field) {
+		this.field = field;
+
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Checks if given comparison can be resolved by the index.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @return boolean - <code>true</code> for equality comparisons and <code>false</code>
+	 *         otherwise.
+	 */
+	static boolean supports(final RangeOperatorEnum operator) {
+		return operator == RangeOperatorEnum.EQUAL || operator == RangeOperatorEnum.NOT_EQUAL;
+	}
+
+	/**
+	 * Puts given record (valid or deleted) into the index - the previous owner of the record is
+	 * removed and the owner of valid record is added.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	void put(final Contractor record) {
+		int recNo = record.getId();
+		boolean isValid = record.getFlag() != RecordFlagEnum.INVALID;
+		double owner = isValid ? RangeIndex.valueOf(record.toStrings()[field], DBType.INTEGER) : 0;
+
+		writeLock.lock();
+		try {
+			if (valid.contains(recNo)) {
+				remove(recNo);
+			}
+
+			if (isValid) {
+				add(recNo, owner);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of valid records which owner meets given equality comparison.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - {@link RangeOperatorEnum#EQUAL} or
+	 *            {@link RangeOperatorEnum#NOT_EQUAL}.
+	 * @param value
+	 *            double - owner (see {@link RangeIndex#valueOf(String, DBType)}).
+	 * @return BitSet - bit set indexed by numbers of matching records.
+	 * @throws IllegalArgumentException
+	 *             If given operator is not supported (see {@link #supports(RangeOperatorEnum)}).
+	 */
+	BitSet find(final RangeOperatorEnum operator, final double value) throws IllegalArgumentException {
+		if (!supports(operator)) {
+			throw new IllegalArgumentException("Operator " + operator + " is not supported by owner index.");
+		}
+		boolean equal = operator == RangeOperatorEnum.EQUAL;
+
+		readLock.lock();
+		try {
+			if (Double.isNaN(value)) {
+				// XXX: owner that cannot be parsed equals any owner
+				return equal ? valid.toBitSet() : new BitSet();
+			}
+
+			CompressedBitmap owned = bookedBy(value);
+			if (equal) {
+				return owned.or(unordered).toBitSet();
+			}
+			return valid.andNot(owned).andNot(unordered).toBitSet();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of valid records which owner meets given equality comparison.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - {@link RangeOperatorEnum#EQUAL} or
+	 *            {@link RangeOperatorEnum#NOT_EQUAL}.
+	 * @param value
+	 *            double - owner (see {@link RangeIndex#valueOf(String, DBType)}).
+	 * @return int - the number of matching records.
+	 */
+	int count(final RangeOperatorEnum operator, final double value) {
+		boolean equal = operator == RangeOperatorEnum.EQUAL;
+
+		readLock.lock();
+		try {
+			if (Double.isNaN(value)) {
+				return equal ? valid.cardinality() : 0;
+			}
+
+			int owned = bookedBy(value).cardinality();
+			if (equal) {
+				return owned + unordered.cardinality();
+			}
+			return valid.cardinality() - owned - unordered.cardinality();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes records which owner does not meet given equality comparison from given candidates.
+	 *
+	 * @param candidates
+	 *            BitSet - bit set indexed by numbers of candidate records.
+	 * @param operator
+	 *            RangeOperatorEnum - {@link RangeOperatorEnum#EQUAL} or
+	 *            {@link RangeOperatorEnum#NOT_EQUAL}.
+	 * @param value
+	 *            double - owner (see {@link RangeIndex#valueOf(String, DBType)}).
+	 */
+	void retain(final BitSet candidates, final RangeOperatorEnum operator, final double value) {
+		boolean equal = operator == RangeOperatorEnum.EQUAL;
+
+		readLock.lock();
+		try {
+			if (Double.isNaN(value) && !equal) {
+				candidates.clear();
+				return;
+			}
+
+			// XXX: owner that cannot be parsed equals any owner
+			CompressedBitmap owned = Double.isNaN(value) ? valid : bookedBy(value);
+			for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+				boolean matches;
+				if (equal) {
+					matches = owned.contains(recNo) || unordered.contains(recNo);
+				} else {
+					matches = valid.contains(recNo) && !owned.contains(recNo) && !unordered.contains(recNo);
+				}
+
+				if (!matches) {
+					candidates.clear(recNo);
+				}
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of records with given owner. Caller must hold a lock.
+	 *
+	 * @param value
+	 *            double - owner (not <code>NaN</code>).
+	 * @return CompressedBitmap - numbers of available records if given owner is empty and
+	 *         numbers of records booked by given customer otherwise.
+	 */
+	private CompressedBitmap bookedBy(final double value) {
+		if (value == UNSAVED_RECORD_NO) {
+			return available;
+		}
+
+		CompressedBitmap owned = null;
+		if (value == (int) value) {
+			owned = bookings.get((int) value);
+		}
+		return owned != null ? owned : new CompressedBitmap();
+	}
+
+	/**
+	 * Adds given record to the index. Caller must hold the write lock.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @param owner
+	 *            double - owner of the record.
+	 */
+	private void add(final int recNo, final double owner) {
+		valid.add(recNo);
+		if (Double.isNaN(owner)) {
+			unordered.add(recNo);
+			return;
+		}
+		if (owner == UNSAVED_RECORD_NO) {
+			available.add(recNo);
+			return;
+		}
+
+		if (recNo >= owners.length) {
+			int[] newOwners = new int[Math.max(recNo + 1, owners.length * 2)];
+			System.arraycopy(owners, 0, newOwners, 0, owners.length);
+			owners = newOwners;
+		}
+		owners[recNo] = (int) owner;
+
+		CompressedBitmap owned = bookings.get(owners[recNo]);
+		if (owned == null) {
+			owned = new CompressedBitmap();
+			bookings.put(owners[recNo], owned);
+		}
+		owned.add(recNo);
+	}
+
+	/**
+	 * Removes given record from the index. Caller must hold the write lock.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 */
+	private void remove(final int recNo) {
+		valid.remove(recNo);
+		if (unordered.contains(recNo)) {
+			unordered.remove(recNo);
+			return;
+		}
+		if (available.contains(recNo)) {
+			available.remove(recNo);
+			return;
+		}
+
+		CompressedBitmap owned = bookings.get(owners[recNo]);
+		owned.remove(recNo);
+		if (owned.isEmpty()) {
+			bookings.remove(owners[recNo]);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package suncertify.db.index;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>PrefixIndex</code> is an ordered index of a text field of valid records. Values are
+ * normalized the same way as criteria of {@link suncertify.db.DBMain#find(String[])} (trimmed and
+ * upper-cased) and kept in a sorted map, so all values starting with given prefix form a single
+ * range of the map - records matching the prefix are found in logarithmic time plus the size of
+ * the result.<br>
+ * <br>
+ * The index is guarded by a read-write lock - searches do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+class PrefixIndex {
+	/**
+	 * Index of the indexed field.
+	 */
+	private final int field;
+
+	/**
+	 * Numbers of records (key: normalized value; value: numbers of records with this value).
+	 */
+	private final SortedMap<String, RecordNoSet> recordNos = new TreeMap<String, RecordNoSet>();
+
+	/**
+	 * Normalized values of indexed records (key: record no; value: normalized value).
+	 */
+	private final Map<Integer, String> values = new HashMap<Integer, String>();
+
+	/**
+	 * Read lock of the index.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the index.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Constructs empty <code>PrefixIndex</code> of given field.
+	 *
+	 * @param field
+	 *            int - index of the field (see {@link Contractor#toStrings()}).
+	 */
+	PrefixIndex(final int field) {
+		this.field = field;
+
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Puts given record (valid or deleted) into the index - the previous value of the record is
+	 * removed and the value of valid record is added.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	void put(final Contractor record) {
+		Integer recNo = record.getId();
+		String value = null;
+		if (record.getFlag() != RecordFlagEnum.INVALID) {
+			value = record.toStrings()[field].trim().toUpperCase();
+		}
+
+		writeLock.lock();
+		try {
+			String previousValue = values.remove(recNo);
+			if (previousValue != null) {
+				RecordNoSet set = recordNos.get(previousValue);
+				set.remove(recNo);
+				if (set.isEmpty()) {
+					recordNos.remove(previousValue);
+				}
+			}
+
+			if (value != null) {
+				RecordNoSet set = recordNos.get(value);
+				if (set == null) {
+					set = new RecordNoSet();
+					recordNos.put(value, set);
+				}
+				set.add(recNo);
+				values.put(recNo, value);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of valid records which value starts with given prefix.
+	 *
+	 * @param prefix
+	 *            String - normalized (trimmed and upper-cased) prefix.
+	 * @return BitSet - bit set indexed by numbers of matching records.
+	 */
+	BitSet find(final String prefix) {
+		BitSet bits = new BitSet();
+		readLock.lock();
+		try {
+			// XXX: all values starting with the prefix are lower than prefix followed by the highest character
+			for (RecordNoSet set : recordNos.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				set.addTo(bits);
+			}
+		} finally {
+			readLock.unlock();
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the number of valid records which value starts with given prefix.
+	 *
+	 * @param prefix
+	 *            String - normalized (trimmed and upper-cased) prefix.
+	 * @return int - the number of matching records.
+	 */
+	int count(final String prefix) {
+		int count = 0;
+		readLock.lock();
+		try {
+			for (RecordNoSet set : recordNos.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				count += set.size();
+			}
+		} finally {
+			readLock.unlock();
+		}
+		return count;
+	}
+
+	/**
+	 * Removes records which value does not start with given prefix from given candidates.
+	 *
+	 * @param candidates
+	 *            BitSet - bit set indexed by numbers of candidate records.
+	 * @param prefix
+	 *            String - normalized (trimmed and upper-cased) prefix.
+	 */
+	void retain(final BitSet candidates, final String prefix) {
+		readLock.lock();
+		try {
+			for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+				String value = values.get(recNo);
+				if (value == null || !value.startsWith(prefix)) {
+					candidates.clear(recNo);
+				}
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+}
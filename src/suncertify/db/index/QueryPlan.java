@@ -0,0 +1,124 @@
+package suncertify.db.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <code>QueryPlan</code> resolves criteria of a search by indexes in the order of their
+ * selectivity. Each criterion (see {@link Predicate}) estimates the number of matching records
+ * with statistics of its index before any record number is collected:
+ * <ol>
+ * <li>the most selective criterion collects candidate record numbers from its index</li>
+ * <li>each following criterion either intersects candidates with record numbers collected from
+ * its index or - when there are much less candidates than records matching the criterion -
+ * checks candidates one by one with values kept by its index</li>
+ * <li>the search stops as soon as there are no candidates left</li>
+ * </ol>
+ * This way a criterion matching almost all records (e.g. "size &gt;= 0") does not collect
+ * numbers of all records when another criterion matches a few of them.<br>
+ * <br>
+ * Instances of this class are not thread safe - plan is created for one search.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+class QueryPlan {
+	/**
+	 * Cost of checking one candidate relative to the cost of collecting one record number from an
+	 * index.
+	 */
+	private static final int CHECK_COST = 4;
+
+	/**
+	 * Criteria of the search.
+	 */
+	private final List<Predicate> predicates = new ArrayList<Predicate>();
+
+	/**
+	 * Adds given criterion to the plan.
+	 *
+	 * @param predicate
+	 *            Predicate - criterion resolved by an index.
+	 */
+	void add(final Predicate predicate) {
+		predicate.estimate = predicate.count();
+		predicates.add(predicate);
+	}
+
+	/**
+	 * Checks if the plan has no criteria.
+	 *
+	 * @return boolean - <code>true</code> if the plan has no criteria and <code>false</code>
+	 *         otherwise.
+	 */
+	boolean isEmpty() {
+		return predicates.isEmpty();
+	}
+
+	/**
+	 * Returns numbers of valid records matching all criteria of the plan.
+	 *
+	 * @return BitSet - bit set indexed by numbers of matching records or <code>null</code> if
+	 *         the plan has no criteria.
+	 */
+	BitSet execute() {
+		Collections.sort(predicates, new Comparator<Predicate>() {
+			public int compare(final Predicate predicate1, final Predicate predicate2) {
+				return predicate1.estimate < predicate2.estimate ? -1 : (predicate1.estimate == predicate2.estimate ? 0
+						: 1);
+			}
+		});
+
+		BitSet candidates = null;
+		for (Predicate predicate : predicates) {
+			if (candidates == null) {
+				candidates = predicate.find();
+			} else if (candidates.isEmpty()) {
+				break;
+			} else if (candidates.cardinality() * CHECK_COST < predicate.estimate) {
+				predicate.retain(candidates);
+			} else {
+				candidates.and(predicate.find());
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * <code>Predicate</code> is a criterion of the search resolved by an index.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	abstract static class Predicate {
+		/**
+		 * Estimated number of matching records.
+		 */
+		private int estimate;
+
+		/**
+		 * Returns the estimated number of valid records matching the criterion - it must not be
+		 * lower than the actual number.
+		 *
+		 * @return int - the estimated number of matching records.
+		 */
+		abstract int count();
+
+		/**
+		 * Returns numbers of valid records matching the criterion.
+		 *
+		 * @return BitSet - bit set indexed by numbers of matching records.
+		 */
+		abstract BitSet find();
+
+		/**
+		 * Removes records not matching the criterion from given candidates.
+		 *
+		 * @param candidates
+		 *            BitSet - bit set indexed by numbers of candidate records.
+		 */
+		abstract void retain(BitSet candidates);
+	}
+}
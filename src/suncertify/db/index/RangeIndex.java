@@ -0,0 +1,429 @@
+package suncertify.db.index;
+
+import static suncertify.db.domain.DBMetaInfo.UNSAVED_RECORD_NO;
+import static suncertify.db.domain.DBMetaInfo.getFieldType;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.db.RangeOperatorEnum;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.DBType;
+import suncertify.db.domain.Money;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>RangeIndex</code> is an ordered index of a numeric field (integer or money) of valid
+ * records. Distinct values are kept in a sorted <code>double</code> array (integers are
+ * represented exactly) with a posting list of record numbers for each value - records meeting a
+ * comparison (see {@link RangeOperatorEnum}) are found with a binary search and form one or two
+ * ranges of the array.<br>
+ * <br>
+ * Values are parsed from the string representation of the field (see
+ * {@link Contractor#toStrings()}) the same way as they are compared by the comparators of the DAO
+ * layer (see {@link #valueOf(String, DBType)}). Value that cannot be parsed equals any other
+ * value - it is kept apart from the ordered values.<br>
+ * <br>
+ * The index is guarded by a read-write lock - searches do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+class RangeIndex {
+	/**
+	 * Initial capacity of arrays.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Index of the indexed field.
+	 */
+	private final int field;
+
+	/**
+	 * Type of the indexed field.
+	 */
+	private final DBType type;
+
+	/**
+	 * Sorted distinct values.
+	 */
+	private double[] keys = new double[INITIAL_CAPACITY];
+
+	/**
+	 * Numbers of records with the value of the same position in {@link #keys}.
+	 */
+	private RecordNoSet[] postings = new RecordNoSet[INITIAL_CAPACITY];
+
+	/**
+	 * Number of distinct values.
+	 */
+	private int keyCount = 0;
+
+	/**
+	 * Values of indexed records (indexed by record numbers).
+	 */
+	private double[] values = new double[INITIAL_CAPACITY];
+
+	/**
+	 * Numbers of all indexed records.
+	 */
+	private final BitSet indexed = new BitSet();
+
+	/**
+	 * Numbers of records which value cannot be parsed.
+	 */
+	private final BitSet unordered = new BitSet();
+
+	/**
+	 * Read lock of the index.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the index.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Constructs empty <code>RangeIndex</code> of given numeric field.
+	 *
+	 * @param field
+	 *            int - index of the field (see {@link Contractor#toStrings()}).
+	 */
+	RangeIndex(final int field) {
+		this.field = field;
+		this.type = getFieldType(field);
+
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Returns numeric value of given string representation of integer or money field - empty
+	 * integer equals zero. Returned value is <code>NaN</code> if integer cannot be parsed.
+	 *
+	 * @param string
+	 *            String - string representation of the value.
+	 * @param type
+	 *            DBType - type of the field.
+	 * @return double - numeric value.
+	 * @throws IllegalArgumentException
+	 *             If money value is too short (see {@link Money#valueOf(String)}).
+	 * @see suncertify.db.dao.comparator.IntegerComparator
+	 * @see suncertify.db.dao.comparator.MoneyComparator
+	 */
+	static double valueOf(final String string, final DBType type) throws IllegalArgumentException {
+		if (type == DBType.MONEY) {
+			return Money.valueOf(string).getValue();
+		}
+
+		String trimmed = string.trim();
+		if (trimmed.length() == 0) {
+			return UNSAVED_RECORD_NO;
+		}
+		try {
+			return Integer.parseInt(trimmed);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Puts given record (valid or deleted) into the index - the previous value of the record is
+	 * removed and the value of valid record is added.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	void put(final Contractor record) {
+		int recNo = record.getId();
+		boolean valid = record.getFlag() != RecordFlagEnum.INVALID;
+		double value = valid ? valueOf(record.toStrings()[field], type) : 0;
+
+		writeLock.lock();
+		try {
+			if (indexed.get(recNo)) {
+				remove(recNo, values[recNo]);
+			}
+
+			if (valid) {
+				add(recNo, value);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of valid records which value meets given comparison.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison (see {@link #valueOf(String, DBType)}).
+	 * @return BitSet - bit set indexed by numbers of matching records.
+	 */
+	BitSet find(final RangeOperatorEnum operator, final double value) {
+		BitSet bits = new BitSet();
+		readLock.lock();
+		try {
+			if (Double.isNaN(value)) {
+				// XXX: value that cannot be parsed equals any value
+				if (isInclusive(operator)) {
+					bits.or(indexed);
+				}
+				return bits;
+			}
+
+			int[] bounds = getBounds(operator, value);
+			addTo(bits, bounds[0], bounds[1]);
+			addTo(bits, bounds[2], bounds[3]);
+			if (isInclusive(operator)) {
+				bits.or(unordered);
+			}
+		} finally {
+			readLock.unlock();
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the number of valid records which value meets given comparison.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison (see {@link #valueOf(String, DBType)}).
+	 * @return int - the number of matching records.
+	 */
+	int count(final RangeOperatorEnum operator, final double value) {
+		readLock.lock();
+		try {
+			if (Double.isNaN(value)) {
+				return isInclusive(operator) ? indexed.cardinality() : 0;
+			}
+
+			int[] bounds = getBounds(operator, value);
+			int count = isInclusive(operator) ? unordered.cardinality() : 0;
+			for (int i = bounds[0]; i < bounds[1]; ++i) {
+				count += postings[i].size();
+			}
+			for (int i = bounds[2]; i < bounds[3]; ++i) {
+				count += postings[i].size();
+			}
+			return count;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes records which value does not meet given comparison from given candidates.
+	 *
+	 * @param candidates
+	 *            BitSet - bit set indexed by numbers of candidate records.
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison (see {@link #valueOf(String, DBType)}).
+	 */
+	void retain(final BitSet candidates, final RangeOperatorEnum operator, final double value) {
+		readLock.lock();
+		try {
+			for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+				if (!indexed.get(recNo) || !matches(values[recNo], operator, value)) {
+					candidates.clear(recNo);
+				}
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if given value meets given comparison - value that cannot be parsed equals any
+	 * value.
+	 *
+	 * @param recordValue
+	 *            double - left side of the comparison.
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison.
+	 * @return boolean - <code>true</code> if given value meets the comparison and
+	 *         <code>false</code> otherwise.
+	 */
+	static boolean matches(final double recordValue, final RangeOperatorEnum operator, final double value) {
+		if (Double.isNaN(recordValue) || Double.isNaN(value)) {
+			return isInclusive(operator);
+		}
+
+		switch (operator) {
+			case LESS:
+				return recordValue < value;
+			case LESS_OR_EQUAL:
+				return recordValue <= value;
+			case EQUAL:
+				return recordValue == value;
+			case GREATER_OR_EQUAL:
+				return recordValue >= value;
+			case GREATER:
+				return recordValue > value;
+			default:
+				return recordValue != value;
+		}
+	}
+
+	/**
+	 * Checks if given operator is met by equal values.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @return boolean - <code>true</code> if equal values meet given operator and
+	 *         <code>false</code> otherwise.
+	 */
+	private static boolean isInclusive(final RangeOperatorEnum operator) {
+		return operator == RangeOperatorEnum.LESS_OR_EQUAL || operator == RangeOperatorEnum.EQUAL
+				|| operator == RangeOperatorEnum.GREATER_OR_EQUAL;
+	}
+
+	/**
+	 * Returns positions of values meeting given comparison - at most two ranges. Caller must hold
+	 * a lock.
+	 *
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison (not <code>NaN</code>).
+	 * @return int[] - first and last (exclusive) position of the first range followed by first
+	 *         and last (exclusive) position of the second range.
+	 */
+	private int[] getBounds(final RangeOperatorEnum operator, final double value) {
+		int lower = lowerBound(value);
+		int upper = lower < keyCount && keys[lower] == value ? lower + 1 : lower;
+		switch (operator) {
+			case LESS:
+				return new int[] { 0, lower, 0, 0 };
+			case LESS_OR_EQUAL:
+				return new int[] { 0, upper, 0, 0 };
+			case EQUAL:
+				return new int[] { lower, upper, 0, 0 };
+			case GREATER_OR_EQUAL:
+				return new int[] { lower, keyCount, 0, 0 };
+			case GREATER:
+				return new int[] { upper, keyCount, 0, 0 };
+			default:
+				return new int[] { 0, lower, upper, keyCount };
+		}
+	}
+
+	/**
+	 * Sets bits of all records with values of given range of positions.
+	 *
+	 * @param bits
+	 *            BitSet - bit set indexed by record numbers.
+	 * @param from
+	 *            int - first position (inclusive).
+	 * @param to
+	 *            int - last position (exclusive).
+	 */
+	private void addTo(final BitSet bits, final int from, final int to) {
+		for (int i = from; i < to; ++i) {
+			postings[i].addTo(bits);
+		}
+	}
+
+	/**
+	 * Returns the position of the first value that is not less than given value. Caller must hold
+	 * a lock.
+	 *
+	 * @param value
+	 *            double - value (not <code>NaN</code>).
+	 * @return int - the position of the first value that is not less than given value or the
+	 *         number of values if there is no such value.
+	 */
+	private int lowerBound(final double value) {
+		int low = 0;
+		int high = keyCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds given record to the index. Caller must hold the write lock.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @param value
+	 *            double - value of the record.
+	 */
+	private void add(final int recNo, final double value) {
+		if (recNo >= values.length) {
+			double[] newValues = new double[Math.max(recNo + 1, values.length * 2)];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			values = newValues;
+		}
+		values[recNo] = value;
+		indexed.set(recNo);
+
+		if (Double.isNaN(value)) {
+			unordered.set(recNo);
+			return;
+		}
+
+		int i = lowerBound(value);
+		if (i == keyCount || keys[i] != value) {
+			if (keyCount == keys.length) {
+				double[] newKeys = new double[keyCount * 2];
+				System.arraycopy(keys, 0, newKeys, 0, keyCount);
+				keys = newKeys;
+
+				RecordNoSet[] newPostings = new RecordNoSet[keyCount * 2];
+				System.arraycopy(postings, 0, newPostings, 0, keyCount);
+				postings = newPostings;
+			}
+			System.arraycopy(keys, i, keys, i + 1, keyCount - i);
+			System.arraycopy(postings, i, postings, i + 1, keyCount - i);
+			// XXX: negative zero equals zero
+			keys[i] = value + 0.0;
+			postings[i] = new RecordNoSet();
+			++keyCount;
+		}
+		postings[i].add(recNo);
+	}
+
+	/**
+	 * Removes given record from the index. Caller must hold the write lock.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @param value
+	 *            double - value of the record.
+	 */
+	private void remove(final int recNo, final double value) {
+		indexed.clear(recNo);
+		if (Double.isNaN(value)) {
+			unordered.clear(recNo);
+			return;
+		}
+
+		int i = lowerBound(value);
+		postings[i].remove(recNo);
+		if (postings[i].isEmpty()) {
+			System.arraycopy(keys, i + 1, keys, i, keyCount - i - 1);
+			System.arraycopy(postings, i + 1, postings, i, keyCount - i - 1);
+			postings[--keyCount] = null;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package suncertify.db.index;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LOCATION;
+import static suncertify.db.domain.DBMetaInfo.FIELD_NAME;
+import static suncertify.db.domain.DBMetaInfo.FIELD_OWNER;
+import static suncertify.db.domain.DBMetaInfo.FIELD_SPECIALTIES;
+import static suncertify.db.domain.DBMetaInfo.getFieldNo;
+import static suncertify.db.domain.DBMetaInfo.getFieldType;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import suncertify.core.StringHelper;
+import suncertify.db.FindCriteria;
+import suncertify.db.RangeOperatorEnum;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.DBType;
+import suncertify.db.store.IRecordStore;
+import suncertify.db.store.RecordMatcher;
+
+/**
+ * <code>RecordIndexes</code> groups all indexes of valid records maintained by
+ * {@link suncertify.db.Data} class:
+ * <ul>
+ * <li>unique key index (see {@link UniqueKeyIndex})</li>
+ * <li>prefix indexes of name and location (see {@link PrefixIndex})</li>
+ * <li>inverted index of specialties (see {@link InvertedIndex})</li>
+ * <li>range indexes of numeric fields - size, rate and owner (see {@link RangeIndex})</li>
+ * <li>bitmap index of availability - equality criteria of owner (see {@link OwnerIndex})</li>
+ * </ul>
+ * Indexes are built from records of the store when database is opened and every written record
+ * is {@link #put(Contractor)} into them after it is put into the record store.<br>
+ * <br>
+ * Indexes are kept in memory, so they are not built for records that are not kept in memory
+ * (see {@link #RecordIndexes(IRecordStore)}) - then unique keys are checked by scanning the
+ * store (see {@link ScanKeyIndex}) and all criteria are left to be matched record by record.<br>
+ * <br>
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.Data
+ */
+public class RecordIndexes {
+	/**
+	 * Unique key index.
+	 */
+	private final IKeyIndex keyIndex;
+
+	/**
+	 * Prefix indexes of text fields - fields that are not indexed have <code>null</code> index.
+	 */
+	private final PrefixIndex[] prefixIndexes = new PrefixIndex[FIELDS_COUNT];
+
+	/**
+	 * Inverted indexes of fields holding comma separated values - fields that are not indexed have
+	 * <code>null</code> index.
+	 */
+	private final InvertedIndex[] invertedIndexes = new InvertedIndex[FIELDS_COUNT];
+
+	/**
+	 * Range indexes of numeric fields - text fields have <code>null</code> index.
+	 */
+	private final RangeIndex[] rangeIndexes = new RangeIndex[FIELDS_COUNT];
+
+	/**
+	 * Bitmap indexes of owner fields - other fields have <code>null</code> index.
+	 */
+	private final OwnerIndex[] ownerIndexes = new OwnerIndex[FIELDS_COUNT];
+
+	/**
+	 * Constructs <code>RecordIndexes</code> of given valid records.
+	 *
+	 * @param records
+	 *            Iterator&lt;Contractor&gt; - valid records.
+	 */
+	public RecordIndexes(final Iterator<Contractor> records) {
+		keyIndex = new UniqueKeyIndex();
+		prefixIndexes[getFieldNo(FIELD_NAME)] = new PrefixIndex(getFieldNo(FIELD_NAME));
+		prefixIndexes[getFieldNo(FIELD_LOCATION)] = new PrefixIndex(getFieldNo(FIELD_LOCATION));
+		invertedIndexes[getFieldNo(FIELD_SPECIALTIES)] = new InvertedIndex(getFieldNo(FIELD_SPECIALTIES));
+		ownerIndexes[getFieldNo(FIELD_OWNER)] = new OwnerIndex(getFieldNo(FIELD_OWNER));
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			if (getFieldType(i) != DBType.TEXT) {
+				rangeIndexes[i] = new RangeIndex(i);
+			}
+		}
+
+		while (records.hasNext()) {
+			put(records.next());
+		}
+	}
+
+	/**
+	 * Constructs <code>RecordIndexes</code> without indexes of fields - unique keys are checked by
+	 * scanning given store. Used when records are not kept in memory (see
+	 * {@link suncertify.db.store.RecordStoreModeEnum#LAZY}).
+	 *
+	 * @param store
+	 *            IRecordStore - record store.
+	 */
+	public RecordIndexes(final IRecordStore store) {
+		keyIndex = new ScanKeyIndex(store);
+	}
+
+	/**
+	 * Returns the unique key index.
+	 *
+	 * @return IKeyIndex - the unique key index.
+	 */
+	public IKeyIndex getKeyIndex() {
+		return keyIndex;
+	}
+
+	/**
+	 * Puts given written record (valid or deleted) into all indexes.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	public void put(final Contractor record) {
+		keyIndex.put(record);
+		for (PrefixIndex index : prefixIndexes) {
+			if (index != null) {
+				index.put(record);
+			}
+		}
+		for (InvertedIndex index : invertedIndexes) {
+			if (index != null) {
+				index.put(record);
+			}
+		}
+		for (RangeIndex index : rangeIndexes) {
+			if (index != null) {
+				index.put(record);
+			}
+		}
+		for (OwnerIndex index : ownerIndexes) {
+			if (index != null) {
+				index.put(record);
+			}
+		}
+	}
+
+	/**
+	 * Checks if contained criteria of given field are resolved by an index.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return boolean - <code>true</code> if the field has an inverted index and
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isContainedIndexed(final int field) {
+		return invertedIndexes[field] != null;
+	}
+
+	/**
+	 * Checks if range criteria of given field are resolved by an index.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return boolean - <code>true</code> if the field has a range index and <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean isRangeIndexed(final int field) {
+		return rangeIndexes[field] != null;
+	}
+
+	/**
+	 * Returns numeric value of given string representation of numeric field - the value range
+	 * criteria are compared with.
+	 *
+	 * @param string
+	 *            String - string representation of the value.
+	 * @param field
+	 *            int - index of the numeric field.
+	 * @return double - numeric value.
+	 * @throws IllegalArgumentException
+	 *             If value cannot be parsed (see {@link RangeIndex#valueOf(String, DBType)}).
+	 */
+	public static double valueOf(final String string, final int field) throws IllegalArgumentException {
+		return RangeIndex.valueOf(string, getFieldType(field));
+	}
+
+	/**
+	 * Checks if given value of numeric field meets range criterion - used for fields without range
+	 * index.
+	 *
+	 * @param recordValue
+	 *            double - value of the field (see {@link #valueOf(String, int)}).
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison (see {@link #valueOf(String, int)}).
+	 * @return boolean - <code>true</code> if given value meets the criterion and
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean matches(final double recordValue, final RangeOperatorEnum operator, final double value) {
+		return RangeIndex.matches(recordValue, operator, value);
+	}
+
+	/**
+	 * Returns numbers of valid records matching these criteria that can be resolved by indexes.
+	 * Range criteria of fields with range index are resolved by indexes - equality criteria of
+	 * owner are resolved by the bitmap index of availability. Criteria are resolved in the order of their selectivity
+	 * (see {@link QueryPlan}).
+	 *
+	 * @param matcher
+	 *            RecordMatcher - starts with criteria.
+	 * @param criteria
+	 *            FindCriteria - contained and range criteria.
+	 * @return BitSet - bit set indexed by numbers of candidate records or <code>null</code> if
+	 *         no criterion can be resolved by indexes.
+	 * @throws IllegalArgumentException
+	 *             If value of range criterion cannot be parsed (see
+	 *             {@link RangeIndex#valueOf(String, DBType)}).
+	 */
+	public BitSet findCandidates(final RecordMatcher matcher, final FindCriteria criteria)
+			throws IllegalArgumentException {
+
+		QueryPlan plan = new QueryPlan();
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			String prefix = matcher.getPrefix(i);
+			if (prefixIndexes[i] != null && prefix != null && prefix.length() > 0) {
+				plan.add(createPredicate(prefixIndexes[i], prefix));
+			}
+
+			String containedValues = criteria.getContainedValues(i);
+			if (invertedIndexes[i] != null && containedValues != null) {
+				Set<String> tokens = StringHelper.toTokenSet(containedValues);
+				if (!tokens.isEmpty()) {
+					plan.add(createPredicate(invertedIndexes[i], tokens));
+				}
+			}
+
+			RangeOperatorEnum operator = criteria.getRangeOperator(i);
+			if (rangeIndexes[i] != null && operator != null) {
+				double value = RangeIndex.valueOf(criteria.getRangeValue(i), getFieldType(i));
+				if (ownerIndexes[i] != null && OwnerIndex.supports(operator)) {
+					plan.add(createPredicate(ownerIndexes[i], operator, value));
+				} else {
+					plan.add(createPredicate(rangeIndexes[i], operator, value));
+				}
+			}
+		}
+		return plan.isEmpty() ? null : plan.execute();
+	}
+
+	/**
+	 * Creates starts with criterion resolved by given prefix index.
+	 *
+	 * @param index
+	 *            PrefixIndex - prefix index of the field.
+	 * @param prefix
+	 *            String - normalized prefix.
+	 * @return QueryPlan.Predicate - created criterion.
+	 */
+	private static QueryPlan.Predicate createPredicate(final PrefixIndex index, final String prefix) {
+		return new QueryPlan.Predicate() {
+			int count() {
+				return index.count(prefix);
+			}
+
+			BitSet find() {
+				return index.find(prefix);
+			}
+
+			void retain(final BitSet candidates) {
+				index.retain(candidates, prefix);
+			}
+		};
+	}
+
+	/**
+	 * Creates contained criterion resolved by given inverted index.
+	 *
+	 * @param index
+	 *            InvertedIndex - inverted index of the field.
+	 * @param tokens
+	 *            Set&lt;String&gt; - normalized values, at least one.
+	 * @return QueryPlan.Predicate - created criterion.
+	 */
+	private static QueryPlan.Predicate createPredicate(final InvertedIndex index, final Set<String> tokens) {
+		return new QueryPlan.Predicate() {
+			int count() {
+				return index.count(tokens);
+			}
+
+			BitSet find() {
+				return index.find(tokens);
+			}
+
+			void retain(final BitSet candidates) {
+				index.retain(candidates, tokens);
+			}
+		};
+	}
+
+	/**
+	 * Creates range criterion resolved by given range index.
+	 *
+	 * @param index
+	 *            RangeIndex - range index of the field.
+	 * @param operator
+	 *            RangeOperatorEnum - comparison operator.
+	 * @param value
+	 *            double - right side of the comparison.
+	 * @return QueryPlan.Predicate - created criterion.
+	 */
+	private static QueryPlan.Predicate createPredicate(final RangeIndex index, final RangeOperatorEnum operator,
+			final double value) {
+
+		return new QueryPlan.Predicate() {
+			int count() {
+				return index.count(operator, value);
+			}
+
+			BitSet find() {
+				return index.find(operator, value);
+			}
+
+			void retain(final BitSet candidates) {
+				index.retain(candidates, operator, value);
+			}
+		};
+	}
+
+	/**
+	 * Creates equality criterion resolved by given bitmap index of availability.
+	 *
+	 * @param index
+	 *            OwnerIndex - bitmap index of the owner field.
+	 * @param operator
+	 *            RangeOperatorEnum - equality operator.
+	 * @param value
+	 *            double - owner.
+	 * @return QueryPlan.Predicate - created criterion.
+	 */
+	private static QueryPlan.Predicate createPredicate(final OwnerIndex index, final RangeOperatorEnum operator,
+			final double value) {
+
+		return new QueryPlan.Predicate() {
+			int count() {
+				return index.count(operator, value);
+			}
+
+			BitSet find() {
+				return index.find(operator, value);
+			}
+
+			void retain(final BitSet candidates) {
+				index.retain(candidates, operator, value);
+			}
+		};
+	}
+
+	/**
+	 * Checks if all criteria are resolved by indexes, i.e. candidates returned by
+	 * {@link #findCandidates(RecordMatcher, FindCriteria)} do not have to be matched again.
+	 *
+	 * @param matcher
+	 *            RecordMatcher - starts with criteria.
+	 * @param criteria
+	 *            FindCriteria - contained and range criteria.
+	 * @return boolean - <code>true</code> if all criteria are resolved by indexes and
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isCovered(final RecordMatcher matcher, final FindCriteria criteria) {
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			String prefix = matcher.getPrefix(i);
+			if (prefixIndexes[i] == null && prefix != null && prefix.length() > 0) {
+				return false;
+			}
+
+			String containedValues = criteria.getContainedValues(i);
+			if (invertedIndexes[i] == null && containedValues != null
+					&& !StringHelper.toTokenSet(containedValues).isEmpty()) {
+				return false;
+			}
+
+			if (rangeIndexes[i] == null && criteria.getRangeOperator(i) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,117 @@
+package suncertify.db.index;
+
+import java.util.BitSet;
+
+/**
+ * <code>RecordNoSet</code> is a compact set of record numbers - numbers are kept in a sorted
+ * <code>int</code> array, so a set holding a single number costs a few bytes only. It is used as
+ * a posting list of an index key.<br>
+ * <br>
+ * Instances of this class are not thread safe - they are guarded by the index that owns them.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.PrefixIndex
+ */
+class RecordNoSet {
+	/**
+	 * Sorted record numbers.
+	 */
+	private int[] recordNos = new int[1];
+
+	/**
+	 * Number of record numbers in the set.
+	 */
+	private int size = 0;
+
+	/**
+	 * Adds given record number to the set.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 */
+	void add(final int recNo) {
+		int i = indexOf(recNo);
+		if (i >= 0) {
+			return;
+		}
+
+		i = -(i + 1);
+		if (size == recordNos.length) {
+			int[] newRecordNos = new int[size * 2];
+			System.arraycopy(recordNos, 0, newRecordNos, 0, size);
+			recordNos = newRecordNos;
+		}
+		System.arraycopy(recordNos, i, recordNos, i + 1, size - i);
+		recordNos[i] = recNo;
+		++size;
+	}
+
+	/**
+	 * Removes given record number from the set.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 */
+	void remove(final int recNo) {
+		int i = indexOf(recNo);
+		if (i >= 0) {
+			System.arraycopy(recordNos, i + 1, recordNos, i, size - i - 1);
+			--size;
+		}
+	}
+
+	/**
+	 * Checks if the set is empty.
+	 *
+	 * @return boolean - <code>true</code> if the set is empty and <code>false</code> otherwise.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of record numbers in the set.
+	 *
+	 * @return int - the number of record numbers in the set.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Sets bits of all record numbers of the set in given bit set.
+	 *
+	 * @param bits
+	 *            BitSet - bit set indexed by record numbers.
+	 */
+	void addTo(final BitSet bits) {
+		for (int i = 0; i < size; ++i) {
+			bits.set(recordNos[i]);
+		}
+	}
+
+	/**
+	 * Returns the position of given record number in the array (see
+	 * {@link java.util.Arrays#binarySearch(int[], int)}).
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return int - position of given number or <code>(-(insertion point) - 1)</code> if the
+	 *         set does not contain given number.
+	 */
+	private int indexOf(final int recNo) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (recordNos[middle] < recNo) {
+				low = middle + 1;
+			} else if (recordNos[middle] > recNo) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+}
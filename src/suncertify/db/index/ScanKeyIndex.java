@@ -0,0 +1,145 @@
+package suncertify.db.index;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LOCATION;
+import static suncertify.db.domain.DBMetaInfo.FIELD_NAME;
+import static suncertify.db.domain.DBMetaInfo.getFieldNo;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.domain.Contractor;
+import suncertify.db.store.IRecordStore;
+import suncertify.db.store.RecordMatcher;
+
+/**
+ * <code>ScanKeyIndex</code> guards uniqueness of the unique key of records that are not kept in
+ * memory (see {@link suncertify.db.store.RecordStoreModeEnum#LAZY}). Only keys reserved for
+ * records being written are kept - keys of written records are looked up by scanning the record
+ * store, so memory does not grow with the number of records but every reservation reads all
+ * records.<br>
+ * <br>
+ * Reservations are made one at a time and a key stays reserved until the record is put into the
+ * store, so two records with the same key cannot be written concurrently.<br>
+ * <br>
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.RecordIndexes
+ */
+public class ScanKeyIndex implements IKeyIndex {
+	/**
+	 * Record store searched for keys of written records.
+	 */
+	private final IRecordStore store;
+
+	/**
+	 * Numbers of records being written (key: reserved unique key; value: record no).
+	 */
+	private final Map<String, Integer> reserved = new HashMap<String, Integer>();
+
+	/**
+	 * Constructs <code>ScanKeyIndex</code> of records of given store.
+	 *
+	 * @param store
+	 *            IRecordStore - record store.
+	 */
+	public ScanKeyIndex(final IRecordStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @see IKeyIndex#reserve(Contractor)
+	 */
+	public synchronized boolean reserve(final Contractor record) throws DuplicateKeyException {
+		String key = keyOf(record);
+		Integer recNo = reserved.get(key);
+		if (recNo == null) {
+			recNo = find(record);
+		}
+
+		if (recNo == null) {
+			reserved.put(key, record.getId());
+			return true;
+		}
+
+		if (recNo.intValue() != record.getId()) {
+			throw new DuplicateKeyException("Record: >" + record + "< already exists in database.");
+		}
+		return false;
+	}
+
+	/**
+	 * @see IKeyIndex#release(Contractor)
+	 */
+	public synchronized void release(final Contractor record) {
+		remove(record);
+	}
+
+	/**
+	 * Releases the key reserved for given record - written record is found by scanning the store
+	 * from now on.
+	 *
+	 * @see IKeyIndex#put(Contractor)
+	 */
+	public synchronized void put(final Contractor record) {
+		remove(record);
+	}
+
+	/**
+	 * Removes the reservation of the key of given record.
+	 *
+	 * @param record
+	 *            Contractor - record which key was reserved.
+	 */
+	private void remove(final Contractor record) {
+		String key = keyOf(record);
+		Integer recNo = reserved.get(key);
+		if (recNo != null && recNo.intValue() == record.getId()) {
+			reserved.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of valid record of the store with the unique key of given record.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @return Integer - number of found record or <code>null</code> if there is no such record.
+	 * @throws DuplicateKeyException
+	 *             If records cannot be read from database file - uniqueness cannot be checked.
+	 */
+	private Integer find(final Contractor record) throws DuplicateKeyException {
+		String[] values = record.toStrings();
+		String[] criteria = new String[FIELDS_COUNT];
+		criteria[getFieldNo(FIELD_NAME)] = values[getFieldNo(FIELD_NAME)];
+		criteria[getFieldNo(FIELD_LOCATION)] = values[getFieldNo(FIELD_LOCATION)];
+
+		String key = keyOf(record);
+		try {
+			// XXX: matcher finds keys starting with the key of the record - exact key is compared
+			for (int recNo : store.find(new RecordMatcher(criteria))) {
+				Contractor found = store.get(recNo);
+				if (found != null && key.equals(keyOf(found))) {
+					return recNo;
+				}
+			}
+		} catch (IOException e) {
+			throw new DuplicateKeyException("Unable to check uniqueness of record: >" + record + "<.", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the unique key of given record.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @return String - the unique key.
+	 */
+	private static String keyOf(final Contractor record) {
+		return record.getName().concat(record.getLocation());
+	}
+}
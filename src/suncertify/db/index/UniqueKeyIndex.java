@@ -0,0 +1,102 @@
+package suncertify.db.index;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>UniqueKeyIndex</code> is a hash index of valid records keyed on their unique key - name
+ * and location (see {@link Contractor#equals(Object)}). Name and location are kept by
+ * {@link Contractor} with the exact length of their fields, so they are already normalized and
+ * their concatenation is the key.<br>
+ * <br>
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.index.IKeyIndex
+ * @see suncertify.db.index.RecordIndexes
+ */
+public class UniqueKeyIndex implements IKeyIndex {
+	/**
+	 * Record numbers (key: unique key; value: record no).
+	 */
+	private final Map<String, Integer> recordNos = new HashMap<String, Integer>();
+
+	/**
+	 * Unique keys of indexed records (key: record no; value: unique key).
+	 */
+	private final Map<Integer, String> keys = new HashMap<Integer, String>();
+
+	/**
+	 * Reserves the unique key of given valid record for the record.
+	 *
+	 * @param record
+	 *            Contractor - valid record to be written.
+	 * @return boolean - <code>true</code> if the key was reserved and <code>false</code> if the
+	 *         key already belongs to given record.
+	 * @throws DuplicateKeyException
+	 *             If the key belongs to another record.
+	 */
+	public synchronized boolean reserve(final Contractor record) throws DuplicateKeyException {
+		String key = keyOf(record);
+		Integer recNo = recordNos.get(key);
+		if (recNo == null) {
+			recordNos.put(key, record.getId());
+			return true;
+		}
+
+		if (recNo.intValue() != record.getId()) {
+			throw new DuplicateKeyException("Record: >" + record + "< already exists in database.");
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the key reserved for given record that was not written.
+	 *
+	 * @param record
+	 *            Contractor - record which key was reserved.
+	 */
+	public synchronized void release(final Contractor record) {
+		String key = keyOf(record);
+		Integer recNo = recordNos.get(key);
+		if (recNo != null && recNo.intValue() == record.getId() && !key.equals(keys.get(recNo))) {
+			recordNos.remove(key);
+		}
+	}
+
+	/**
+	 * Puts given written record (valid or deleted) into the index - the previous key of the record
+	 * is removed and the key of valid record is added.
+	 *
+	 * @param record
+	 *            Contractor - written record.
+	 */
+	public synchronized void put(final Contractor record) {
+		Integer recNo = record.getId();
+		String previousKey = keys.remove(recNo);
+		if (previousKey != null && recNo.equals(recordNos.get(previousKey))) {
+			recordNos.remove(previousKey);
+		}
+
+		if (record.getFlag() != RecordFlagEnum.INVALID) {
+			String key = keyOf(record);
+			recordNos.put(key, recNo);
+			keys.put(recNo, key);
+		}
+	}
+
+	/**
+	 * Returns the unique key of given record.
+	 *
+	 * @param record
+	 *            Contractor - record.
+	 * @return String - the unique key.
+	 */
+	private static String keyOf(final Contractor record) {
+		return record.getName().concat(record.getLocation());
+	}
+}
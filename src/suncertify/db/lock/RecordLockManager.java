@@ -0,0 +1,1444 @@
+package suncertify.db.lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import suncertify.db.DeadlockException;
+import suncertify.db.lock.TimerWheel.Timeout;
+
+/**
+ * <code>RecordLockManager</code> keeps locks of records. Each locked record has its own lock
+ * object with a FIFO queue of waiting threads:
+ * <ul>
+ * <li>locking and unlocking of different records never contend - lock objects are kept in a
+ * concurrent map and each one is guarded by its own monitor</li>
+ * <li>released lock is handed off directly to the first waiting thread and only this thread is
+ * woken up (see {@link LockSupport}), so threads waiting for other records (or later in the queue)
+ * sleep on</li>
+ * <li>lock object of a record is removed as soon as the record is unlocked and nobody waits for
+ * it, so the map holds only records that are locked</li>
+ * </ul>
+ * Locks of {@link #lock(int)} are not owned by threads - any thread can unlock a record (as
+ * defined by {@link suncertify.db.DBMain}). Locks of {@link #lock(int, long)} are leases - they
+ * are owned by the holder of returned cookie and they are released automatically when the lease
+ * expires (leases are expired by a {@link TimerWheel}), so a client that never unlocks its record
+ * does not block it forever.<br>
+ * <br>
+ * Records can also be locked shared ({@link #lockShared(int)}) - any number of readers hold the
+ * lock together and exclude exclusive locks. Shared requests queue behind exclusive ones in the
+ * same FIFO queue, so writers are not starved, and released lock is handed off either to the first
+ * exclusive waiter or to all shared waiters at the head of the queue. Reader can upgrade its lock
+ * ({@link #upgrade(int)}) - it waits until other readers release the record, ahead of all queued
+ * waiters.<br>
+ * <br>
+ * Several records are locked at once with {@link #lockAll(int[])} - in ascending order of their
+ * numbers, so callers of <code>lockAll</code> never wait for each other in a cycle. Cycles with
+ * other locks (e.g. records locked one by one in any order) are found in a wait-for graph: each
+ * waiting owner (thread of lock without owner or cookie of lease) points to the lock it waits
+ * for and each exclusive lock knows its owner. A thread that starts waiting follows the graph
+ * from its own request and if it comes back to itself, a waiter of <code>lockAll</code> in the
+ * cycle is aborted with {@link DeadlockException} (locks of <code>DBMain</code> cannot be
+ * aborted, so cycles of them alone remain). Shared locks have no owners and are not part of the
+ * graph.<br>
+ * <br>
+ * Waiting for a lock can be bounded - {@link #tryLock(int)} does not wait at all and timed
+ * variants of <code>lock</code> wait at most given time. Only timed waiting can be interrupted -
+ * otherwise interrupt status of the thread is restored when the lock is acquired.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.Data
+ */
+public class RecordLockManager {
+	/**
+	 * Cookie of locks without owner.
+	 */
+	public static final long NO_COOKIE = 0;
+
+	/**
+	 * Duration of one tick of the timer wheel (in milliseconds) - leases expire at most one tick
+	 * late.
+	 */
+	private static final long TICK_DURATION = 100;
+
+	/**
+	 * Number of buckets of the timer wheel - leases shorter than
+	 * <code>TICK_DURATION * WHEEL_SIZE</code> need no extra rounds.
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Locks of records (key: record no).
+	 */
+	private final ConcurrentMap<Integer, RecordLock> locks = new ConcurrentHashMap<Integer, RecordLock>();
+
+	/**
+	 * Last issued cookie - cookies are unique.
+	 */
+	private final AtomicLong lastCookie = new AtomicLong(NO_COOKIE);
+
+	/**
+	 * Wait-for graph - waiters of owners waiting for locks (key: owner, i.e. thread of lock
+	 * without owner or cookie of lease).
+	 */
+	private final ConcurrentMap<Object, Waiter> waiting = new ConcurrentHashMap<Object, Waiter>();
+
+	/**
+	 * Timer expiring leases.
+	 */
+	private final TimerWheel timer = new TimerWheel(TICK_DURATION, WHEEL_SIZE);
+
+	/**
+	 * Locks given record without owner - waits until the record is unlocked by all threads that
+	 * requested its lock earlier.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 */
+	public void lock(final int recNo) {
+		acquire(recNo, NO_COOKIE, 0, false);
+	}
+
+	/**
+	 * Locks given records without owner - records are locked in ascending order of their numbers
+	 * (repeated numbers are locked once). If waiting for a record would close a cycle of waiting
+	 * threads, records locked by this call are unlocked and the call is aborted.
+	 *
+	 * @param recNos
+	 *            int[] - numbers of records to lock.
+	 * @throws DeadlockException
+	 *             If the call was chosen as a victim of deadlock.
+	 */
+	public void lockAll(final int[] recNos) throws DeadlockException {
+		acquireAll(recNos, NO_COOKIE, 0);
+	}
+
+	/**
+	 * Leases the locks of given records with one cookie - records are locked in ascending order
+	 * of their numbers (repeated numbers are locked once). If waiting for a record would close a
+	 * cycle of waiting owners, records locked by this call are unlocked and the call is aborted.
+	 *
+	 * @param recNos
+	 *            int[] - numbers of records to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds, counted from acquiring each lock) after which the
+	 *            locks are released automatically.
+	 * @return long - cookie of the owner of the locks.
+	 * @throws DeadlockException
+	 *             If the call was chosen as a victim of deadlock.
+	 */
+	public long lockAll(final int[] recNos, final long leaseTime) throws DeadlockException {
+		long cookie = lastCookie.incrementAndGet();
+		acquireAll(recNos, cookie, leaseTime);
+		return cookie;
+	}
+
+	/**
+	 * Locks given record without owner if it is not locked.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @return boolean - <code>true</code> if the record was locked and <code>false</code> if it
+	 *         is locked by somebody else.
+	 */
+	public boolean tryLock(final int recNo) {
+		return tryAcquire(recNo, NO_COOKIE, 0);
+	}
+
+	/**
+	 * Locks given record without owner - waits at most given time until the record is unlocked by
+	 * all threads that requested its lock earlier.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param timeout
+	 *            long - maximum time to wait.
+	 * @param unit
+	 *            TimeUnit - unit of the timeout.
+	 * @return boolean - <code>true</code> if the record was locked and <code>false</code> if the
+	 *         time elapsed.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public boolean lock(final int recNo, final long timeout, final TimeUnit unit) throws InterruptedException {
+		return acquire(recNo, NO_COOKIE, 0, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Leases the lock of given record - waits until the record is unlocked by all threads that
+	 * requested its lock earlier. Lease time is counted from the moment the lock is acquired.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @return long - cookie of the owner of the lock.
+	 */
+	public long lock(final int recNo, final long leaseTime) {
+		long cookie = lastCookie.incrementAndGet();
+		acquire(recNo, cookie, leaseTime, false);
+		return cookie;
+	}
+
+	/**
+	 * Leases the lock of given record if it is not locked.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @return long - cookie of the owner of the lock or {@link #NO_COOKIE} if the record is
+	 *         locked by somebody else.
+	 */
+	public long tryLock(final int recNo, final long leaseTime) {
+		long cookie = lastCookie.incrementAndGet();
+		return tryAcquire(recNo, cookie, leaseTime) ? cookie : NO_COOKIE;
+	}
+
+	/**
+	 * Leases the lock of given record - waits at most given time until the record is unlocked by
+	 * all threads that requested its lock earlier.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @param timeout
+	 *            long - maximum time to wait.
+	 * @param unit
+	 *            TimeUnit - unit of the timeout.
+	 * @return long - cookie of the owner of the lock or {@link #NO_COOKIE} if the time elapsed.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public long lock(final int recNo, final long leaseTime, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+
+		long cookie = lastCookie.incrementAndGet();
+		return acquire(recNo, cookie, leaseTime, unit.toNanos(timeout)) ? cookie : NO_COOKIE;
+	}
+
+	/**
+	 * Renews the lease of the lock of given record - the lock will be released after given time
+	 * from now.
+	 *
+	 * @param recNo
+	 *            int - no of locked record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @param leaseTime
+	 *            long - time (in milliseconds) after which the lock is released automatically.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void renew(final int recNo, final long cookie, final long leaseTime) throws SecurityException {
+		RecordLock lock = getOwnedLock(recNo, cookie);
+		synchronized (lock) {
+			checkOwner(recNo, lock, cookie);
+			timer.cancel(lock.getLease());
+			lock.setLease(timer.schedule(new LeaseExpiry(recNo, lock), leaseTime));
+		}
+	}
+
+	/**
+	 * Unlocks given record locked without owner - the lock is handed off to the first waiting
+	 * thread. Unlocking a record that is not locked has no effect.
+	 *
+	 * @param recNo
+	 *            int - no of record to unlock.
+	 * @throws SecurityException
+	 *             If the record is leased by an owner.
+	 */
+	public void unlock(final int recNo) throws SecurityException {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			return;
+		}
+
+		List<Waiter> next;
+		synchronized (lock) {
+			if (lock.isRemoved() || !lock.isHeld()) {
+				return;
+			}
+			if (lock.getCookie() != NO_COOKIE) {
+				throw new SecurityException("Record with no >" + recNo + "< is leased by other owner.");
+			}
+			next = release(recNo, lock);
+		}
+
+		wake(next);
+	}
+
+	/**
+	 * Unlocks given record leased by the owner of given cookie - the lock is handed off to the
+	 * first waiting thread.
+	 *
+	 * @param recNo
+	 *            int - no of record to unlock.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void unlock(final int recNo, final long cookie) throws SecurityException {
+		RecordLock lock = getOwnedLock(recNo, cookie);
+		List<Waiter> next;
+		synchronized (lock) {
+			checkOwner(recNo, lock, cookie);
+			next = release(recNo, lock);
+		}
+
+		wake(next);
+	}
+
+	/**
+	 * Checks if given record is locked with given cookie.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws SecurityException
+	 *             If the record is not locked with given cookie (e.g. the lease has expired).
+	 */
+	public void checkOwner(final int recNo, final long cookie) throws SecurityException {
+		RecordLock lock = getOwnedLock(recNo, cookie);
+		synchronized (lock) {
+			checkOwner(recNo, lock, cookie);
+		}
+	}
+
+	/**
+	 * Checks if given record is locked.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @return boolean - <code>true</code> if given record is locked and <code>false</code>
+	 *         otherwise.
+	 */
+	public boolean isLocked(final int recNo) {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			return false;
+		}
+
+		synchronized (lock) {
+			return !lock.isRemoved() && lock.isHeld();
+		}
+	}
+
+	/**
+	 * Locks given record shared without owner - waits until exclusive locks of the record
+	 * requested earlier are released. Any number of threads can hold shared lock of a record at
+	 * the same time.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 */
+	public void lockShared(final int recNo) {
+		Waiter waiter = null;
+		while (waiter == null) {
+			RecordLock lock = getLock(recNo);
+			synchronized (lock) {
+				if (lock.isRemoved()) {
+					// lock was removed from the map after it was taken - try again
+					continue;
+				}
+				if (!lock.isHeld() && !lock.hasWaiters() && lock.getUpgrader() == null) {
+					lock.addReader();
+					return;
+				}
+				waiter = new Waiter(lock, true);
+				lock.enqueue(waiter);
+			}
+		}
+
+		await(waiter);
+	}
+
+	/**
+	 * Releases shared lock of given record - the record is handed off to the upgrading reader or
+	 * to the first waiting thread when the last reader leaves. Unlocking a record that is not
+	 * locked shared has no effect.
+	 *
+	 * @param recNo
+	 *            int - no of record to unlock.
+	 */
+	public void unlockShared(final int recNo) {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			return;
+		}
+
+		List<Waiter> next;
+		synchronized (lock) {
+			if (lock.isRemoved() || lock.getReaders() == 0) {
+				return;
+			}
+			lock.removeReader();
+
+			Waiter upgrader = lock.getUpgrader();
+			if (upgrader != null && lock.getReaders() == 1) {
+				// XXX: the only remaining reader is the upgrading one
+				lock.setUpgrader(null);
+				lock.removeReader();
+				grant(recNo, lock, upgrader.getOwner(), NO_COOKIE, 0);
+				next = Collections.singletonList(upgrader);
+			} else if (lock.getReaders() == 0) {
+				next = handOff(recNo, lock);
+			} else {
+				next = Collections.emptyList();
+			}
+		}
+
+		wake(next);
+	}
+
+	/**
+	 * Upgrades shared lock of given record held by the current thread to exclusive lock without
+	 * owner (released with {@link #unlock(int)}) - waits until other readers release the record.
+	 * Upgrading reader takes the record ahead of all waiting threads. Only one reader of a record
+	 * can upgrade at a time - two readers waiting for each other would never get the record.
+	 *
+	 * @param recNo
+	 *            int - no of record locked shared.
+	 * @return boolean - <code>true</code> if the lock was upgraded and <code>false</code> if
+	 *         other reader is upgrading its lock (the shared lock is kept - release it to let the
+	 *         other reader go on).
+	 * @throws IllegalStateException
+	 *             If the record is not locked shared.
+	 */
+	public boolean upgrade(final int recNo) throws IllegalStateException {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			throw new IllegalStateException("Record with no >" + recNo + "< is not locked shared.");
+		}
+
+		Waiter waiter;
+		synchronized (lock) {
+			if (lock.isRemoved() || lock.getReaders() == 0) {
+				throw new IllegalStateException("Record with no >" + recNo + "< is not locked shared.");
+			}
+			if (lock.getUpgrader() != null) {
+				return false;
+			}
+			if (lock.getReaders() == 1) {
+				lock.removeReader();
+				grant(recNo, lock, Thread.currentThread(), NO_COOKIE, 0);
+				return true;
+			}
+			waiter = new Waiter(lock, false);
+			lock.setUpgrader(waiter);
+		}
+
+		waiter.await();
+		return true;
+	}
+
+	/**
+	 * Checks if given record is locked shared.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @return boolean - <code>true</code> if given record is locked shared and
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isLockedShared(final int recNo) {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			return false;
+		}
+
+		synchronized (lock) {
+			return !lock.isRemoved() && lock.getReaders() > 0;
+		}
+	}
+
+	/**
+	 * Acquires the lock of given record for the owner of given cookie - waits until the lock is
+	 * handed off if the record is locked.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @param leaseTime
+	 *            long - lease time of owned lock (in milliseconds).
+	 * @param abortable
+	 *            boolean - <code>true</code> if waiting can be aborted to break a deadlock.
+	 * @return boolean - <code>true</code> if the lock was acquired and <code>false</code> if
+	 *         waiting was aborted.
+	 */
+	private boolean acquire(final int recNo, final long cookie, final long leaseTime, final boolean abortable) {
+		Waiter waiter = null;
+		while (waiter == null) {
+			RecordLock lock = getLock(recNo);
+			synchronized (lock) {
+				if (lock.isRemoved()) {
+					// lock was removed from the map after it was taken - try again
+					continue;
+				}
+				if (lock.isFree()) {
+					grant(recNo, lock, getOwner(cookie), cookie, leaseTime);
+					return true;
+				}
+				waiter = new Waiter(lock, cookie, leaseTime, abortable);
+				lock.enqueue(waiter);
+			}
+		}
+
+		return await(waiter);
+	}
+
+	/**
+	 * Acquires the locks of given records for the owner of given cookie in ascending order of
+	 * record numbers - locks acquired by this call are released if waiting is aborted.
+	 *
+	 * @param recNos
+	 *            int[] - numbers of records to lock.
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @param leaseTime
+	 *            long - lease time of owned locks (in milliseconds).
+	 * @throws DeadlockException
+	 *             If waiting for a record was aborted to break a deadlock.
+	 */
+	private void acquireAll(final int[] recNos, final long cookie, final long leaseTime) throws DeadlockException {
+		int[] sorted = recNos.clone();
+		Arrays.sort(sorted);
+
+		List<Integer> acquired = new ArrayList<Integer>(sorted.length);
+		for (int i = 0; i < sorted.length; ++i) {
+			if (i > 0 && sorted[i] == sorted[i - 1]) {
+				continue;
+			}
+			if (!acquire(sorted[i], cookie, leaseTime, true)) {
+				for (int recNo : acquired) {
+					try {
+						if (cookie == NO_COOKIE) {
+							unlock(recNo);
+						} else {
+							unlock(recNo, cookie);
+						}
+					} catch (SecurityException e) {
+						// XXX: the lease has already expired
+					}
+				}
+				throw new DeadlockException("Deadlock detected while locking record with no >" + sorted[i]
+						+ "< - records locked by the call were unlocked.");
+			}
+			acquired.add(sorted[i]);
+		}
+	}
+
+	/**
+	 * Acquires the lock of given record for the owner of given cookie if the record is not
+	 * locked.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @param leaseTime
+	 *            long - lease time of owned lock (in milliseconds).
+	 * @return boolean - <code>true</code> if the lock was acquired and <code>false</code>
+	 *         otherwise.
+	 */
+	private boolean tryAcquire(final int recNo, final long cookie, final long leaseTime) {
+		while (true) {
+			RecordLock lock = getLock(recNo);
+			synchronized (lock) {
+				if (lock.isRemoved()) {
+					// lock was removed from the map after it was taken - try again
+					continue;
+				}
+				if (!lock.isFree()) {
+					return false;
+				}
+				grant(recNo, lock, getOwner(cookie), cookie, leaseTime);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Acquires the lock of given record for the owner of given cookie - waits at most given time
+	 * until the lock is handed off if the record is locked. Waiter that gives up leaves the queue,
+	 * unless it has already been taken from the queue - then the lock is handed off to it and it
+	 * is kept.
+	 *
+	 * @param recNo
+	 *            int - no of record to lock.
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @param leaseTime
+	 *            long - lease time of owned lock (in milliseconds).
+	 * @param timeout
+	 *            long - maximum time to wait (in nanoseconds).
+	 * @return boolean - <code>true</code> if the lock was acquired and <code>false</code> if the
+	 *         time elapsed.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	private boolean acquire(final int recNo, final long cookie, final long leaseTime, final long timeout)
+			throws InterruptedException {
+
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		RecordLock lock = null;
+		Waiter waiter = null;
+		while (waiter == null) {
+			lock = getLock(recNo);
+			synchronized (lock) {
+				if (lock.isRemoved()) {
+					// lock was removed from the map after it was taken - try again
+					continue;
+				}
+				if (lock.isFree()) {
+					grant(recNo, lock, getOwner(cookie), cookie, leaseTime);
+					return true;
+				}
+				if (timeout <= 0) {
+					return false;
+				}
+				waiter = new Waiter(lock, cookie, leaseTime, false);
+				lock.enqueue(waiter);
+			}
+		}
+
+		boolean interrupted;
+		waiting.put(waiter.getOwner(), waiter);
+		try {
+			breakDeadlock(waiter);
+			interrupted = waiter.await(timeout);
+		} finally {
+			waiting.remove(waiter.getOwner(), waiter);
+		}
+		if (!waiter.isGranted()) {
+			List<Waiter> next = null;
+			synchronized (lock) {
+				if (lock.remove(waiter)) {
+					// XXX: readers queued behind the waiter may be admitted now
+					next = admitReaders(lock);
+				}
+			}
+			if (next != null) {
+				wake(next);
+				if (interrupted) {
+					throw new InterruptedException();
+				}
+				return false;
+			}
+			// XXX: waiter has already been taken from the queue - the lock is being handed off
+			waiter.await();
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * Grants exclusive lock of given record to given owner and schedules expiry of its lease.
+	 * Caller must hold the monitor of the lock.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param lock
+	 *            RecordLock - lock of the record.
+	 * @param owner
+	 *            Object - owner of the lock (see {@link #getOwner(long)}).
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @param leaseTime
+	 *            long - lease time of owned lock (in milliseconds).
+	 */
+	private void grant(final int recNo, final RecordLock lock, final Object owner, final long cookie,
+			final long leaseTime) {
+
+		lock.setHeld(true);
+		lock.setOwner(owner);
+		lock.setCookie(cookie);
+		lock.setLease(cookie == NO_COOKIE ? null : timer.schedule(new LeaseExpiry(recNo, lock), leaseTime));
+	}
+
+	/**
+	 * Releases exclusive lock of given record - it is handed off to waiting threads (see
+	 * {@link #handOff(int, RecordLock)}). Caller must hold the monitor of the lock and wake up
+	 * returned waiters after it releases the monitor.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param lock
+	 *            RecordLock - held lock of the record.
+	 * @return List&lt;Waiter&gt; - waiters the lock was handed off to.
+	 */
+	private List<Waiter> release(final int recNo, final RecordLock lock) {
+		if (lock.getLease() != null) {
+			timer.cancel(lock.getLease());
+		}
+
+		lock.setHeld(false);
+		lock.setOwner(null);
+		lock.setCookie(NO_COOKIE);
+		lock.setLease(null);
+		return handOff(recNo, lock);
+	}
+
+	/**
+	 * Hands off free lock of given record to the first exclusive waiter or to all shared waiters
+	 * at the head of the queue - the lock is removed if nobody waits. Caller must hold the monitor
+	 * of the lock and wake up returned waiters after it releases the monitor.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param lock
+	 *            RecordLock - free lock of the record.
+	 * @return List&lt;Waiter&gt; - waiters the lock was handed off to.
+	 */
+	private List<Waiter> handOff(final int recNo, final RecordLock lock) {
+		Waiter next = lock.peek();
+		if (next == null) {
+			lock.setRemoved();
+			locks.remove(recNo, lock);
+			return Collections.emptyList();
+		}
+		if (next.isShared()) {
+			return admitReaders(lock);
+		}
+
+		lock.dequeue();
+		// XXX: the waiter no longer waits - its stale edge must not close a cycle
+		waiting.remove(next.getOwner(), next);
+		grant(recNo, lock, next.getOwner(), next.getCookie(), next.getLeaseTime());
+		return Collections.singletonList(next);
+	}
+
+	/**
+	 * Grants shared lock of given record to all shared waiters at the head of the queue unless
+	 * the record is locked exclusive or a reader is upgrading its lock. Caller must hold the
+	 * monitor of the lock and wake up returned waiters after it releases the monitor.
+	 *
+	 * @param lock
+	 *            RecordLock - lock of the record.
+	 * @return List&lt;Waiter&gt; - admitted readers.
+	 */
+	private List<Waiter> admitReaders(final RecordLock lock) {
+		List<Waiter> readers = new ArrayList<Waiter>();
+		if (lock.isHeld() || lock.getUpgrader() != null) {
+			return readers;
+		}
+		while (lock.peek() != null && lock.peek().isShared()) {
+			Waiter reader = lock.dequeue();
+			waiting.remove(reader.getOwner(), reader);
+			readers.add(reader);
+			lock.addReader();
+		}
+		return readers;
+	}
+
+	/**
+	 * Waits until the lock is handed off to given waiter or the waiter is aborted - the waiter is
+	 * in the wait-for graph while it waits.
+	 *
+	 * @param waiter
+	 *            Waiter - waiter of the current thread added to the queue of the lock.
+	 * @return boolean - <code>true</code> if the lock was handed off and <code>false</code> if
+	 *         the waiter was aborted to break a deadlock.
+	 */
+	private boolean await(final Waiter waiter) {
+		waiting.put(waiter.getOwner(), waiter);
+		try {
+			breakDeadlock(waiter);
+			waiter.await();
+		} finally {
+			waiting.remove(waiter.getOwner(), waiter);
+		}
+		return !waiter.isAborted();
+	}
+
+	/**
+	 * Follows the wait-for graph from given waiter (holder of the lock it waits for, lock the
+	 * holder waits for and so on) and aborts a waiter of the cycle if the graph comes back to the
+	 * owner of given waiter. The first abortable waiter of the cycle is chosen - given one if it
+	 * is abortable. Caller must not hold any monitor of lock.
+	 *
+	 * @param waiter
+	 *            Waiter - waiter that has just been added to the graph.
+	 */
+	private void breakDeadlock(final Waiter waiter) {
+		List<Waiter> cycle = new ArrayList<Waiter>();
+		Waiter current = waiter;
+		// XXX: each owner waits for one lock, so a path longer than the graph is a cycle of others
+		for (int i = waiting.size(); i >= 0 && current != null; --i) {
+			cycle.add(current);
+			Object holder;
+			synchronized (current.getLock()) {
+				if (current.isGranted() || current.isAborted() || current.getLock().isRemoved()) {
+					return;
+				}
+				holder = current.getLock().getOwner();
+			}
+			if (holder == null) {
+				// record is locked shared (or is being handed off)
+				return;
+			}
+			if (holder.equals(waiter.getOwner())) {
+				for (Waiter victim : cycle) {
+					if (victim.isAbortable()) {
+						abort(victim);
+						return;
+					}
+				}
+				return;
+			}
+			current = waiting.get(holder);
+		}
+	}
+
+	/**
+	 * Aborts given waiter if it still waits in the queue - readers queued behind it may be
+	 * admitted then.
+	 *
+	 * @param waiter
+	 *            Waiter - victim of deadlock.
+	 */
+	private void abort(final Waiter waiter) {
+		RecordLock lock = waiter.getLock();
+		List<Waiter> next;
+		synchronized (lock) {
+			if (!lock.remove(waiter)) {
+				// XXX: the lock is being handed off to the waiter - the cycle is already broken
+				return;
+			}
+			next = admitReaders(lock);
+		}
+
+		waiter.abort();
+		wake(next);
+	}
+
+	/**
+	 * Returns owner of lock requested by the current thread with given cookie.
+	 *
+	 * @param cookie
+	 *            long - cookie of the owner or {@link #NO_COOKIE}.
+	 * @return Object - the current thread if there is no cookie and the cookie otherwise.
+	 */
+	private static Object getOwner(final long cookie) {
+		return cookie == NO_COOKIE ? Thread.currentThread() : (Object) Long.valueOf(cookie);
+	}
+
+	/**
+	 * Wakes up given waiters the lock was handed off to. Caller must not hold the monitor of the
+	 * lock.
+	 *
+	 * @param waiters
+	 *            List&lt;Waiter&gt; - waiters the lock was handed off to.
+	 */
+	private static void wake(final List<Waiter> waiters) {
+		for (Waiter waiter : waiters) {
+			waiter.grant();
+		}
+	}
+
+	/**
+	 * Releases the lock of given record if given expiry belongs to its current lease.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param lock
+	 *            RecordLock - lock of the record.
+	 * @param expiry
+	 *            LeaseExpiry - task of expired lease.
+	 */
+	private void expire(final int recNo, final RecordLock lock, final LeaseExpiry expiry) {
+		List<Waiter> next;
+		synchronized (lock) {
+			// XXX: the lease may have been renewed or released before its expiry was run
+			if (lock.isRemoved() || lock.getLease() == null || lock.getLease().getTask() != expiry) {
+				return;
+			}
+			next = release(recNo, lock);
+		}
+
+		wake(next);
+	}
+
+	/**
+	 * Returns lock object of given record that should be owned by the owner of given cookie.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @return RecordLock - lock object of the record.
+	 * @throws SecurityException
+	 *             If the record is not locked.
+	 */
+	private RecordLock getOwnedLock(final int recNo, final long cookie) throws SecurityException {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			throw new SecurityException("Record with no >" + recNo + "< is not locked with cookie >" + cookie + "<.");
+		}
+		return lock;
+	}
+
+	/**
+	 * Checks if given lock is held by the owner of given cookie. Caller must hold the monitor of
+	 * the lock.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @param lock
+	 *            RecordLock - lock of the record.
+	 * @param cookie
+	 *            long - cookie of the owner of the lock.
+	 * @throws SecurityException
+	 *             If the lock is not held with given cookie.
+	 */
+	private static void checkOwner(final int recNo, final RecordLock lock, final long cookie)
+			throws SecurityException {
+
+		if (cookie == NO_COOKIE || lock.isRemoved() || !lock.isHeld() || lock.getCookie() != cookie) {
+			throw new SecurityException("Record with no >" + recNo + "< is not locked with cookie >" + cookie + "<.");
+		}
+	}
+
+	/**
+	 * Returns lock object of given record - it is created if it does not exist.
+	 *
+	 * @param recNo
+	 *            int - no of record.
+	 * @return RecordLock - lock object of the record.
+	 */
+	private RecordLock getLock(final int recNo) {
+		RecordLock lock = locks.get(recNo);
+		if (lock == null) {
+			RecordLock created = new RecordLock();
+			lock = locks.putIfAbsent(recNo, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
+
+	/**
+	 * <code>LeaseExpiry</code> is a task of the timer wheel releasing expired lease.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private final class LeaseExpiry implements Runnable {
+		/**
+		 * No of leased record.
+		 */
+		private final int recNo;
+
+		/**
+		 * Lock of the record.
+		 */
+		private final RecordLock lock;
+
+		/**
+		 * Constructs <code>LeaseExpiry</code>.
+		 *
+		 * @param recNo
+		 *            int - no of leased record.
+		 * @param lock
+		 *            RecordLock - lock of the record.
+		 */
+		LeaseExpiry(final int recNo, final RecordLock lock) {
+			this.recNo = recNo;
+			this.lock = lock;
+		}
+
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			expire(recNo, lock, this);
+		}
+	}
+
+	/**
+	 * <code>RecordLock</code> is a lock of single record (exclusive or shared by readers) with a
+	 * FIFO queue of waiting threads.
+	 * Fields are guarded by the monitor of the object.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class RecordLock {
+		/**
+		 * Threads waiting for the lock in order of their requests.
+		 */
+		private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+		/**
+		 * <code>true</code> if the record is locked.
+		 */
+		private boolean held;
+
+		/**
+		 * Owner of exclusive lock (thread or cookie) or <code>null</code> if the record is not
+		 * locked exclusive.
+		 */
+		private Object owner;
+
+		/**
+		 * Number of threads holding shared lock of the record.
+		 */
+		private int readers;
+
+		/**
+		 * Reader waiting until other readers leave or <code>null</code> if nobody upgrades.
+		 */
+		private Waiter upgrader;
+
+		/**
+		 * <code>true</code> if the lock was removed from the map of locks.
+		 */
+		private boolean removed;
+
+		/**
+		 * Cookie of the owner of the lock or {@link RecordLockManager#NO_COOKIE}.
+		 */
+		private long cookie = NO_COOKIE;
+
+		/**
+		 * Lease of owned lock or <code>null</code> if the lock has no owner.
+		 */
+		private Timeout lease;
+
+		/**
+		 * Checks if the record is locked.
+		 *
+		 * @return boolean - <code>true</code> if the record is locked and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isHeld() {
+			return held;
+		}
+
+		/**
+		 * Sets lock state of the record.
+		 *
+		 * @param held
+		 *            boolean - <code>true</code> if the record is locked.
+		 */
+		void setHeld(final boolean held) {
+			this.held = held;
+		}
+
+		/**
+		 * Returns owner of exclusive lock.
+		 *
+		 * @return Object - owner (thread or cookie) or <code>null</code> if the record is not
+		 *         locked exclusive.
+		 */
+		Object getOwner() {
+			return owner;
+		}
+
+		/**
+		 * Sets owner of exclusive lock.
+		 *
+		 * @param owner
+		 *            Object - owner (thread or cookie) or <code>null</code>.
+		 */
+		void setOwner(final Object owner) {
+			this.owner = owner;
+		}
+
+		/**
+		 * Checks if the record is locked neither exclusive nor shared.
+		 *
+		 * @return boolean - <code>true</code> if the lock can be granted and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isFree() {
+			return !held && readers == 0;
+		}
+
+		/**
+		 * Returns number of threads holding shared lock of the record.
+		 *
+		 * @return int - number of readers.
+		 */
+		int getReaders() {
+			return readers;
+		}
+
+		/**
+		 * Adds a thread holding shared lock of the record.
+		 */
+		void addReader() {
+			++readers;
+		}
+
+		/**
+		 * Removes a thread holding shared lock of the record.
+		 */
+		void removeReader() {
+			--readers;
+		}
+
+		/**
+		 * Returns reader upgrading its lock.
+		 *
+		 * @return Waiter - upgrading reader or <code>null</code> if nobody upgrades.
+		 */
+		Waiter getUpgrader() {
+			return upgrader;
+		}
+
+		/**
+		 * Sets reader upgrading its lock.
+		 *
+		 * @param upgrader
+		 *            Waiter - upgrading reader or <code>null</code> if nobody upgrades.
+		 */
+		void setUpgrader(final Waiter upgrader) {
+			this.upgrader = upgrader;
+		}
+
+		/**
+		 * Checks if the lock was removed from the map of locks - removed lock cannot be used
+		 * anymore.
+		 *
+		 * @return boolean - <code>true</code> if the lock was removed and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isRemoved() {
+			return removed;
+		}
+
+		/**
+		 * Marks the lock as removed from the map of locks.
+		 */
+		void setRemoved() {
+			removed = true;
+		}
+
+		/**
+		 * Returns cookie of the owner of the lock.
+		 *
+		 * @return long - cookie of the owner or {@link RecordLockManager#NO_COOKIE}.
+		 */
+		long getCookie() {
+			return cookie;
+		}
+
+		/**
+		 * Sets cookie of the owner of the lock.
+		 *
+		 * @param cookie
+		 *            long - cookie of the owner or {@link RecordLockManager#NO_COOKIE}.
+		 */
+		void setCookie(final long cookie) {
+			this.cookie = cookie;
+		}
+
+		/**
+		 * Returns lease of owned lock.
+		 *
+		 * @return Timeout - lease or <code>null</code> if the lock has no owner.
+		 */
+		Timeout getLease() {
+			return lease;
+		}
+
+		/**
+		 * Sets lease of owned lock.
+		 *
+		 * @param lease
+		 *            Timeout - lease or <code>null</code> if the lock has no owner.
+		 */
+		void setLease(final Timeout lease) {
+			this.lease = lease;
+		}
+
+		/**
+		 * Adds given waiter to the end of the queue.
+		 *
+		 * @param waiter
+		 *            Waiter - waiting thread.
+		 */
+		void enqueue(final Waiter waiter) {
+			waiters.addLast(waiter);
+		}
+
+		/**
+		 * Removes given waiter from the queue.
+		 *
+		 * @param waiter
+		 *            Waiter - waiting thread that gives up.
+		 * @return boolean - <code>true</code> if the waiter was removed and <code>false</code> if
+		 *         it is no longer in the queue (the lock is handed off to it).
+		 */
+		boolean remove(final Waiter waiter) {
+			return waiters.remove(waiter);
+		}
+
+		/**
+		 * Checks if any thread waits for the lock.
+		 *
+		 * @return boolean - <code>true</code> if the queue is not empty and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean hasWaiters() {
+			return !waiters.isEmpty();
+		}
+
+		/**
+		 * Returns the first waiter of the queue.
+		 *
+		 * @return Waiter - the first waiting thread or <code>null</code> if nobody waits.
+		 */
+		Waiter peek() {
+			return waiters.isEmpty() ? null : waiters.getFirst();
+		}
+
+		/**
+		 * Removes the first waiter from the queue.
+		 *
+		 * @return Waiter - the first waiting thread or <code>null</code> if nobody waits.
+		 */
+		Waiter dequeue() {
+			return waiters.isEmpty() ? null : waiters.removeFirst();
+		}
+	}
+
+	/**
+	 * <code>Waiter</code> is a thread waiting for a lock of record.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class Waiter {
+		/**
+		 * Waiting thread.
+		 */
+		private final Thread thread = Thread.currentThread();
+
+		/**
+		 * Lock the thread waits for.
+		 */
+		private final RecordLock lock;
+
+		/**
+		 * <code>true</code> if shared lock is requested.
+		 */
+		private final boolean shared;
+
+		/**
+		 * Cookie of the owner the lock is requested for or {@link RecordLockManager#NO_COOKIE}.
+		 */
+		private final long cookie;
+
+		/**
+		 * Lease time of requested lock (in milliseconds).
+		 */
+		private final long leaseTime;
+
+		/**
+		 * Owner the lock is requested for (see {@link RecordLockManager#getOwner(long)}).
+		 */
+		private final Object owner;
+
+		/**
+		 * <code>true</code> if waiting can be aborted to break a deadlock.
+		 */
+		private final boolean abortable;
+
+		/**
+		 * <code>true</code> if the lock was handed off to the thread.
+		 */
+		private volatile boolean granted;
+
+		/**
+		 * <code>true</code> if waiting was aborted to break a deadlock.
+		 */
+		private volatile boolean aborted;
+
+		/**
+		 * Constructs <code>Waiter</code> of the current thread requesting exclusive lock.
+		 *
+		 * @param lock
+		 *            RecordLock - requested lock.
+		 * @param cookie
+		 *            long - cookie of the owner or {@link RecordLockManager#NO_COOKIE}.
+		 * @param leaseTime
+		 *            long - lease time of requested lock (in milliseconds).
+		 * @param abortable
+		 *            boolean - <code>true</code> if waiting can be aborted to break a deadlock.
+		 */
+		Waiter(final RecordLock lock, final long cookie, final long leaseTime, final boolean abortable) {
+			this.lock = lock;
+			this.shared = false;
+			this.cookie = cookie;
+			this.leaseTime = leaseTime;
+			this.owner = RecordLockManager.getOwner(cookie);
+			this.abortable = abortable;
+		}
+
+		/**
+		 * Constructs <code>Waiter</code> of the current thread requesting lock without owner.
+		 *
+		 * @param lock
+		 *            RecordLock - requested lock.
+		 * @param shared
+		 *            boolean - <code>true</code> if shared lock is requested.
+		 */
+		Waiter(final RecordLock lock, final boolean shared) {
+			this.lock = lock;
+			this.shared = shared;
+			this.cookie = NO_COOKIE;
+			this.leaseTime = 0;
+			this.owner = thread;
+			this.abortable = false;
+		}
+
+		/**
+		 * Returns lock the thread waits for.
+		 *
+		 * @return RecordLock - requested lock.
+		 */
+		RecordLock getLock() {
+			return lock;
+		}
+
+		/**
+		 * Returns owner the lock is requested for.
+		 *
+		 * @return Object - waiting thread or cookie of requested lease.
+		 */
+		Object getOwner() {
+			return owner;
+		}
+
+		/**
+		 * Checks if waiting can be aborted to break a deadlock.
+		 *
+		 * @return boolean - <code>true</code> if waiting can be aborted and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isAbortable() {
+			return abortable;
+		}
+
+		/**
+		 * Checks if waiting was aborted to break a deadlock.
+		 *
+		 * @return boolean - <code>true</code> if waiting was aborted and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isAborted() {
+			return aborted;
+		}
+
+		/**
+		 * Aborts waiting of the thread (already removed from the queue) and wakes it up.
+		 */
+		void abort() {
+			aborted = true;
+			LockSupport.unpark(thread);
+		}
+
+		/**
+		 * Checks if shared lock is requested.
+		 *
+		 * @return boolean - <code>true</code> if shared lock is requested and <code>false</code>
+		 *         if exclusive lock is requested.
+		 */
+		boolean isShared() {
+			return shared;
+		}
+
+		/**
+		 * Returns cookie of the owner the lock is requested for.
+		 *
+		 * @return long - cookie of the owner or {@link RecordLockManager#NO_COOKIE}.
+		 */
+		long getCookie() {
+			return cookie;
+		}
+
+		/**
+		 * Returns lease time of requested lock.
+		 *
+		 * @return long - lease time (in milliseconds).
+		 */
+		long getLeaseTime() {
+			return leaseTime;
+		}
+
+		/**
+		 * Checks if the lock was handed off to the thread.
+		 *
+		 * @return boolean - <code>true</code> if the lock was handed off and <code>false</code>
+		 *         otherwise.
+		 */
+		boolean isGranted() {
+			return granted;
+		}
+
+		/**
+		 * Hands off the lock to the waiting thread and wakes it up.
+		 */
+		void grant() {
+			granted = true;
+			LockSupport.unpark(thread);
+		}
+
+		/**
+		 * Waits until the lock is handed off to the thread or waiting is aborted.
+		 */
+		void await() {
+			boolean interrupted = false;
+			while (!granted && !aborted) {
+				LockSupport.park();
+				// XXX: park() returns immediately while interrupt status is set
+				if (Thread.interrupted()) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Waits at most given time until the lock is handed off to the thread or the thread is
+		 * interrupted.
+		 *
+		 * @param timeout
+		 *            long - maximum time to wait (in nanoseconds).
+		 * @return boolean - <code>true</code> if the thread was interrupted (interrupt status is
+		 *         cleared) and <code>false</code> otherwise.
+		 */
+		boolean await(final long timeout) {
+			long deadline = System.nanoTime() + timeout;
+			while (!granted) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					return false;
+				}
+				LockSupport.parkNanos(left);
+				if (Thread.interrupted()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package suncertify.db.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>TimerWheel</code> is a hashed timer wheel - a circular array of buckets, each one holding
+ * a doubly linked list of timeouts. Time is split into ticks of equal duration and the timer
+ * thread visits one bucket per tick:
+ * <ul>
+ * <li>scheduling puts timeout into the bucket of its deadline (modulo wheel size) with the number
+ * of full rounds of the wheel left - O(1)</li>
+ * <li>cancelling unlinks timeout from its bucket - O(1)</li>
+ * <li>each tick expires timeouts of the visited bucket with no rounds left and decrements rounds
+ * of the others</li>
+ * </ul>
+ * Timeouts expire within one tick after their deadline. Tasks of expired timeouts are run by the
+ * timer thread, so they must be short.<br>
+ * <br>
+ * Timer thread is a daemon thread started with the first scheduled timeout. Instances of this
+ * class are thread safe - buckets are guarded by the monitor of the wheel.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.lock.RecordLockManager
+ */
+class TimerWheel {
+	/**
+	 * Duration of one tick (in milliseconds).
+	 */
+	private final long tickDuration;
+
+	/**
+	 * Heads of lists of timeouts (one for each bucket).
+	 */
+	private final Timeout[] buckets;
+
+	/**
+	 * Number of ticks visited by timer thread.
+	 */
+	private long tick = 0;
+
+	/**
+	 * Start time of the timer thread (in milliseconds) or <code>0</code> if it is not started.
+	 */
+	private long startTime = 0;
+
+	/**
+	 * Constructs <code>TimerWheel</code>.
+	 *
+	 * @param tickDuration
+	 *            long - duration of one tick (in milliseconds).
+	 * @param wheelSize
+	 *            int - number of buckets.
+	 */
+	TimerWheel(final long tickDuration, final int wheelSize) {
+		this.tickDuration = tickDuration;
+		this.buckets = new Timeout[wheelSize];
+	}
+
+	/**
+	 * Schedules given task to be run after given delay.
+	 *
+	 * @param task
+	 *            Runnable - task to be run by timer thread.
+	 * @param delay
+	 *            long - delay (in milliseconds).
+	 * @return Timeout - scheduled timeout that can be cancelled.
+	 */
+	synchronized Timeout schedule(final Runnable task, final long delay) {
+		if (startTime == 0) {
+			startTime = System.currentTimeMillis();
+			Thread thread = new Thread(new Worker(), "Lock lease timer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// XXX: delay is counted from the current time, not from the last visited tick
+		long elapsed = System.currentTimeMillis() - startTime - tick * tickDuration;
+		long ticks = Math.max(1, (Math.max(0, delay) + Math.max(0, elapsed) + tickDuration - 1) / tickDuration);
+		Timeout timeout = new Timeout(task, (ticks - 1) / buckets.length);
+		timeout.bucket = (int) ((tick + ticks) % buckets.length);
+		link(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Cancels given timeout - its task will not be run.
+	 *
+	 * @param timeout
+	 *            Timeout - timeout to cancel.
+	 * @return boolean - <code>true</code> if the timeout was cancelled and <code>false</code> if
+	 *         it has already expired or has been cancelled.
+	 */
+	synchronized boolean cancel(final Timeout timeout) {
+		if (timeout.bucket < 0) {
+			return false;
+		}
+		unlink(timeout);
+		return true;
+	}
+
+	/**
+	 * Visits the next bucket - removes its expired timeouts.
+	 *
+	 * @return List&lt;Timeout&gt; - expired timeouts.
+	 */
+	private synchronized List<Timeout> advance() {
+		++tick;
+		List<Timeout> expired = new ArrayList<Timeout>();
+		Timeout timeout = buckets[(int) (tick % buckets.length)];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.rounds <= 0) {
+				unlink(timeout);
+				expired.add(timeout);
+			} else {
+				--timeout.rounds;
+			}
+			timeout = next;
+		}
+		return expired;
+	}
+
+	/**
+	 * Returns time (in milliseconds) until the next tick.
+	 *
+	 * @return long - time until the next tick.
+	 */
+	private synchronized long getDelay() {
+		return startTime + (tick + 1) * tickDuration - System.currentTimeMillis();
+	}
+
+	/**
+	 * Adds given timeout to the head of the list of its bucket. Caller must hold the monitor.
+	 *
+	 * @param timeout
+	 *            Timeout - timeout with bucket set.
+	 */
+	private void link(final Timeout timeout) {
+		Timeout head = buckets[timeout.bucket];
+		timeout.next = head;
+		if (head != null) {
+			head.previous = timeout;
+		}
+		buckets[timeout.bucket] = timeout;
+	}
+
+	/**
+	 * Removes given timeout from the list of its bucket. Caller must hold the monitor.
+	 *
+	 * @param timeout
+	 *            Timeout - linked timeout.
+	 */
+	private void unlink(final Timeout timeout) {
+		if (timeout.previous == null) {
+			buckets[timeout.bucket] = timeout.next;
+		} else {
+			timeout.previous.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+
+	/**
+	 * <code>Timeout</code> is a task scheduled in the wheel. Fields other than the task are
+	 * guarded by the monitor of the wheel.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	static final class Timeout {
+		/**
+		 * Task run when the timeout expires.
+		 */
+		private final Runnable task;
+
+		/**
+		 * Number of full rounds of the wheel left before the timeout expires.
+		 */
+		private long rounds;
+
+		/**
+		 * Index of the bucket holding the timeout or <code>-1</code> if it has expired or has
+		 * been cancelled.
+		 */
+		private int bucket;
+
+		/**
+		 * Previous timeout of the bucket.
+		 */
+		private Timeout previous;
+
+		/**
+		 * Next timeout of the bucket.
+		 */
+		private Timeout next;
+
+		/**
+		 * Constructs <code>Timeout</code>.
+		 *
+		 * @param task
+		 *            Runnable - task run when the timeout expires.
+		 * @param rounds
+		 *            long - number of full rounds of the wheel left.
+		 */
+		private Timeout(final Runnable task, final long rounds) {
+			this.task = task;
+			this.rounds = rounds;
+		}
+
+		/**
+		 * Returns task run when the timeout expires.
+		 *
+		 * @return Runnable - task of the timeout.
+		 */
+		Runnable getTask() {
+			return task;
+		}
+	}
+
+	/**
+	 * <code>Worker</code> is the body of timer thread - it visits buckets tick by tick and runs
+	 * tasks of expired timeouts.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private final class Worker implements Runnable {
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			while (true) {
+				long delay = getDelay();
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						// XXX: timer thread is never interrupted - daemon thread ends with JVM
+					}
+					continue;
+				}
+
+				for (Timeout timeout : advance()) {
+					try {
+						timeout.task.run();
+					} catch (RuntimeException e) {
+						// XXX: failure of one task must not stop the timer
+					}
+				}
+			}
+		}
+	}
+}
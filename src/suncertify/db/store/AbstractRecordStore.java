@@ -0,0 +1,140 @@
+package suncertify.db.store;
+
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>AbstractRecordStore</code> implements methods of {@link IRecordStore}
+ * that can be expressed with {@link IRecordStore#get(int)} and
+ * {@link IRecordStore#iterator()} methods. Records are materialized as
+ * {@link Contractor} objects - subclasses that keep records in a different
+ * form override these methods.<br>
+ * <br>
+ * Numbers of new records are chosen by {@link FreeSlotAllocator} - subclasses
+ * have to report every record they put with {@link #allocate(Contractor)}.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.IRecordStore
+ */
+public abstract class AbstractRecordStore implements IRecordStore {
+	/**
+	 * Free slots allocator.
+	 */
+	private final FreeSlotAllocator allocator;
+
+	/**
+	 * Constructs <code>AbstractRecordStore</code> with given allocation
+	 * policy.
+	 *
+	 * @param policy
+	 *            AllocationPolicyEnum - policy of choosing numbers of new
+	 *            records.
+	 */
+	protected AbstractRecordStore(final AllocationPolicyEnum policy) {
+		this.allocator = new FreeSlotAllocator(policy);
+	}
+
+	/**
+	 * @see IRecordStore#getNextRecordNo()
+	 */
+	public int getNextRecordNo() {
+		return allocator.nextFreeSlot() + FIRST_RECORD_NO;
+	}
+
+	/**
+	 * @see IRecordStore#getEndRecordNo()
+	 */
+	public int getEndRecordNo() {
+		return allocator.getHighWaterMark() + FIRST_RECORD_NO;
+	}
+
+	/**
+	 * Marks the slot of given record as taken or free (if record is
+	 * deleted).
+	 *
+	 * @param record
+	 *            Contractor - record put into the store.
+	 */
+	protected void allocate(final Contractor record) {
+		allocator.update(record.getId() - FIRST_RECORD_NO, record.getFlag() == RecordFlagEnum.INVALID);
+	}
+
+	/**
+	 * Marks given slot as taken or free.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @param free
+	 *            boolean - <code>true</code> if slot holds deleted record and
+	 *            <code>false</code> otherwise.
+	 */
+	protected void allocate(final int slotIndex, final boolean free) {
+		allocator.update(slotIndex, free);
+	}
+
+	/**
+	 * @see IRecordStore#read(int)
+	 */
+	public String[] read(final int recNo) throws IOException {
+		Contractor record = get(recNo);
+		if (record == null || record.getFlag() == RecordFlagEnum.INVALID) {
+			return null;
+		}
+		return record.toStrings();
+	}
+
+	/**
+	 * @see IRecordStore#find(RecordMatcher)
+	 */
+	public List<Integer> find(final RecordMatcher matcher) throws IOException {
+		List<Integer> list = new ArrayList<Integer>();
+		try {
+			for (Iterator<Contractor> it = iterator(); it.hasNext();) {
+				Contractor record = it.next();
+				if (matcher.matches(record.toStrings())) {
+					list.add(record.getId());
+				}
+			}
+		} catch (IllegalStateException e) {
+			throw unwrap(e);
+		}
+		return list;
+	}
+
+	/**
+	 * @see IRecordStore#find(RecordMatcher, BitSet)
+	 */
+	public List<Integer> find(final RecordMatcher matcher, final BitSet candidates) throws IOException {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int recNo = candidates.nextSetBit(0); recNo >= 0; recNo = candidates.nextSetBit(recNo + 1)) {
+			String[] values = read(recNo);
+			if (values != null && matcher.matches(values)) {
+				list.add(recNo);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns <code>IOException</code> that caused given exception thrown by
+	 * {@link IRecordStore#iterator()} - other exceptions are rethrown.
+	 *
+	 * @param e
+	 *            IllegalStateException - exception thrown by iterator.
+	 * @return IOException - the cause of given exception.
+	 */
+	protected static IOException unwrap(final IllegalStateException e) {
+		if (e.getCause() instanceof IOException) {
+			return (IOException) e.getCause();
+		}
+		throw e;
+	}
+}
@@ -0,0 +1,18 @@
+package suncertify.db.store;
+
+/**
+ * <code>AllocationPolicyEnum</code> defines the ways numbers of newly created
+ * records are chosen. Enum meaning:
+ * <ul>
+ * <li>LOWEST_FIRST - the lowest number of a deleted record is reused; new
+ * number is appended only if no deleted record exists</li>
+ * <li>APPEND - new number always follows the last record, so deleted records
+ * are never reused (e.g. for bulk loading)</li>
+ * </ul>
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.FreeSlotAllocator
+ */
+public enum AllocationPolicyEnum {
+	LOWEST_FIRST, APPEND;
+}
@@ -0,0 +1,105 @@
+package suncertify.db.store;
+
+import java.util.BitSet;
+
+/**
+ * <code>FreeSlotAllocator</code> chooses slots for newly created records. It
+ * keeps a bit set of free slots (holding deleted records), the number of used
+ * slots (high-water mark) and the lowest slot that can be free. The hint only
+ * moves forward while slots are taken and goes back when a slot is freed, so
+ * looking for the lowest free slot costs amortized constant time.<br>
+ * <br>
+ * Allocator is rebuilt from flags of records when the store is loaded - the
+ * flags in database file are its persistent form.<br>
+ * <br>
+ * All methods are synchronized.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.AllocationPolicyEnum
+ */
+public class FreeSlotAllocator {
+	/**
+	 * Allocation policy.
+	 */
+	private final AllocationPolicyEnum policy;
+
+	/**
+	 * Free slots.
+	 */
+	private final BitSet freeSlots = new BitSet();
+
+	/**
+	 * Number of used slots (index of the first slot after the last record).
+	 */
+	private int highWaterMark = 0;
+
+	/**
+	 * Index of the lowest slot that can be free - there is no free slot
+	 * below it.
+	 */
+	private int lowestFree = 0;
+
+	/**
+	 * Constructs empty <code>FreeSlotAllocator</code> with given policy.
+	 *
+	 * @param policy
+	 *            AllocationPolicyEnum - allocation policy.
+	 */
+	public FreeSlotAllocator(final AllocationPolicyEnum policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the allocation policy.
+	 *
+	 * @return AllocationPolicyEnum - the allocation policy.
+	 */
+	public AllocationPolicyEnum getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Marks given slot as free (it holds deleted record) or taken.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @param free
+	 *            boolean - <code>true</code> if slot is free and
+	 *            <code>false</code> otherwise.
+	 */
+	public synchronized void update(final int slotIndex, final boolean free) {
+		highWaterMark = Math.max(highWaterMark, slotIndex + 1);
+		freeSlots.set(slotIndex, free);
+		if (free && slotIndex < lowestFree) {
+			lowestFree = slotIndex;
+		}
+	}
+
+	/**
+	 * Returns the number of used slots (index of the first slot after the
+	 * last record).
+	 *
+	 * @return int - the number of used slots.
+	 */
+	public synchronized int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Returns the index of the slot for a new record - the slot is not taken
+	 * until it is {@link #update(int, boolean) updated}.
+	 *
+	 * @return int - zero based slot index.
+	 */
+	public synchronized int nextFreeSlot() {
+		if (policy == AllocationPolicyEnum.APPEND) {
+			return highWaterMark;
+		}
+
+		lowestFree = freeSlots.nextSetBit(lowestFree);
+		if (lowestFree < 0) {
+			lowestFree = highWaterMark;
+		}
+		return lowestFree;
+	}
+}
@@ -0,0 +1,138 @@
+package suncertify.db.store;
+
+/**
+ * <code>FrequencySketch</code> estimates how often keys were accessed recently
+ * (<i>Count-Min Sketch</i> with 4-bit counters). Each key is counted in four
+ * counters and its frequency is the minimum of them, so the estimate is never
+ * lower than the real number of accesses (up to 15). When the number of
+ * recorded accesses reaches the sample size all counters are halved - this
+ * way old accesses are gradually forgotten.<br>
+ * <br>
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.TinyLfuCache
+ */
+class FrequencySketch {
+	/**
+	 * Seeds of the hash functions (one for each counter of the key).
+	 */
+	private static final long[] SEEDS = new long[] { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+			0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	/**
+	 * Mask of the most significant bits of all counters stored in a single
+	 * <code>long</code> - used to halve them all at once.
+	 */
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	/**
+	 * Counters - each <code>long</code> holds 16 counters.
+	 */
+	private final long[] table;
+
+	/**
+	 * Number of recorded accesses after which all counters are halved.
+	 */
+	private final int sampleSize;
+
+	/**
+	 * Number of accesses recorded since the last halving.
+	 */
+	private int size = 0;
+
+	/**
+	 * Constructs <code>FrequencySketch</code> instance for given number of
+	 * keys.
+	 *
+	 * @param maximumSize
+	 *            int - number of keys whose frequencies should be estimated
+	 *            accurately.
+	 */
+	FrequencySketch(final int maximumSize) {
+		int length = Integer.highestOneBit(Math.max(1, maximumSize - 1)) << 1;
+		table = new long[Math.max(8, Math.min(length, 1 << 30))];
+		sampleSize = 10 * Math.max(1, maximumSize);
+	}
+
+	/**
+	 * Returns the estimated frequency of the key with given hash code.
+	 *
+	 * @param hashCode
+	 *            int - hash code of the key.
+	 * @return int - the estimated frequency (0 - 15).
+	 */
+	int frequency(final int hashCode) {
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < SEEDS.length; ++i) {
+			int index = indexOf(hashCode, i);
+			int shift = offsetOf(hashCode, i) << 2;
+			frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xfL));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records access to the key with given hash code.
+	 *
+	 * @param hashCode
+	 *            int - hash code of the key.
+	 */
+	void increment(final int hashCode) {
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; ++i) {
+			int index = indexOf(hashCode, i);
+			int shift = offsetOf(hashCode, i) << 2;
+			long mask = 0xfL << shift;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; ++i) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size /= 2;
+	}
+
+	/**
+	 * Returns the index of <code>long</code> holding given counter of the key
+	 * with given hash code.
+	 *
+	 * @param hashCode
+	 *            int - hash code of the key.
+	 * @param counter
+	 *            int - number of the counter (0 - 3).
+	 * @return int - the index in the counter table.
+	 */
+	private int indexOf(final int hashCode, final int counter) {
+		long hash = (hashCode + SEEDS[counter]) * SEEDS[counter];
+		hash += hash >>> 32;
+		return (int) hash & (table.length - 1);
+	}
+
+	/**
+	 * Returns the position (0 - 15) of given counter of the key with given
+	 * hash code inside its <code>long</code>. Each counter of the key uses
+	 * different group of four positions.
+	 *
+	 * @param hashCode
+	 *            int - hash code of the key.
+	 * @param counter
+	 *            int - number of the counter (0 - 3).
+	 * @return int - the position of the counter.
+	 */
+	private int offsetOf(final int hashCode, final int counter) {
+		return (counter << 2) + ((hashCode * 0x9e3779b9) >>> 30);
+	}
+}
@@ -0,0 +1,147 @@
+package suncertify.db.store;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>HeapRecordStore</code> is the default implementation of
+ * {@link IRecordStore}. All records (valid and deleted) are kept in memory
+ * and deleted records are additionally kept in a separate map.<br>
+ * <br>
+ * Records are also kept in columnar form (see {@link RecordColumns}) - it is
+ * used by {@link #find(RecordMatcher)}, so searching does not create any
+ * objects for compared records.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.IRecordStore
+ */
+public class HeapRecordStore extends AbstractRecordStore {
+	/**
+	 * All records (valid and invalid) map.
+	 */
+	private final Map<Integer, Contractor> recordMap;
+
+	/**
+	 * Invalid records map.
+	 */
+	private final Map<Integer, Contractor> invalidRecordMap;
+
+	/**
+	 * Normalized values of all records.
+	 */
+	private final RecordColumns columns;
+
+	/**
+	 * Constructs <code>HeapRecordStore</code> instance with given records.
+	 *
+	 * @param recordMap
+	 *            Map&lt;Integer, Contractor&gt; - all records (key: record
+	 *            no; value: record).
+	 * @param invalidRecordMap
+	 *            Map&lt;Integer, Contractor&gt; - deleted records (key: record
+	 *            no; value: record).
+	 * @param policy
+	 *            AllocationPolicyEnum - policy of choosing numbers of new
+	 *            records.
+	 * @param scanner
+	 *            ParallelScanner - scanner searching records in parallel.
+	 */
+	public HeapRecordStore(final Map<Integer, Contractor> recordMap,
+			final Map<Integer, Contractor> invalidRecordMap, final AllocationPolicyEnum policy,
+			final ParallelScanner scanner) {
+		super(policy);
+		this.columns = new RecordColumns(scanner);
+		this.recordMap = Collections.synchronizedMap(recordMap);
+		this.invalidRecordMap = Collections.synchronizedMap(invalidRecordMap);
+
+		for (Contractor record : recordMap.values()) {
+			columns.put(record);
+			allocate(record);
+		}
+	}
+
+	/**
+	 * Constructs empty <code>HeapRecordStore</code> instance.
+	 *
+	 * @param policy
+	 *            AllocationPolicyEnum - policy of choosing numbers of new
+	 *            records.
+	 * @param scanner
+	 *            ParallelScanner - scanner searching records in parallel.
+	 */
+	public HeapRecordStore(final AllocationPolicyEnum policy, final ParallelScanner scanner) {
+		this(new HashMap<Integer, Contractor>(), new HashMap<Integer, Contractor>(), policy, scanner);
+	}
+
+	/**
+	 * @see IRecordStore#get(int)
+	 */
+	public Contractor get(final int recNo) {
+		return recordMap.get(recNo);
+	}
+
+	/**
+	 * @see IRecordStore#contains(int)
+	 */
+	public boolean contains(final int recNo) {
+		return recordMap.containsKey(recNo);
+	}
+
+	/**
+	 * @see IRecordStore#put(Contractor)
+	 */
+	public void put(final Contractor record) {
+		recordMap.put(record.getId(), record);
+		columns.put(record);
+		allocate(record);
+
+		if (record.getFlag() == RecordFlagEnum.INVALID) {
+			invalidRecordMap.put(record.getId(), record);
+		} else {
+			invalidRecordMap.remove(record.getId());
+		}
+	}
+
+	/**
+	 * Criteria are evaluated over the columns.
+	 *
+	 * @see IRecordStore#find(RecordMatcher)
+	 */
+	public List<Integer> find(final RecordMatcher matcher) {
+		return columns.find(matcher, null);
+	}
+
+	/**
+	 * Criteria are evaluated over the columns.
+	 *
+	 * @see IRecordStore#find(RecordMatcher, BitSet)
+	 */
+	public List<Integer> find(final RecordMatcher matcher, final BitSet candidates) {
+		return columns.find(matcher, candidates);
+	}
+
+	/**
+	 * Iterates over the snapshot of valid records.
+	 *
+	 * @see IRecordStore#iterator()
+	 */
+	public Iterator<Contractor> iterator() {
+		List<Contractor> list = new ArrayList<Contractor>();
+		synchronized (recordMap) {
+			for (Contractor record : recordMap.values()) {
+				if (record.getFlag() != RecordFlagEnum.INVALID) {
+					list.add(record);
+				}
+			}
+		}
+		return Collections.unmodifiableList(list).iterator();
+	}
+}
@@ -0,0 +1,123 @@
+package suncertify.db.store;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+import suncertify.db.domain.Contractor;
+
+/**
+ * <code>IRecordStore</code> keeps records of the database available for
+ * {@link suncertify.db.Data} class. Records are addressed by their record
+ * numbers. Store reflects records written to database file - it is the
+ * caller's responsibility to write the record to the file before it is
+ * {@link #put(Contractor)} into the store.<br>
+ * <br>
+ * Implementations must be thread safe.<br>
+ * <br>
+ * This interface utilizes <i>Strategy</i> design pattern.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.Data
+ */
+public interface IRecordStore {
+	/**
+	 * Returns record (valid or deleted) with given record number.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return Contractor - record with given number or <code>null</code> if
+	 *         such record does not exist.
+	 * @throws IOException
+	 *             If record cannot be read from database file.
+	 */
+	public Contractor get(int recNo) throws IOException;
+
+	/**
+	 * Returns values of valid record with given record number.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return String[] - values of the record (see
+	 *         {@link Contractor#toStrings()}) or <code>null</code> if such
+	 *         record does not exist or it is deleted.
+	 * @throws IOException
+	 *             If record cannot be read from database file.
+	 */
+	public String[] read(int recNo) throws IOException;
+
+	/**
+	 * Checks if record (valid or deleted) with given record number exists.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return boolean - <code>true</code> if record with given number exists
+	 *         and <code>false</code> otherwise.
+	 */
+	public boolean contains(int recNo);
+
+	/**
+	 * Puts given record (valid or deleted) into the store - it replaces the
+	 * record with the same number.
+	 *
+	 * @param record
+	 *            Contractor - record to put.
+	 */
+	public void put(Contractor record);
+
+	/**
+	 * Returns the iterator over all valid records - the order of records is
+	 * not defined. Iterator does not support removal of records. IO failures
+	 * are reported as <code>IllegalStateException</code> caused by
+	 * <code>IOException</code>.
+	 *
+	 * @return Iterator&lt;Contractor&gt; - the iterator over all valid
+	 *         records.
+	 */
+	public Iterator<Contractor> iterator();
+
+	/**
+	 * Returns numbers of all valid records matching given criteria.
+	 *
+	 * @param matcher
+	 *            RecordMatcher - search criteria.
+	 * @return List&lt;Integer&gt; - numbers of matching records.
+	 * @throws IOException
+	 *             If records cannot be read from database file.
+	 */
+	public List<Integer> find(RecordMatcher matcher) throws IOException;
+
+	/**
+	 * Returns numbers of valid records matching given criteria - only given
+	 * candidate records are searched.
+	 *
+	 * @param matcher
+	 *            RecordMatcher - search criteria.
+	 * @param candidates
+	 *            BitSet - bit set indexed by numbers of candidate records.
+	 * @return List&lt;Integer&gt; - numbers of matching records in ascending
+	 *         order.
+	 * @throws IOException
+	 *             If records cannot be read from database file.
+	 */
+	public List<Integer> find(RecordMatcher matcher, BitSet candidates) throws IOException;
+
+	/**
+	 * Returns free record number for a new record - depending on the
+	 * allocation policy (see {@link AllocationPolicyEnum}) it is the lowest
+	 * number of a deleted record or the number following the last record.
+	 *
+	 * @return int - first free record number.
+	 */
+	public int getNextRecordNo();
+
+	/**
+	 * Returns the number following the last record (valid or not) - new
+	 * record with this number is appended regardless of the allocation
+	 * policy.
+	 *
+	 * @return int - the number following the last record.
+	 */
+	public int getEndRecordNo();
+}
@@ -0,0 +1,24 @@
+package suncertify.db.store;
+
+import java.util.List;
+
+/**
+ * <code>ISlotScan</code> searches a range of slots of a record store - it is called by
+ * {@link ParallelScanner} for each partition of slots, possibly by many threads at once.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.ParallelScanner
+ */
+interface ISlotScan {
+	/**
+	 * Adds numbers of matching records of given range of slots to given list in ascending order.
+	 *
+	 * @param from
+	 *            int - index of the first slot (inclusive).
+	 * @param to
+	 *            int - index of the last slot (exclusive).
+	 * @param recordNos
+	 *            List&lt;Integer&gt; - list numbers of matching records are added to.
+	 */
+	void scan(int from, int to, List<Integer> recordNos);
+}
@@ -0,0 +1,258 @@
+package suncertify.db.store;
+
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import suncertify.core.DBHelper;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>LazyRecordStore</code> is an implementation of {@link IRecordStore}
+ * that keeps only a compact index of records in memory - the number of
+ * records and a bit set of deleted ones (record's offset in database file is
+ * computed from its number). Records are read from database file on demand
+ * and the most useful of them are kept in {@link TinyLfuCache}, so memory
+ * used by this store does not depend on the size of database file.<br>
+ * <br>
+ * {@link #iterator()} streams over database file segment by segment (see
+ * {@link DBHelper#LOAD_SEGMENT_SLOTS}) - streamed records do not pollute the
+ * cache.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.IRecordStore
+ */
+public class LazyRecordStore extends AbstractRecordStore {
+	/**
+	 * Database helper.
+	 */
+	private final DBHelper dbHelper;
+
+	/**
+	 * Recently and frequently used records.
+	 */
+	private final TinyLfuCache<Integer, Contractor> cache;
+
+	/**
+	 * Indexes of slots holding deleted records.
+	 */
+	private final BitSet invalidSlots;
+
+	/**
+	 * Number of records (valid and deleted).
+	 */
+	private int recordCount;
+
+	/**
+	 * Number of modifications of this store - records read from database
+	 * file are not cached if the store was modified while they were read
+	 * (they could be stale).
+	 */
+	private long modCount = 0;
+
+	/**
+	 * Constructs <code>LazyRecordStore</code> instance and reads flags of all
+	 * records from database file.
+	 *
+	 * @param dbHelper
+	 *            DBHelper - database helper.
+	 * @param cacheSize
+	 *            int - maximum number of cached records.
+	 * @param policy
+	 *            AllocationPolicyEnum - policy of choosing numbers of new
+	 *            records.
+	 * @throws IOException
+	 *             If flags of records cannot be read.
+	 * @throws IllegalArgumentException
+	 *             If given cache size is less than 2.
+	 */
+	public LazyRecordStore(final DBHelper dbHelper, final int cacheSize, final AllocationPolicyEnum policy)
+			throws IOException, IllegalArgumentException {
+
+		super(policy);
+		this.dbHelper = dbHelper;
+		this.cache = new TinyLfuCache<Integer, Contractor>(cacheSize);
+		this.recordCount = dbHelper.getRecordCount();
+		this.invalidSlots = dbHelper.loadInvalidSlots();
+
+		if (recordCount > 0) {
+			allocate(recordCount - 1, invalidSlots.get(recordCount - 1));
+		}
+		for (int i = invalidSlots.nextSetBit(0); i >= 0; i = invalidSlots.nextSetBit(i + 1)) {
+			allocate(i, true);
+		}
+	}
+
+	/**
+	 * @see IRecordStore#get(int)
+	 */
+	public Contractor get(final int recNo) throws IOException {
+		long expectedModCount;
+		synchronized (this) {
+			if (!contains(recNo)) {
+				return null;
+			}
+			expectedModCount = modCount;
+		}
+
+		Contractor record = cache.get(recNo);
+		if (record != null) {
+			return record;
+		}
+
+		record = dbHelper.loadRecord(recNo);
+		synchronized (this) {
+			if (modCount == expectedModCount) {
+				cache.put(recNo, record);
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * @see IRecordStore#contains(int)
+	 */
+	public synchronized boolean contains(final int recNo) {
+		return recNo >= FIRST_RECORD_NO && recNo - FIRST_RECORD_NO < recordCount;
+	}
+
+	/**
+	 * @see IRecordStore#put(Contractor)
+	 */
+	public synchronized void put(final Contractor record) {
+		++modCount;
+
+		int slotIndex = record.getId() - FIRST_RECORD_NO;
+		recordCount = Math.max(recordCount, slotIndex + 1);
+		invalidSlots.set(slotIndex, record.getFlag() == RecordFlagEnum.INVALID);
+		allocate(record);
+		cache.put(record.getId(), record);
+	}
+
+	/**
+	 * Records are read from database file segment by segment in the order of
+	 * their numbers.
+	 *
+	 * @see IRecordStore#iterator()
+	 */
+	public Iterator<Contractor> iterator() {
+		return new RecordIterator();
+	}
+
+	/**
+	 * Returns the number of cache hits.
+	 *
+	 * @return long - the number of cache hits.
+	 */
+	public long getCacheHitCount() {
+		return cache.getHitCount();
+	}
+
+	/**
+	 * Returns the number of cache misses.
+	 *
+	 * @return long - the number of cache misses.
+	 */
+	public long getCacheMissCount() {
+		return cache.getMissCount();
+	}
+
+	/**
+	 * <code>RecordIterator</code> streams over valid records of database file.
+	 * Cached version of the record is returned if it exists - it is never older
+	 * than the one read from database file.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private final class RecordIterator implements Iterator<Contractor> {
+		/**
+		 * Records of the current segment.
+		 */
+		private Contractor[] segment = new Contractor[0];
+
+		/**
+		 * Index of the next record in the current segment.
+		 */
+		private int position = 0;
+
+		/**
+		 * Number of the first record of the next segment.
+		 */
+		private int nextRecordNo = FIRST_RECORD_NO;
+
+		/**
+		 * Next valid record - <code>null</code> if it is not found yet.
+		 */
+		private Contractor next = null;
+
+		/**
+		 * @see Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+			while (next == null) {
+				if (position >= segment.length && !readSegment()) {
+					return false;
+				}
+
+				Contractor record = segment[position++];
+				Contractor cached = cache.peek(record.getId());
+				if (cached != null) {
+					record = cached;
+				}
+				if (record.getFlag() != RecordFlagEnum.INVALID) {
+					next = record;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @see Iterator#next()
+		 */
+		public Contractor next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			Contractor record = next;
+			next = null;
+			return record;
+		}
+
+		/**
+		 * @see Iterator#remove()
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException("Records cannot be removed.");
+		}
+
+		/**
+		 * Reads the next segment of records from database file.
+		 *
+		 * @return boolean - <code>true</code> if segment was read and
+		 *         <code>false</code> if there are no more records.
+		 */
+		private boolean readSegment() {
+			int count;
+			synchronized (LazyRecordStore.this) {
+				count = Math.min(DBHelper.LOAD_SEGMENT_SLOTS, recordCount - (nextRecordNo - FIRST_RECORD_NO));
+			}
+			if (count <= 0) {
+				return false;
+			}
+
+			try {
+				segment = dbHelper.loadRecords(nextRecordNo, count);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read records from database file.", e);
+			}
+			position = 0;
+			nextRecordNo += count;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package suncertify.db.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <code>ParallelScanner</code> searches slots of a record store with many threads. Slots are
+ * split into partitions (a few for each thread) taken in turn from a shared counter, so all
+ * threads finish at (more or less) the same time. The calling thread searches partitions too and
+ * waits only for partitions taken by other threads. Numbers of matching records of each
+ * partition are merged in the order of partitions, i.e. in ascending order.<br>
+ * <br>
+ * Searches matching less records than the threshold are done by the calling thread only. Caller
+ * must hold the lock of the store, so records are not changed while they are searched.<br>
+ * <br>
+ * Instances of this class are thread safe - one scanner is shared by all searches of a database.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.ISlotScan
+ */
+public class ParallelScanner {
+	/**
+	 * Number of partitions searched by each thread.
+	 */
+	private static final int THREAD_PARTITIONS = 4;
+
+	/**
+	 * Number of threads searching slots (including the calling thread).
+	 */
+	private final int threads;
+
+	/**
+	 * Minimum number of matched records searched in parallel.
+	 */
+	private final int threshold;
+
+	/**
+	 * Threads helping the calling thread - created on first parallel search.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Constructs <code>ParallelScanner</code>.
+	 *
+	 * @param threads
+	 *            int - number of threads searching slots (including the calling thread).
+	 * @param threshold
+	 *            int - minimum number of matched records searched in parallel.
+	 */
+	public ParallelScanner(final int threads, final int threshold) {
+		this.threads = threads;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns numbers of records of given number of slots matched by given scan.
+	 *
+	 * @param slotCount
+	 *            int - number of slots.
+	 * @param matchedCount
+	 *            int - number of records matched by the scan (e.g. number of candidates) - slots
+	 *            are searched in parallel if it is not lower than the threshold.
+	 * @param scan
+	 *            ISlotScan - scan of range of slots.
+	 * @return List&lt;Integer&gt; - numbers of matching records in ascending order.
+	 */
+	List<Integer> scan(final int slotCount, final int matchedCount, final ISlotScan scan) {
+		List<Integer> list = new ArrayList<Integer>();
+		if (threads <= 1 || matchedCount < threshold || slotCount < threads) {
+			scan.scan(0, slotCount, list);
+			return list;
+		}
+
+		int partitionSlots = (slotCount + threads * THREAD_PARTITIONS - 1) / (threads * THREAD_PARTITIONS);
+		PartitionScanner scanner = new PartitionScanner(scan, slotCount, partitionSlots);
+		ExecutorService executorService = getExecutor();
+		for (int i = 1; i < threads; ++i) {
+			executorService.execute(scanner);
+		}
+		scanner.run();
+		return scanner.merge();
+	}
+
+	/**
+	 * Returns threads helping the calling thread.
+	 *
+	 * @return ExecutorService - threads helping the calling thread.
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+				/**
+				 * @see ThreadFactory#newThread(Runnable)
+				 */
+				public Thread newThread(final Runnable runnable) {
+					Thread thread = new Thread(runnable, "DB scanner");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * <code>PartitionScanner</code> searches partitions of slots of one search until all of them
+	 * are taken - it is run by the calling thread and by helping threads at once. Helping thread
+	 * that starts after all partitions are taken does nothing.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 */
+	private static final class PartitionScanner implements Runnable {
+		/**
+		 * Scan of range of slots.
+		 */
+		private final ISlotScan scan;
+
+		/**
+		 * Number of slots.
+		 */
+		private final int slotCount;
+
+		/**
+		 * Number of slots of each partition.
+		 */
+		private final int partitionSlots;
+
+		/**
+		 * Numbers of matching records of each partition.
+		 */
+		private final List<List<Integer>> partitions;
+
+		/**
+		 * Index of the next partition to search.
+		 */
+		private final AtomicInteger nextPartition = new AtomicInteger();
+
+		/**
+		 * Counter of partitions that are not searched yet.
+		 */
+		private final CountDownLatch remainingPartitions;
+
+		/**
+		 * The first failure of the search.
+		 */
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+		/**
+		 * Constructs <code>PartitionScanner</code> instance.
+		 *
+		 * @param scan
+		 *            ISlotScan - scan of range of slots.
+		 * @param slotCount
+		 *            int - number of slots.
+		 * @param partitionSlots
+		 *            int - number of slots of each partition.
+		 */
+		PartitionScanner(final ISlotScan scan, final int slotCount, final int partitionSlots) {
+			this.scan = scan;
+			this.slotCount = slotCount;
+			this.partitionSlots = partitionSlots;
+
+			int partitionCount = (slotCount + partitionSlots - 1) / partitionSlots;
+			partitions = new ArrayList<List<Integer>>(partitionCount);
+			for (int i = 0; i < partitionCount; ++i) {
+				partitions.add(null);
+			}
+			remainingPartitions = new CountDownLatch(partitionCount);
+		}
+
+		/**
+		 * @see Runnable#run()
+		 */
+		public void run() {
+			for (int i = nextPartition.getAndIncrement(); i < partitions.size(); i = nextPartition.getAndIncrement()) {
+				try {
+					int from = i * partitionSlots;
+					List<Integer> recordNos = new ArrayList<Integer>();
+					scan.scan(from, Math.min(from + partitionSlots, slotCount), recordNos);
+					partitions.set(i, recordNos);
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					remainingPartitions.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Waits until all partitions are searched and merges their results. Waiting is not
+		 * interrupted - helping threads must not search slots after the caller releases the lock
+		 * of the store.
+		 *
+		 * @return List&lt;Integer&gt; - numbers of matching records in ascending order.
+		 * @throws RuntimeException
+		 *             If search of any partition failed.
+		 */
+		List<Integer> merge() throws RuntimeException {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					remainingPartitions.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+
+			List<Integer> list = new ArrayList<Integer>();
+			for (List<Integer> partition : partitions) {
+				list.addAll(partition);
+			}
+			return list;
+		}
+	}
+}
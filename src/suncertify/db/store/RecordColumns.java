@@ -0,0 +1,317 @@
+package suncertify.db.store;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LENGTHS;
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+import static suncertify.db.domain.DBMetaInfo.UNSAVED_RECORD_NO;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>RecordColumns</code> keeps records in columnar form - one array for each field, indexed
+ * by slot index (record number minus {@link suncertify.db.domain.DBMetaInfo#FIRST_RECORD_NO}):
+ * <ul>
+ * <li>name, location and specialties - normalized (trimmed and upper-cased) strings</li>
+ * <li>size and owner - <code>int</code> values</li>
+ * <li>rate - <code>long</code> fixed-point value (hundredths) and normalized string (prefix of
+ * the rate depends on the way <code>double</code> is printed)</li>
+ * </ul>
+ * plus a bit set of slots holding valid records.<br>
+ * <br>
+ * {@link #find(RecordMatcher, BitSet)} evaluates criteria column by column - each criterion narrows the
+ * set of candidate slots in a tight loop over a single array, no objects are created for
+ * compared records. Slots are split into partitions searched in parallel when there are many of
+ * them (see {@link ParallelScanner}).<br>
+ * <br>
+ * Columns are guarded by a read-write lock - scans do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.HeapRecordStore
+ */
+class RecordColumns {
+	/**
+	 * Index of the size field.
+	 */
+	private static final int SIZE = 3;
+
+	/**
+	 * Index of the rate field.
+	 */
+	private static final int RATE = 4;
+
+	/**
+	 * Index of the owner field.
+	 */
+	private static final int OWNER = 5;
+
+	/**
+	 * Initial capacity of columns.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Normalized text values (name, location, specialties and rate) - columns of numeric fields
+	 * other than rate are <code>null</code>.
+	 */
+	private final String[][] text = new String[FIELDS_COUNT][];
+
+	/**
+	 * Company sizes.
+	 */
+	private int[] size = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Rates in hundredths.
+	 */
+	private long[] rate = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Ids of customers who booked contractors.
+	 */
+	private int[] owner = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Slots holding valid records.
+	 */
+	private final BitSet validSlots = new BitSet();
+
+	/**
+	 * Read lock of the columns.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the columns.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Scanner searching slots in parallel.
+	 */
+	private final ParallelScanner scanner;
+
+	/**
+	 * Constructs empty <code>RecordColumns</code> instance.
+	 *
+	 * @param scanner
+	 *            ParallelScanner - scanner searching slots in parallel.
+	 */
+	RecordColumns(final ParallelScanner scanner) {
+		this.scanner = scanner;
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+
+		for (int i = 0; i < SIZE; ++i) {
+			text[i] = new String[INITIAL_CAPACITY];
+		}
+		text[RATE] = new String[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Puts given record (valid or deleted) into the columns - it replaces the record with the
+	 * same number.
+	 *
+	 * @param record
+	 *            Contractor - record to put.
+	 */
+	void put(final Contractor record) {
+		int slotIndex = record.getId() - FIRST_RECORD_NO;
+		String[] values = record.toStrings();
+
+		writeLock.lock();
+		try {
+			ensureCapacity(slotIndex + 1);
+			for (int i = 0; i < FIELDS_COUNT; ++i) {
+				if (text[i] != null) {
+					text[i][slotIndex] = values[i].trim().toUpperCase();
+				}
+			}
+			size[slotIndex] = record.getSize();
+			rate[slotIndex] = Math.round(record.getRate().getValue() * 100);
+			owner[slotIndex] = record.getOwner();
+			validSlots.set(slotIndex, record.getFlag() != RecordFlagEnum.INVALID);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns numbers of valid records matching given criteria - numbers are returned in
+	 * ascending order.
+	 *
+	 * @param matcher
+	 *            RecordMatcher - search criteria.
+	 * @param recordNos
+	 *            BitSet - bit set indexed by numbers of candidate records or <code>null</code> if
+	 *            all records are searched.
+	 * @return List&lt;Integer&gt; - numbers of matching records.
+	 */
+	List<Integer> find(final RecordMatcher matcher, final BitSet recordNos) {
+		readLock.lock();
+		try {
+			int matchedCount = recordNos == null ? validSlots.cardinality() : recordNos.cardinality();
+			return scanner.scan(validSlots.length(), matchedCount, new ISlotScan() {
+				/**
+				 * @see ISlotScan#scan(int, int, List)
+				 */
+				public void scan(final int from, final int to, final List<Integer> list) {
+					find(matcher, recordNos, from, to, list);
+				}
+			});
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds numbers of valid records of given range of slots matching given criteria to given
+	 * list - numbers are added in ascending order. Caller must hold a lock.
+	 *
+	 * @param matcher
+	 *            RecordMatcher - search criteria.
+	 * @param recordNos
+	 *            BitSet - bit set indexed by numbers of candidate records or <code>null</code> if
+	 *            all records are searched.
+	 * @param from
+	 *            int - index of the first slot (inclusive).
+	 * @param to
+	 *            int - index of the last slot (exclusive).
+	 * @param list
+	 *            List&lt;Integer&gt; - list numbers of matching records are added to.
+	 */
+	private void find(final RecordMatcher matcher, final BitSet recordNos, final int from, final int to,
+			final List<Integer> list) {
+
+		// XXX: bit i of candidates is slot from + i
+		BitSet candidates = validSlots.get(from, to);
+		if (recordNos != null) {
+			BitSet slots = new BitSet();
+			int end = to + FIRST_RECORD_NO;
+			for (int i = recordNos.nextSetBit(from + FIRST_RECORD_NO); i >= 0 && i < end; i = recordNos
+					.nextSetBit(i + 1)) {
+				slots.set(i - FIRST_RECORD_NO - from);
+			}
+			candidates.and(slots);
+		}
+		for (int field = 0; field < FIELDS_COUNT && !candidates.isEmpty(); ++field) {
+			String prefix = matcher.getPrefix(field);
+			if (prefix == null || prefix.length() == 0) {
+				// criterion matches any value
+				continue;
+			}
+
+			if (text[field] != null) {
+				String[] column = text[field];
+				for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+					if (!column[from + i].startsWith(prefix)) {
+						candidates.clear(i);
+					}
+				}
+			} else {
+				int[] column = field == SIZE ? size : owner;
+				boolean ownerColumn = field == OWNER;
+				for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+					// XXX: unsaved owner is represented by empty string
+					if ((ownerColumn && column[from + i] == UNSAVED_RECORD_NO)
+							|| !startsWith(column[from + i], prefix, FIELD_LENGTHS[field])) {
+						candidates.clear(i);
+					}
+				}
+			}
+		}
+
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			list.add(from + i + FIRST_RECORD_NO);
+		}
+	}
+
+	/**
+	 * Checks if decimal representation of given number (cut to given length) starts with given
+	 * prefix - the representation is not created.
+	 *
+	 * @param value
+	 *            int - number.
+	 * @param prefix
+	 *            String - normalized, not empty prefix.
+	 * @param length
+	 *            int - length of the field.
+	 * @return boolean - <code>true</code> if representation of given number starts with given
+	 *         prefix and <code>false</code> otherwise.
+	 */
+	private static boolean startsWith(final int value, final String prefix, final int length) {
+		if (prefix.length() > length) {
+			return false;
+		}
+
+		long number = value;
+		int i = 0;
+		if (number < 0) {
+			if (prefix.charAt(0) != '-') {
+				return false;
+			}
+			number = -number;
+			i = 1;
+		}
+
+		long divisor = 1;
+		int digits = 1;
+		while (divisor * 10 <= number) {
+			divisor *= 10;
+			++digits;
+		}
+		if (prefix.length() - i > digits) {
+			return false;
+		}
+
+		for (; i < prefix.length(); ++i) {
+			if (prefix.charAt(i) != (char) ('0' + (number / divisor) % 10)) {
+				return false;
+			}
+			divisor /= 10;
+		}
+		return true;
+	}
+
+	/**
+	 * Grows columns, so they can hold at least given number of slots. Caller must hold the write
+	 * lock.
+	 *
+	 * @param capacity
+	 *            int - required capacity.
+	 */
+	private void ensureCapacity(final int capacity) {
+		if (capacity <= size.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, size.length * 2);
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			if (text[i] != null) {
+				String[] column = new String[newCapacity];
+				System.arraycopy(text[i], 0, column, 0, text[i].length);
+				text[i] = column;
+			}
+		}
+
+		int[] newSize = new int[newCapacity];
+		System.arraycopy(size, 0, newSize, 0, size.length);
+		size = newSize;
+
+		long[] newRate = new long[newCapacity];
+		System.arraycopy(rate, 0, newRate, 0, rate.length);
+		rate = newRate;
+
+		int[] newOwner = new int[newCapacity];
+		System.arraycopy(owner, 0, newOwner, 0, owner.length);
+		owner = newOwner;
+	}
+}
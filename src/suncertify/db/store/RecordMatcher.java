@@ -0,0 +1,268 @@
+package suncertify.db.store;
+
+import static suncertify.db.domain.DBMetaInfo.FIELDS_COUNT;
+import static suncertify.db.domain.DBMetaInfo.FIELD_LENGTHS;
+import static suncertify.db.domain.DBMetaInfo.FLAG_LENGTH;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>RecordMatcher</code> checks if records match search criteria of
+ * {@link suncertify.db.DBMain#find(String[])} method - record matches if each
+ * of its fields (trimmed and upper-cased) starts with the corresponding
+ * criterion (trimmed and upper-cased). <code>null</code> criterion matches any
+ * field value.<br>
+ * <br>
+ * Criteria are normalized once, when the matcher is created. Records can be
+ * matched either as string arrays (see
+ * {@link suncertify.db.domain.IDomain#toStrings()}) or directly as slots
+ * encoded by {@link suncertify.db.domain.ContractorCodec} - fields are not
+ * upper-cased (and in the latter case no objects are created) unless a
+ * field or a criterion contains non-ASCII characters.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public class RecordMatcher {
+	/**
+	 * Offsets of fields in the slot.
+	 */
+	private static final int[] FIELD_OFFSETS = new int[FIELDS_COUNT];
+	static {
+		int offset = FLAG_LENGTH;
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			FIELD_OFFSETS[i] = offset;
+			offset += FIELD_LENGTHS[i];
+		}
+	}
+
+	/**
+	 * Lower-case ASCII letters.
+	 */
+	private static final String ASCII_LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	/**
+	 * Upper-case ASCII letters.
+	 */
+	private static final String ASCII_UPPER_CASE_LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	/**
+	 * Normalized (trimmed and upper-cased) criteria - <code>null</code>
+	 * criterion matches any value.
+	 */
+	private final String[] prefixes;
+
+	/**
+	 * Indicates that all criteria consist of ASCII characters only and
+	 * ASCII letters are upper-cased to ASCII letters (see
+	 * {@link #isAsciiUpperCase()}).
+	 */
+	private final boolean ascii;
+
+	/**
+	 * Constructs <code>RecordMatcher</code> for given criteria.
+	 *
+	 * @param criteria
+	 *            String[] - search criteria (one for each field).
+	 * @throws IllegalArgumentException
+	 *             If the number of criteria does not equal the number of
+	 *             fields.
+	 */
+	public RecordMatcher(final String[] criteria) throws IllegalArgumentException {
+		if (criteria.length != FIELDS_COUNT) {
+			throw new IllegalArgumentException("Size of criteria array (" + criteria.length + ") must equal "
+					+ FIELDS_COUNT + ".");
+		}
+
+		prefixes = new String[FIELDS_COUNT];
+		boolean allAscii = true;
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			if (criteria[i] != null) {
+				prefixes[i] = criteria[i].trim().toUpperCase();
+				allAscii &= isAscii(prefixes[i]);
+			}
+		}
+		ascii = allAscii && isAsciiUpperCase();
+	}
+
+	/**
+	 * Returns normalized criterion of given field.
+	 *
+	 * @param field
+	 *            int - index of the field.
+	 * @return String - normalized (trimmed and upper-cased) criterion or <code>null</code> if any
+	 *         value of the field matches.
+	 */
+	public String getPrefix(final int field) {
+		return prefixes[field];
+	}
+
+	/**
+	 * Checks if given record matches criteria.
+	 *
+	 * @param values
+	 *            String[] - record's values (see
+	 *            {@link suncertify.db.domain.IDomain#toStrings()}).
+	 * @return boolean - <code>true</code> if given record matches criteria
+	 *         and <code>false</code> otherwise.
+	 */
+	public boolean matches(final String[] values) {
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			if (prefixes[i] != null && !startsWith(values[i], prefixes[i])) {
+				// one unfulfilled criterion excludes the record
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if encoded record matches criteria.
+	 *
+	 * @param slots
+	 *            ByteBuffer - buffer containing the slot.
+	 * @param position
+	 *            int - position of the slot (its flag) in the buffer.
+	 * @return boolean - <code>true</code> if given record matches criteria
+	 *         and <code>false</code> otherwise.
+	 */
+	public boolean matches(final ByteBuffer slots, final int position) {
+		for (int i = 0; i < FIELDS_COUNT; ++i) {
+			if (prefixes[i] != null && !startsWith(slots, position + FIELD_OFFSETS[i], FIELD_LENGTHS[i], prefixes[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if encoded field (trimmed and upper-cased) starts with given
+	 * prefix.
+	 *
+	 * @param slots
+	 *            ByteBuffer - buffer containing the field.
+	 * @param offset
+	 *            int - position of the field in the buffer.
+	 * @param length
+	 *            int - length of the field.
+	 * @param prefix
+	 *            String - normalized prefix.
+	 * @return boolean - <code>true</code> if field starts with given prefix
+	 *         and <code>false</code> otherwise.
+	 */
+	private boolean startsWith(final ByteBuffer slots, final int offset, final int length, final String prefix) {
+		int end = offset + length;
+		int start = offset;
+		while (start < end && (slots.get(start) & 0xff) <= ' ') {
+			++start;
+		}
+
+		if (ascii) {
+			for (int i = 0; i < prefix.length(); ++i) {
+				if (start + i >= end) {
+					return false;
+				}
+
+				int c = slots.get(start + i) & 0xff;
+				if (c >= 0x80) {
+					// XXX: upper-casing of non-ASCII characters depends on locale - use String
+					return decode(slots, offset, length).trim().toUpperCase().startsWith(prefix);
+				}
+				if (c >= 'a' && c <= 'z') {
+					c -= 'a' - 'A';
+				}
+				if (c != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return decode(slots, offset, length).trim().toUpperCase().startsWith(prefix);
+	}
+
+	/**
+	 * Checks if given field (trimmed and upper-cased) starts with given
+	 * prefix.
+	 *
+	 * @param value
+	 *            String - value of the field.
+	 * @param prefix
+	 *            String - normalized prefix.
+	 * @return boolean - <code>true</code> if field starts with given prefix
+	 *         and <code>false</code> otherwise.
+	 */
+	private boolean startsWith(final String value, final String prefix) {
+		int end = value.length();
+		int start = 0;
+		while (start < end && value.charAt(start) <= ' ') {
+			++start;
+		}
+		if (ascii) {
+			for (int i = 0; i < prefix.length(); ++i) {
+				if (start + i >= end) {
+					return false;
+				}
+				char c = value.charAt(start + i);
+				if (c >= 0x80) {
+					// XXX: upper-casing of non-ASCII characters depends on locale - use String
+					return value.trim().toUpperCase().startsWith(prefix);
+				}
+				if (c >= 'a' && c <= 'z') {
+					c -= 'a' - 'A';
+				}
+				if (c != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return value.trim().toUpperCase().startsWith(prefix);
+	}
+
+	/**
+	 * Decodes encoded field as ISO-8859-1 string.
+	 *
+	 * @param slots
+	 *            ByteBuffer - buffer containing the field.
+	 * @param offset
+	 *            int - position of the field in the buffer.
+	 * @param length
+	 *            int - length of the field.
+	 * @return String - decoded field.
+	 */
+	private static String decode(final ByteBuffer slots, final int offset, final int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = (char) (slots.get(offset + i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Checks if ASCII letters are upper-cased to ASCII letters in the default
+	 * locale (e.g. it is not true for Turkish locale).
+	 *
+	 * @return boolean - <code>true</code> if ASCII letters can be upper-cased
+	 *         without {@link String#toUpperCase()} and <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean isAsciiUpperCase() {
+		return ASCII_LETTERS.toUpperCase().equals(ASCII_UPPER_CASE_LETTERS);
+	}
+
+	/**
+	 * Checks if given string consists of ASCII characters only.
+	 *
+	 * @param string
+	 *            String - string to check.
+	 * @return boolean - <code>true</code> if given string consists of ASCII
+	 *         characters only and <code>false</code> otherwise.
+	 */
+	private static boolean isAscii(final String string) {
+		for (int i = 0; i < string.length(); ++i) {
+			if (string.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
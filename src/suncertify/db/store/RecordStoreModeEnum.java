@@ -0,0 +1,20 @@
+package suncertify.db.store;
+
+/**
+ * <code>RecordStoreModeEnum</code> defines the ways records of the database
+ * are kept in memory. Enum meaning:
+ * <ul>
+ * <li>HEAP - all records (valid and deleted) are loaded at startup and kept
+ * in memory (see {@link HeapRecordStore})</li>
+ * <li>LAZY - only flags of records are kept in memory and records are read
+ * from database file on demand into a bounded cache (see
+ * {@link LazyRecordStore}) - records are not indexed</li>
+ * <li>SLAB - all records are kept outside of the Java heap in the form of
+ * database file slots (see {@link SlabRecordStore})</li>
+ * </ul>
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ */
+public enum RecordStoreModeEnum {
+	HEAP, LAZY, SLAB;
+}
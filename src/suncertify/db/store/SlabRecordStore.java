@@ -0,0 +1,333 @@
+package suncertify.db.store;
+
+import static suncertify.db.domain.DBMetaInfo.FIRST_RECORD_NO;
+import static suncertify.db.domain.DBMetaInfo.SLOT_LENGTH;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import suncertify.core.DBHelper;
+import suncertify.db.domain.Contractor;
+import suncertify.db.domain.ContractorCodec;
+import suncertify.db.domain.RecordFlagEnum;
+
+/**
+ * <code>SlabRecordStore</code> is an implementation of {@link IRecordStore}
+ * that keeps all records outside of the Java heap - in direct byte buffers
+ * (chunks of {@link #CHUNK_SLOTS} slots) laid out exactly like slots of
+ * database file. There are no per-record Java objects, so records cost (almost)
+ * only their 183 bytes and are not scanned by the garbage collector.<br>
+ * <br>
+ * Slots are kept in the form written by {@link ContractorCodec} (i.e. the
+ * same as {@link Contractor#toStrings()} values), so {@link #read(int)} and
+ * {@link #find(RecordMatcher)} work directly on slot bytes - a
+ * {@link Contractor} object is created only by {@link #get(int)} and
+ * {@link #iterator()} methods.<br>
+ * <br>
+ * Slab is guarded by a read-write lock - reads do not block each other.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @see suncertify.db.store.IRecordStore
+ */
+public class SlabRecordStore extends AbstractRecordStore {
+	/**
+	 * Number of slots in a single chunk of the slab.
+	 */
+	public static final int CHUNK_SLOTS = 1 << 16;
+
+	/**
+	 * Chunks of the slab.
+	 */
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+	/**
+	 * Indexes of slots holding deleted records.
+	 */
+	private final BitSet invalidSlots = new BitSet();
+
+	/**
+	 * Number of records (valid and deleted).
+	 */
+	private int recordCount = 0;
+
+	/**
+	 * Read lock of the slab.
+	 */
+	private final Lock readLock;
+
+	/**
+	 * Write lock of the slab.
+	 */
+	private final Lock writeLock;
+
+	/**
+	 * Scanner searching slots in parallel.
+	 */
+	private final ParallelScanner scanner;
+
+	/**
+	 * Record codecs - codec is not thread safe, so each thread uses its own.
+	 */
+	private final ThreadLocal<ContractorCodec> codecs = new ThreadLocal<ContractorCodec>() {
+		/**
+		 * @see ThreadLocal#initialValue()
+		 */
+		protected ContractorCodec initialValue() {
+			return new ContractorCodec();
+		}
+	};
+
+	/**
+	 * Constructs <code>SlabRecordStore</code> instance and copies all records
+	 * of database file into the slab.
+	 *
+	 * @param dbHelper
+	 *            DBHelper - database helper.
+	 * @param policy
+	 *            AllocationPolicyEnum - policy of choosing numbers of new
+	 *            records.
+	 * @param scanner
+	 *            ParallelScanner - scanner searching slots in parallel.
+	 * @throws IOException
+	 *             If records cannot be read from database file.
+	 */
+	public SlabRecordStore(final DBHelper dbHelper, final AllocationPolicyEnum policy, final ParallelScanner scanner)
+			throws IOException {
+
+		super(policy);
+		this.scanner = scanner;
+		ReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+
+		int count = dbHelper.getRecordCount();
+		for (int first = 0; first < count; first += DBHelper.LOAD_SEGMENT_SLOTS) {
+			// records are re-encoded, so slab holds them in the form written by codec
+			for (Contractor record : dbHelper.loadRecords(first + FIRST_RECORD_NO, Math.min(
+					DBHelper.LOAD_SEGMENT_SLOTS, count - first))) {
+				put(record);
+			}
+		}
+	}
+
+	/**
+	 * Returns the view of the slot with given index - position and limit of
+	 * returned buffer are set to the slot boundaries. Caller must hold the
+	 * lock.
+	 *
+	 * @param slotIndex
+	 *            int - zero based slot index.
+	 * @return ByteBuffer - the view of the slot.
+	 */
+	private ByteBuffer viewOf(final int slotIndex) {
+		ByteBuffer view = chunks.get(slotIndex / CHUNK_SLOTS).duplicate();
+		int position = (slotIndex % CHUNK_SLOTS) * SLOT_LENGTH;
+		view.limit(position + SLOT_LENGTH);
+		view.position(position);
+		return view;
+	}
+
+	/**
+	 * Checks if record with given number exists. Caller must hold the lock.
+	 *
+	 * @param recNo
+	 *            int - record number.
+	 * @return boolean - <code>true</code> if record with given number exists
+	 *         and <code>false</code> otherwise.
+	 */
+	private boolean exists(final int recNo) {
+		return recNo >= FIRST_RECORD_NO && recNo - FIRST_RECORD_NO < recordCount;
+	}
+
+	/**
+	 * @see IRecordStore#get(int)
+	 */
+	public Contractor get(final int recNo) {
+		readLock.lock();
+		try {
+			if (!exists(recNo)) {
+				return null;
+			}
+
+			Contractor record = codecs.get().decode(viewOf(recNo - FIRST_RECORD_NO));
+			record.setId(recNo);
+			return record;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Values are decoded directly from the slot.
+	 *
+	 * @see IRecordStore#read(int)
+	 */
+	public String[] read(final int recNo) {
+		readLock.lock();
+		try {
+			if (!exists(recNo) || invalidSlots.get(recNo - FIRST_RECORD_NO)) {
+				return null;
+			}
+			return codecs.get().decodeStrings(viewOf(recNo - FIRST_RECORD_NO));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @see IRecordStore#contains(int)
+	 */
+	public boolean contains(final int recNo) {
+		readLock.lock();
+		try {
+			return exists(recNo);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Records are matched directly in the slab - in parallel if there are many of them (see
+	 * {@link ParallelScanner}).
+	 *
+	 * @see IRecordStore#find(RecordMatcher)
+	 */
+	public List<Integer> find(final RecordMatcher matcher) {
+		readLock.lock();
+		try {
+			return scanner.scan(recordCount, recordCount, new ISlotScan() {
+				/**
+				 * @see ISlotScan#scan(int, int, List)
+				 */
+				public void scan(final int from, final int to, final List<Integer> recordNos) {
+					for (int i = invalidSlots.nextClearBit(from); i < to; i = invalidSlots.nextClearBit(i + 1)) {
+						if (matcher.matches(chunks.get(i / CHUNK_SLOTS), (i % CHUNK_SLOTS) * SLOT_LENGTH)) {
+							recordNos.add(i + FIRST_RECORD_NO);
+						}
+					}
+				}
+			});
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Records are matched directly in the slab - in parallel if there are many of them (see
+	 * {@link ParallelScanner}).
+	 *
+	 * @see IRecordStore#find(RecordMatcher, BitSet)
+	 */
+	public List<Integer> find(final RecordMatcher matcher, final BitSet candidates) {
+		readLock.lock();
+		try {
+			return scanner.scan(recordCount, candidates.cardinality(), new ISlotScan() {
+				/**
+				 * @see ISlotScan#scan(int, int, List)
+				 */
+				public void scan(final int from, final int to, final List<Integer> recordNos) {
+					int end = to + FIRST_RECORD_NO;
+					for (int recNo = candidates.nextSetBit(from + FIRST_RECORD_NO); recNo >= 0 && recNo < end; recNo = candidates
+							.nextSetBit(recNo + 1)) {
+						int i = recNo - FIRST_RECORD_NO;
+						if (!invalidSlots.get(i)
+								&& matcher.matches(chunks.get(i / CHUNK_SLOTS), (i % CHUNK_SLOTS) * SLOT_LENGTH)) {
+							recordNos.add(recNo);
+						}
+					}
+				}
+			});
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @see IRecordStore#put(Contractor)
+	 */
+	public void put(final Contractor record) {
+		ContractorCodec codec = codecs.get();
+		writeLock.lock();
+		try {
+			int slotIndex = record.getId() - FIRST_RECORD_NO;
+			while (slotIndex >= chunks.size() * CHUNK_SLOTS) {
+				chunks.add(ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_LENGTH));
+			}
+
+			codec.encode(record, viewOf(slotIndex));
+			recordCount = Math.max(recordCount, slotIndex + 1);
+			invalidSlots.set(slotIndex, record.getFlag() == RecordFlagEnum.INVALID);
+		} finally {
+			writeLock.unlock();
+		}
+		allocate(record);
+	}
+
+	/**
+	 * Records are decoded one by one while iterating.
+	 *
+	 * @see IRecordStore#iterator()
+	 */
+	public Iterator<Contractor> iterator() {
+		return new Iterator<Contractor>() {
+			/**
+			 * Index of the next valid slot.
+			 */
+			private int next = nextValidSlot(0);
+
+			/**
+			 * @see Iterator#hasNext()
+			 */
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			/**
+			 * @see Iterator#next()
+			 */
+			public Contractor next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+
+				Contractor record = get(next + FIRST_RECORD_NO);
+				next = nextValidSlot(next + 1);
+				return record;
+			}
+
+			/**
+			 * @see Iterator#remove()
+			 */
+			public void remove() {
+				throw new UnsupportedOperationException("Records cannot be removed.");
+			}
+		};
+	}
+
+	/**
+	 * Returns the index of the first slot holding valid record starting with
+	 * given index.
+	 *
+	 * @param fromIndex
+	 *            int - index to start from.
+	 * @return int - the index of valid slot or <code>-1</code> if there is no
+	 *         such slot.
+	 */
+	private int nextValidSlot(final int fromIndex) {
+		readLock.lock();
+		try {
+			int slotIndex = invalidSlots.nextClearBit(fromIndex);
+			return slotIndex < recordCount ? slotIndex : -1;
+		} finally {
+			readLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package suncertify.db.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <code>TinyLfuCache</code> is a size-bounded cache with <i>W-TinyLFU</i>
+ * eviction policy. Cached entries are kept in three LRU segments:
+ * <ul>
+ * <li>window (1% of the capacity) - every new entry is admitted here</li>
+ * <li>probation - entries moved out of the window that were not accessed
+ * since then</li>
+ * <li>protected (80% of the main area) - entries accessed while in
+ * probation</li>
+ * </ul>
+ * An entry moved out of the window competes with the eldest entry of the main
+ * area - the one accessed less frequently (see {@link FrequencySketch}) is
+ * evicted. This way a single scan over many rarely used entries cannot flush
+ * entries that are used often.<br>
+ * <br>
+ * All methods are synchronized.
+ *
+ * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+ * @param <K>
+ *            type of keys.
+ * @param <V>
+ *            type of values.
+ */
+public class TinyLfuCache<K, V> {
+	/**
+	 * Window segment.
+	 */
+	private final LinkedHashMap<K, V> window = new LinkedHashMap<K, V>();
+
+	/**
+	 * Probation segment of the main area.
+	 */
+	private final LinkedHashMap<K, V> probation = new LinkedHashMap<K, V>();
+
+	/**
+	 * Protected segment of the main area.
+	 */
+	private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<K, V>();
+
+	/**
+	 * Frequencies of accesses.
+	 */
+	private final FrequencySketch sketch;
+
+	/**
+	 * Maximum number of entries in the window segment.
+	 */
+	private final int maximumWindowSize;
+
+	/**
+	 * Maximum number of entries in the main area (probation and protected
+	 * segments).
+	 */
+	private final int maximumMainSize;
+
+	/**
+	 * Maximum number of entries in the protected segment.
+	 */
+	private final int maximumProtectedSize;
+
+	/**
+	 * Number of cache hits.
+	 */
+	private long hitCount = 0;
+
+	/**
+	 * Number of cache misses.
+	 */
+	private long missCount = 0;
+
+	/**
+	 * Constructs <code>TinyLfuCache</code> holding at most given number of
+	 * entries.
+	 *
+	 * @param maximumSize
+	 *            int - maximum number of cached entries.
+	 * @throws IllegalArgumentException
+	 *             If given size is less than 2.
+	 */
+	public TinyLfuCache(final int maximumSize) throws IllegalArgumentException {
+		if (maximumSize < 2) {
+			throw new IllegalArgumentException("Cache size must be at least 2 - passed value: " + maximumSize);
+		}
+
+		maximumWindowSize = Math.max(1, maximumSize / 100);
+		maximumMainSize = maximumSize - maximumWindowSize;
+		maximumProtectedSize = maximumMainSize * 8 / 10;
+		sketch = new FrequencySketch(maximumSize);
+	}
+
+	/**
+	 * Returns cached value of given key and records the access.
+	 *
+	 * @param key
+	 *            K - key.
+	 * @return V - cached value or <code>null</code> if it is not cached.
+	 */
+	public synchronized V get(final K key) {
+		sketch.increment(key.hashCode());
+
+		V value = touch(window, key);
+		if (value == null) {
+			value = touch(protectedSegment, key);
+		}
+		if (value == null) {
+			value = probation.remove(key);
+			if (value != null) {
+				promote(key, value);
+			}
+		}
+
+		if (value == null) {
+			++missCount;
+		} else {
+			++hitCount;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns cached value of given key - the access is not recorded and the
+	 * order of entries is not changed.
+	 *
+	 * @param key
+	 *            K - key.
+	 * @return V - cached value or <code>null</code> if it is not cached.
+	 */
+	public synchronized V peek(final K key) {
+		V value = window.get(key);
+		if (value == null) {
+			value = protectedSegment.get(key);
+		}
+		if (value == null) {
+			value = probation.get(key);
+		}
+		return value;
+	}
+
+	/**
+	 * Puts given value into the cache - cached value of given key is
+	 * replaced.
+	 *
+	 * @param key
+	 *            K - key.
+	 * @param value
+	 *            V - value.
+	 */
+	public synchronized void put(final K key, final V value) {
+		sketch.increment(key.hashCode());
+
+		if (window.remove(key) != null) {
+			window.put(key, value);
+		} else if (protectedSegment.remove(key) != null) {
+			protectedSegment.put(key, value);
+		} else if (probation.remove(key) != null) {
+			promote(key, value);
+		} else {
+			window.put(key, value);
+			if (window.size() > maximumWindowSize) {
+				evict();
+			}
+		}
+	}
+
+	/**
+	 * Removes value of given key from the cache.
+	 *
+	 * @param key
+	 *            K - key.
+	 */
+	public synchronized void remove(final K key) {
+		if (window.remove(key) == null && protectedSegment.remove(key) == null) {
+			probation.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of cached entries.
+	 *
+	 * @return int - the number of cached entries.
+	 */
+	public synchronized int size() {
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Returns the number of cache hits.
+	 *
+	 * @return long - the number of cache hits.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of cache misses.
+	 *
+	 * @return long - the number of cache misses.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Moves entry accessed in probation segment to the protected one. If the
+	 * protected segment is full its eldest entry goes back to the probation.
+	 *
+	 * @param key
+	 *            K - key.
+	 * @param value
+	 *            V - value.
+	 */
+	private void promote(final K key, final V value) {
+		protectedSegment.put(key, value);
+		if (protectedSegment.size() > maximumProtectedSize) {
+			Map.Entry<K, V> eldest = removeEldest(protectedSegment);
+			probation.put(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	/**
+	 * Moves the eldest entry of the window to the main area - if the main area
+	 * is full either this entry or the eldest entry of the main area is
+	 * evicted (the one accessed less frequently).
+	 */
+	private void evict() {
+		Map.Entry<K, V> candidate = removeEldest(window);
+		if (probation.size() + protectedSegment.size() < maximumMainSize) {
+			probation.put(candidate.getKey(), candidate.getValue());
+			return;
+		}
+
+		LinkedHashMap<K, V> victims = probation.isEmpty() ? protectedSegment : probation;
+		K victim = victims.keySet().iterator().next();
+		if (sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.hashCode())) {
+			victims.remove(victim);
+			probation.put(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	/**
+	 * Removes the eldest (least recently used) entry of given segment.
+	 *
+	 * @param segment
+	 *            LinkedHashMap&lt;K, V&gt; - segment.
+	 * @return Map.Entry&lt;K, V&gt; - removed entry.
+	 */
+	private Map.Entry<K, V> removeEldest(final LinkedHashMap<K, V> segment) {
+		Iterator<Map.Entry<K, V>> it = segment.entrySet().iterator();
+		Map.Entry<K, V> eldest = it.next();
+		// XXX: entry is copied - removal invalidates it
+		Map.Entry<K, V> copy = new SimpleEntry<K, V>(eldest.getKey(), eldest.getValue());
+		it.remove();
+		return copy;
+	}
+
+	/**
+	 * Moves entry with given key to the end (most recently used position) of
+	 * given segment.
+	 *
+	 * @param segment
+	 *            LinkedHashMap&lt;K, V&gt; - segment.
+	 * @param key
+	 *            K - key.
+	 * @return V - value or <code>null</code> if given key is not in the
+	 *         segment.
+	 */
+	private V touch(final LinkedHashMap<K, V> segment, final K key) {
+		V value = segment.remove(key);
+		if (value != null) {
+			segment.put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * <code>SimpleEntry</code> is an immutable key-value pair.
+	 *
+	 * @author <a href="mailto:pbielicki@gmail.com">Przemyslaw Bielicki</a>
+	 * @param <K>
+	 *            type of key.
+	 * @param <V>
+	 *            type of value.
+	 */
+	private static final class SimpleEntry<K, V> implements Map.Entry<K, V> {
+		/**
+		 * Key.
+		 */
+		private final K key;
+
+		/**
+		 * Value.
+		 */
+		private final V value;
+
+		/**
+		 * Constructs <code>SimpleEntry</code> instance.
+		 *
+		 * @param key
+		 *            K - key.
+		 * @param value
+		 *            V - value.
+		 */
+		SimpleEntry(final K key, final V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 * @see Map.Entry#getKey()
+		 */
+		public K getKey() {
+			return key;
+		}
+
+		/**
+		 * @see Map.Entry#getValue()
+		 */
+		public V getValue() {
+			return value;
+		}
+
+		/**
+		 * @see Map.Entry#setValue(Object)
+		 */
+		public V setValue(final V newValue) {
+			throw new UnsupportedOperationException("Entry is immutable.");
+		}
+	}
+}
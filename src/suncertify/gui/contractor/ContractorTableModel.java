@@ -177,6 +177,7 @@ class ContractorTableModel extends AbstractTableModel {
 
 		sortColumn = col;
 		ascending[col] = !ascending[col];
+		// XXX: the whole list is held for the filter tree anyway - see IDao#load(int, boolean, int, int)
 		Collections.sort(contractorList, new Comparator<Contractor>() {
 			/**
 			 * Field's comparator.
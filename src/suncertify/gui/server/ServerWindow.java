@@ -10,6 +10,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
+import java.util.Map;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -21,8 +22,8 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 import suncertify.core.ApplicationContext;
-import suncertify.db.dao.IContractorDao;
-import suncertify.db.dao.impl.ContractorRemoteDao;
+import suncertify.db.dao.impl.ContractorLocalDao;
+import suncertify.db.dao.impl.ContractorRemoteDaoFactory;
 import suncertify.gui.AbstractWindow;
 import suncertify.gui.util.GUIUtil;
 
@@ -59,7 +60,12 @@ public class ServerWindow extends AbstractWindow {
 	/**
 	 * Remote object to be set as a RMI service.
 	 */
-	private IContractorDao dao = null;
+	private ContractorRemoteDaoFactory daoFactory = null;
+
+	/**
+	 * Local DAO shared by sessions of the RMI service - database file is compacted through it.
+	 */
+	private ContractorLocalDao dao = null;
 
 	/*
 	 * Window widgets
@@ -77,6 +83,7 @@ public class ServerWindow extends AbstractWindow {
 	private JMenu serverMenu = null;
 	private JMenuItem startMenuItem = null;
 	private JMenuItem stopMenuItem = null;
+	private JMenuItem compactMenuItem = null;
 
 	// Panels & Panes
 	private JPanel buttonPanel = null;
@@ -205,10 +212,69 @@ public class ServerWindow extends AbstractWindow {
 			serverMenu.setText("Server");
 			serverMenu.add(getStartMenuItem());
 			serverMenu.add(getStopMenuItem());
+			serverMenu.addSeparator();
+			serverMenu.add(getCompactMenuItem());
 		}
 		return serverMenu;
 	}
 
+	/**
+	 * This method initializes {@link #compactMenuItem}.
+	 * 
+	 * @return JMenuItem - initialized {@link #compactMenuItem}.
+	 */
+	private JMenuItem getCompactMenuItem() {
+		if (compactMenuItem == null) {
+			compactMenuItem = new JMenuItem();
+			compactMenuItem.setText("Compact Database");
+			compactMenuItem.setEnabled(false);
+			compactMenuItem.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					compactDatabase();
+				}
+			});
+		}
+		return compactMenuItem;
+	}
+
+	/**
+	 * Removes deleted records from the database file - the RMI service remains available. The
+	 * database file is compacted in a separate thread and the result is displayed when it is done.
+	 */
+	private void compactDatabase() {
+		compactMenuItem.setEnabled(false);
+		final Frame thisFrame = this;
+
+		Thread compactor = new Thread("DB compactor") {
+			/**
+			 * @see Thread#run()
+			 */
+			public void run() {
+				String message = null;
+				int messageType = JOptionPane.INFORMATION_MESSAGE;
+				try {
+					Map<Integer, Integer> mapping = dao.compact();
+					message = "Database file was compacted - " + mapping.size() + " record(s) moved.";
+				} catch (Exception e) {
+					message = "Could not compact database file:\n" + e.getMessage();
+					messageType = JOptionPane.ERROR_MESSAGE;
+				}
+
+				final String dialogMessage = message;
+				final int dialogMessageType = messageType;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						compactMenuItem.setEnabled(true);
+						JOptionPane.showMessageDialog(thisFrame, dialogMessage, "Compact Database",
+								dialogMessageType);
+					}
+				});
+			}
+		};
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
 	/**
 	 * Returns the full service name as <code>String</code> - i.e. server db
 	 * filename; service host; service name.
@@ -418,13 +484,15 @@ public class ServerWindow extends AbstractWindow {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				try {
-					if (dao == null) {
-						dao = new ContractorRemoteDao(APP_CTX.getServerDBFileName());
+					if (daoFactory == null) {
+						dao = new ContractorLocalDao(APP_CTX.getServerDBFileName(), APP_CTX.getDBConfiguration());
+						daoFactory = new ContractorRemoteDaoFactory(dao);
 					}
 
-					Naming.rebind(APP_CTX.getServiceURL(), dao);
+					Naming.rebind(APP_CTX.getServiceURL(), daoFactory);
 					setStartEnabled(false);
 					setStopEnabled(true);
+					compactMenuItem.setEnabled(true);
 					setStatus(Status.RUNNING);
 				} catch (Exception e) {
 					rollbackStarting();